@@ -42,6 +42,18 @@ public interface ApplicationConstants {
 	public static final String LOCATION_UPDATE_INTENT = "org.artifactly.client.service.LocationUpdateIntent";
 	public static final String HAS_ARTIFACTS_AT_CURRENT_LOCATION_INTENT = "org.artifactly.client.service.HasArtifactsAtCurrentLocationIntent";
 	
+	/*
+	 * Import and export data formats
+	 */
+	public static final int DATA_FORMAT_CSV = 0;
+	public static final int DATA_FORMAT_JSON = 1;
+	public static final int IMPORT_BATCH_SIZE_DEFAULT = 500;
+	
+	/*
+	 * Artifact list paging
+	 */
+	public static final int ARTIFACTS_PAGE_SIZE_DEFAULT = 50;
+	
 	/*
 	 *  Byte masks for creating artifact/location
 	 *
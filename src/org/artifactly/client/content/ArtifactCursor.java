@@ -0,0 +1,50 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import android.database.Cursor;
+
+/*
+ * Artifact list cursor that decodes compressed artifact data. The list rows have a null
+ * artData and the deflated artDataZ for compressed artifacts, which is only inflated when
+ * the caller asks for the artData.
+ */
+class ArtifactCursor extends SQLiteStoreCursor {
+
+	private final int artDataColumnIndex;
+	private final int artDataCompressedColumnIndex;
+
+	ArtifactCursor(Cursor cursor) {
+
+		super(cursor);
+		this.artDataColumnIndex = cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_DATA]);
+		this.artDataCompressedColumnIndex = cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_DATA_COMPRESSED]);
+	}
+
+	@Override
+	public String getString(int columnIndex) {
+
+		String value = super.getString(columnIndex);
+
+		if(null == value && columnIndex == artDataColumnIndex && -1 != artDataCompressedColumnIndex && !isNull(artDataCompressedColumnIndex)) {
+
+			return ArtifactDataCodec.decompress(getBlob(artDataCompressedColumnIndex));
+		}
+
+		return value;
+	}
+}
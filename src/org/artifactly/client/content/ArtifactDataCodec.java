@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.util.Log;
+
+/*
+ * Deflate compression of large artifact data. Data at or below the threshold is
+ * stored as plain TEXT, so that short notes don't pay for the compression.
+ */
+public class ArtifactDataCodec {
+
+	private static final String PROD_LOG_TAG = "** A.D.C. **";
+
+	// Artifact data with more UTF-8 bytes than this is compressed
+	public static final int COMPRESSION_THRESHOLD = 1024;
+
+	private static final int BUFFER_SIZE = 4096;
+
+	/*
+	 * Returns the deflated UTF-8 bytes of the provided data, or null if the data is at or
+	 * below the threshold or doesn't get any smaller
+	 */
+	public static byte[] compress(String data) {
+
+		// A character takes at most three UTF-8 bytes
+		if(null == data || data.length() * 3 <= COMPRESSION_THRESHOLD) {
+
+			return null;
+		}
+
+		byte[] bytes = getUtf8Bytes(data);
+
+		if(bytes.length <= COMPRESSION_THRESHOLD) {
+
+			return null;
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2);
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		try {
+
+			deflater.setInput(bytes);
+			deflater.finish();
+
+			while(!deflater.finished()) {
+
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+			}
+		}
+		finally {
+
+			deflater.end();
+		}
+
+		return (compressed.size() < bytes.length) ? compressed.toByteArray() : null;
+	}
+
+	/*
+	 * Returns the data of the provided deflated UTF-8 bytes, or null if they can't be inflated
+	 */
+	public static String decompress(byte[] compressed) {
+
+		if(null == compressed) {
+
+			return null;
+		}
+
+		Inflater inflater = new Inflater();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(compressed.length * 4);
+		byte[] buffer = new byte[BUFFER_SIZE];
+
+		try {
+
+			inflater.setInput(compressed);
+
+			while(!inflater.finished()) {
+
+				int length = inflater.inflate(buffer);
+
+				if(0 == length && (inflater.needsInput() || inflater.needsDictionary())) {
+
+					Log.e(PROD_LOG_TAG, "Truncated compressed artifact data");
+					return null;
+				}
+
+				bytes.write(buffer, 0, length);
+			}
+
+			return bytes.toString("UTF-8");
+		}
+		catch(DataFormatException e) {
+
+			Log.e(PROD_LOG_TAG, "DataFormatException: decompress()", e);
+		}
+		catch(UnsupportedEncodingException e) {
+
+			Log.e(PROD_LOG_TAG, "UnsupportedEncodingException: decompress()", e);
+		}
+		finally {
+
+			inflater.end();
+		}
+
+		return null;
+	}
+
+	/*
+	 * Helper method that encodes the provided data as UTF-8
+	 */
+	private static byte[] getUtf8Bytes(String data) {
+
+		try {
+
+			return data.getBytes("UTF-8");
+		}
+		catch(UnsupportedEncodingException e) {
+
+			// Every Java platform supports UTF-8
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * Search term parsing and match ranking that DbAdapter and MemoryArtifactStore share, so
+ * that both engines return the same artifacts in the same order.
+ */
+final class ArtifactSearchRanking {
+
+	// Search ranking weights per FTS column, matches in the name count more than matches in the data
+	static final int [] SEARCH_COLUMN_WEIGHTS = {4, 1};
+
+	// Orders {score, artifact ID} search matches from worst to best. Equal scores favor the lower artifact ID
+	static final Comparator<long[]> SEARCH_MATCH_ORDER = new Comparator<long[]>() {
+
+		public int compare(long[] match, long[] otherMatch) {
+
+			if(match[0] != otherMatch[0]) {
+
+				return (match[0] < otherMatch[0]) ? -1 : 1;
+			}
+
+			return (match[1] > otherMatch[1]) ? -1 : ((match[1] == otherMatch[1]) ? 0 : 1);
+		}
+	};
+
+	/*
+	 * Helper method that splits the user's query into search terms. FTS operators and quotes
+	 * are dropped, so that the user input can't produce a malformed expression.
+	 */
+	static List<String> getSearchTerms(String query) {
+
+		List<String> terms = new ArrayList<String>();
+
+		if(null == query) {
+
+			return terms;
+		}
+
+		for(String word : query.split("\\s+")) {
+
+			StringBuilder term = new StringBuilder();
+
+			for(int i = 0; i < word.length(); i++) {
+
+				char c = word.charAt(i);
+
+				if(Character.isLetterOrDigit(c)) {
+
+					term.append(c);
+				}
+			}
+
+			// Skip empty terms and the FTS operator keywords
+			if(0 == term.length() || "OR".equals(term.toString()) || "AND".equals(term.toString()) || "NOT".equals(term.toString()) || "NEAR".equals(term.toString())) {
+
+				continue;
+			}
+
+			terms.add(term.toString());
+		}
+
+		return terms;
+	}
+
+	/*
+	 * Helper method that empties the provided search match heap into an array of artifact IDs,
+	 * best match first
+	 */
+	static long[] getArtifactIds(PriorityQueue<long[]> bestMatches) {
+
+		long[] artifactIds = new long[bestMatches.size()];
+
+		for(int i = artifactIds.length - 1; i >= 0; i--) {
+
+			artifactIds[i] = bestMatches.poll()[1];
+		}
+
+		return artifactIds;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/*
+ * Storage engine for artifacts, locations, and their associations. It covers everything
+ * the service needs and doesn't depend on Android, so that the data paths can run and be
+ * measured on a plain JVM. DbAdapter is the SQLite engine and MemoryArtifactStore is an
+ * in-memory one. The return codes are the ones documented on LocalService.
+ */
+public interface ArtifactStore {
+
+	/*
+	 * Create an artifact at a location, reusing an existing location (lat/lng) and artifact (name).
+	 * Returns the ApplicationConstants status byte mask.
+	 */
+	public byte insert(String locationName, String latitude, String longitude, String artifactName, String artifactData);
+
+	/*
+	 * Insert artifact/location rows in StoreSchema.IMPORT_FIELDS order, committed in batches
+	 */
+	public ImportResult bulkInsert(Iterator<String[]> rows, int batchSize);
+
+	public int deleteArtifact(String artifactId, String locationId);
+
+	/*
+	 * Delete a location if it doesn't have any artifacts
+	 */
+	public int deleteLocation(String locationId);
+
+	public int updateArtifact(String artifactId, String artifactName, String artifactData, String locationId, String locationName);
+
+	public int updateArtifactData(String artifactId, String artifactData);
+
+	/*
+	 * Update the data of several artifacts, keyed by artifact ID, at once. Returns the
+	 * number of updated artifacts.
+	 */
+	public int updateArtifactData(Map<String, String> artifactData);
+
+	public boolean hasArtifact(String artifactId);
+
+	public int updateLocation(String locationId, String locationName, String locationLat, String locationLng);
+
+	/*
+	 * Update a location's name and radius in meters. An empty radius makes the location use
+	 * the radius preference again.
+	 */
+	public int updateLocation(String locationId, String locationName, String locationLat, String locationLng, String locationRadius);
+
+	public int updateLocationCoodinates(String locationId, String locationName, String locationLat, String locationLng);
+
+	public boolean hasArtifactsAtLocation(String locId);
+
+	/*
+	 * Select one location and artifact relationship
+	 */
+	public StoreCursor select(String artifactId, String locationId);
+
+	/*
+	 * Select all the location and artifact relationships, sorted by location name, artifact
+	 * name, and artifact ID
+	 */
+	public StoreCursor select();
+
+	/*
+	 * Select one page of the select() rows, starting after the row with the provided
+	 * (locName, artName, artId) key, or at the first row if afterLocationName is null
+	 */
+	public StoreCursor selectPage(String afterLocationName, String afterArtifactName, long afterArtifactId, int pageSize);
+
+	/*
+	 * Select the location and artifact relationships of the provided artifacts, in select() order
+	 */
+	public StoreCursor select(long[] artifactIds);
+
+	/*
+	 * Select the location and artifact relationships at the provided locations, in select() order
+	 */
+	public StoreCursor selectAtLocations(long[] locationIds);
+
+	/*
+	 * Select all locations, sorted by name
+	 */
+	public StoreCursor getLocations();
+
+	/*
+	 * Select the locations within the provided bounding box, in no particular order. If minLongitude
+	 * is greater than maxLongitude, the box crosses the anti-meridian.
+	 */
+	public StoreCursor getLocations(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude);
+
+	/*
+	 * Select the locations in the bounding box of the radius around the provided point. The result
+	 * is a superset of the locations within the radius, so callers still need to check the exact distance.
+	 */
+	public StoreCursor getLocationsNear(double latitude, double longitude, double radiusInMeters);
+
+	/*
+	 * Search the artifact names and data for the words, or word prefixes, of the query.
+	 * Returns the IDs of the best matching artifacts, best match first.
+	 */
+	public long[] searchArtifacts(String query, int limit);
+
+	/*
+	 * Check if the store can be used right away. Until then, the other methods block, e.g.
+	 * while DbAdapter runs its required schema migration steps. If those fail, this stays
+	 * false and the other methods throw.
+	 */
+	public boolean isReady();
+
+	/*
+	 * Version that increases with every change
+	 */
+	public long getDataVersion();
+
+	/*
+	 * Snapshot of all the locations at the current data version
+	 */
+	public LocationSnapshot getLocationSnapshot();
+}
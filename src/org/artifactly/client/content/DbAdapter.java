@@ -16,6 +16,14 @@
 
 package org.artifactly.client.content;
 
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+
 import org.artifactly.client.ApplicationConstants;
 
 import android.content.ContentValues;
@@ -25,80 +33,456 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
-public class DbAdapter implements ApplicationConstants {
+public class DbAdapter implements ApplicationConstants, StoreSchema, ArtifactStore {
 
 	private static final String PROD_LOG_TAG = "** A.S.DB **";
 
 	private DatabaseHelper mDatabaseHelper;
 	private SQLiteDatabase mSQLiteDatabase;
 
-	private static final String DATABASE_NAME = "ArtifactlyData";
-	private static final String DB_TABLE_LOCATION = "Location";
-	private static final String DB_TABLE_ARTIFACT = "Artifact";
-	private static final String DB_TABLE_LOC_TO_ART = "LocToArt";
-	private static final int DATABASE_VERSION = 3;
+	// Snapshot of all location coordinates, rebuilt when the data version changes
+	private volatile LocationSnapshot mLocationSnapshot = null;
+	private final Object mLocationSnapshotLock = new Object();
+
+	// Compiled statements, keyed by their SQL
+	private final HashMap<String, SQLiteStatement> mStatementCache = new HashMap<String, SQLiteStatement>();
+
+	// Read-only connections that are used for list queries when write-ahead logging is enabled
+	private volatile SQLiteDatabase[] mReaderDatabases = new SQLiteDatabase[0];
+	private int mNextReaderDatabase = 0;
+
+	// Whether the R*Tree location index exists and is filled. It doesn't exist if SQLite was built without the R*Tree module
+	private volatile boolean mHasLocationTree = false;
 
-	public static final String [] LOC_FIELDS = {"_id", "locName", "lat", "lng"};
-	public static final String [] LOC_FIELDS_AS = {"locId", "locName", "locLat", "locLng"};
-	public static final String [] ART_FIELDS = {"_id", "artName", "artData", "artCreationDate"};
-	public static final String [] LOC_ART_FIELDS = {"artId", "locId" };
+	// Runs the schema migration steps on the thread below. The latch opens once the required steps are done
+	private final SchemaMigrator mSchemaMigrator = new SchemaMigrator(SCHEMA_MIGRATIONS, UPGRADE_CHUNK_SIZE);
+	private final CountDownLatch mSchemaMigrationLatch = new CountDownLatch(1);
+	private Thread mSchemaMigrationThread = null;
 
-	public static final int LOC_ID = 0;
-	public static final int LOC_NAME = 1;
-	public static final int LOC_LATITUDE = 2;
-	public static final int LOC_LONGITUDE = 3;
+	// State of the required schema migration steps, set before the latch opens
+	private static final int SCHEMA_MIGRATION_RUNNING = 0;
+	private static final int SCHEMA_MIGRATION_DONE = 1;
+	private static final int SCHEMA_MIGRATION_FAILED = 2;
+	private volatile int mSchemaMigrationState = SCHEMA_MIGRATION_RUNNING;
 
-	public static final int ART_ID = 0;
-	public static final int ART_NAME = 1;
-	public static final int ART_DATA = 2;
-	public static final int ART_CREATION_DATE = 3;
+	// In-memory copy of the persistent data version, see getDataVersion()
+	private volatile long mDataVersion = 0;
 
-	public static final int FK_ART_ID = 0;
-	public static final int FK_LOC_ID = 1;
+	private static final String DATABASE_NAME = "ArtifactlyData";
+	private static final String DB_TABLE_LOCATION = "Location";
+	private static final String DB_TABLE_ARTIFACT = "Artifact";
+	private static final String DB_TABLE_LOC_TO_ART = "LocToArt";
+	private static final String DB_TABLE_ARTIFACT_SEARCH = "ArtifactSearch";
+	private static final String DB_TABLE_LOCATION_TREE = "LocationTree";
+	private static final String DB_TABLE_ARTIFACT_LISTING = "ArtifactListing";
+	private static final String DB_TABLE_DATA_VERSION = "DataVersion";
+	private static final String DB_TABLE_LOCATION_INVALID = "LocationInvalid";
+	private static final int DATABASE_VERSION = 12;
+
+	// Number of rows that are copied per statement while upgrading a table
+	private static final int UPGRADE_CHUNK_SIZE = 500;
+
+	// Write-ahead logging is available as of Honeycomb (API level 11)
+	private static final int WAL_MIN_SDK_VERSION = 11;
+	private static final int READER_POOL_SIZE = 2;
+
+	private static final String [] DATA_VERSION_FIELDS = {"_id", "version"};
+	private static final String [] LOC_TREE_FIELDS = {"id", "minLat", "maxLat", "minLng", "maxLng"};
+
+	private static final int TREE_ID = 0;
+	private static final int TREE_MIN_LATITUDE = 1;
+	private static final int TREE_MAX_LATITUDE = 2;
+	private static final int TREE_MIN_LONGITUDE = 3;
+	private static final int TREE_MAX_LONGITUDE = 4;
+
+	// The R*Tree stores 32-bit floats, so its boxes are probed with this margin and the exact coordinates are checked after
+	private static final double LOCATION_TREE_MARGIN_DEGREES = 0.0001d;
 	
 	private static final String CREATE_LOCATION_TABLE =
 		"create table " + DB_TABLE_LOCATION + " (" + LOC_FIELDS[LOC_ID] + " INTEGER primary key autoincrement, "
 		+ LOC_FIELDS[LOC_NAME] + " TEXT not null, "
-		+ LOC_FIELDS[LOC_LATITUDE] + " TEXT not null, "
-		+ LOC_FIELDS[LOC_LONGITUDE] + " TEXT not null);";
+		+ LOC_FIELDS[LOC_LATITUDE] + " REAL not null, "
+		+ LOC_FIELDS[LOC_LONGITUDE] + " REAL not null);";
+
+	// Locations with TEXT coordinates that could not be converted to REAL by the version 4 upgrade. They keep their _id, so their LocToArt rows can be restored
+	private static final String CREATE_LOCATION_INVALID_TABLE =
+		"create table if not exists " + DB_TABLE_LOCATION_INVALID + " (" + LOC_FIELDS[LOC_ID] + " INTEGER primary key, "
+		+ LOC_FIELDS[LOC_NAME] + " TEXT, "
+		+ LOC_FIELDS[LOC_LATITUDE] + " TEXT, "
+		+ LOC_FIELDS[LOC_LONGITUDE] + " TEXT);";
+
+	private static final String CREATE_LOCATION_LAT_LNG_INDEX =
+		"create index " + DB_TABLE_LOCATION + "LatLng on " + DB_TABLE_LOCATION + " (" + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + ");";
+
+	private static final String CREATE_LOCATION_NAME_INDEX =
+		"create index " + DB_TABLE_LOCATION + "LocName on " + DB_TABLE_LOCATION + " (" + LOC_FIELDS[LOC_NAME] + ");";
 
 	private static final String CREATE_ARTIFACT_TABLE =
 		"create table " + DB_TABLE_ARTIFACT + "(" + ART_FIELDS[ART_ID] + " INTEGER primary key autoincrement, "
 		+ ART_FIELDS[ART_NAME] + " TEXT not null, "
 		+ ART_FIELDS[ART_DATA] + " TEXT, "
-		+ ART_FIELDS[ART_CREATION_DATE] + " DATETIME default current_timestamp);";
+		+ ART_FIELDS[ART_CREATION_DATE] + " DATETIME default current_timestamp, "
+		+ ART_FIELDS[ART_DATA_COMPRESSED] + " BLOB);";
+
+	private static final String CREATE_ARTIFACT_NAME_INDEX =
+		"create index " + DB_TABLE_ARTIFACT + "ArtName on " + DB_TABLE_ARTIFACT + " (" + ART_FIELDS[ART_NAME] + ");";
 
 	private static final String CREATE_LOC_TO_ART_TABLE =
 		"create table " + DB_TABLE_LOC_TO_ART + "(" + LOC_ART_FIELDS[FK_ART_ID] + " INTEGER REFERENCES " + DB_TABLE_ARTIFACT + "(" + ART_FIELDS[ART_ID] + "), "
 		+ LOC_ART_FIELDS[FK_LOC_ID] + " INTEGER REFERENCES " + DB_TABLE_LOCATION + "(" + LOC_FIELDS[LOC_ID] + "),"
 		+ "PRIMARY KEY (" + LOC_ART_FIELDS[FK_ART_ID] + ", " + LOC_ART_FIELDS[FK_LOC_ID] + "))";
 
+	// Full-text index of the artifact names and data. The FTS docid is the Artifact._id
+	private static final String CREATE_ARTIFACT_SEARCH_TABLE =
+		"create virtual table " + DB_TABLE_ARTIFACT_SEARCH + " using fts3(" + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + ");";
+
+	private static final String [] CREATE_ARTIFACT_SEARCH_TRIGGERS = {
+		"create trigger " + DB_TABLE_ARTIFACT_SEARCH + "Insert after insert on " + DB_TABLE_ARTIFACT + " begin"
+		+ " insert into " + DB_TABLE_ARTIFACT_SEARCH + " (docid, " + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + ") values (new." + ART_FIELDS[ART_ID] + ", new." + ART_FIELDS[ART_NAME] + ", new." + ART_FIELDS[ART_DATA] + "); end;",
+		"create trigger " + DB_TABLE_ARTIFACT_SEARCH + "Update after update of " + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + " on " + DB_TABLE_ARTIFACT + " begin"
+		+ " update " + DB_TABLE_ARTIFACT_SEARCH + " set " + ART_FIELDS[ART_NAME] + "=new." + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + "=new." + ART_FIELDS[ART_DATA] + " where docid=old." + ART_FIELDS[ART_ID] + "; end;",
+		"create trigger " + DB_TABLE_ARTIFACT_SEARCH + "Delete after delete on " + DB_TABLE_ARTIFACT + " begin"
+		+ " delete from " + DB_TABLE_ARTIFACT_SEARCH + " where docid=old." + ART_FIELDS[ART_ID] + "; end;"
+	};
+
+	/*
+	 * The triggers index the plain artData. For compressed artifact data, DbAdapter replaces the search entry itself
+	 */
+	private static final String DELETE_ARTIFACT_SEARCH_SQL =
+		"delete from " + DB_TABLE_ARTIFACT_SEARCH + " where docid=?";
+
+	private static final String INSERT_ARTIFACT_SEARCH_SQL =
+		"insert into " + DB_TABLE_ARTIFACT_SEARCH + " (docid, " + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + ")"
+		+ " select " + ART_FIELDS[ART_ID] + ", " + ART_FIELDS[ART_NAME] + ", ? from " + DB_TABLE_ARTIFACT + " where " + ART_FIELDS[ART_ID] + "=?";
+
+	private static final String [] CREATE_ARTIFACT_SEARCH = concat(new String[] {CREATE_ARTIFACT_SEARCH_TABLE}, CREATE_ARTIFACT_SEARCH_TRIGGERS);
+
+	// R*Tree index of the location coordinates. The R*Tree id is the Location._id
+	private static final String CREATE_LOCATION_TREE_TABLE =
+		"create virtual table " + DB_TABLE_LOCATION_TREE + " using rtree(" + LOC_TREE_FIELDS[TREE_ID] + ", " + LOC_TREE_FIELDS[TREE_MIN_LATITUDE] + ", " + LOC_TREE_FIELDS[TREE_MAX_LATITUDE] + ", "
+		+ LOC_TREE_FIELDS[TREE_MIN_LONGITUDE] + ", " + LOC_TREE_FIELDS[TREE_MAX_LONGITUDE] + ");";
+
+	private static final String [] CREATE_LOCATION_TREE_TRIGGERS = {
+		"create trigger " + DB_TABLE_LOCATION_TREE + "Insert after insert on " + DB_TABLE_LOCATION + " begin"
+		+ " insert into " + DB_TABLE_LOCATION_TREE + " values (new." + LOC_FIELDS[LOC_ID] + ", new." + LOC_FIELDS[LOC_LATITUDE] + ", new." + LOC_FIELDS[LOC_LATITUDE] + ", new." + LOC_FIELDS[LOC_LONGITUDE] + ", new." + LOC_FIELDS[LOC_LONGITUDE] + "); end;",
+		"create trigger " + DB_TABLE_LOCATION_TREE + "Update after update of " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + " on " + DB_TABLE_LOCATION + " begin"
+		+ " update " + DB_TABLE_LOCATION_TREE + " set " + LOC_TREE_FIELDS[TREE_MIN_LATITUDE] + "=new." + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_TREE_FIELDS[TREE_MAX_LATITUDE] + "=new." + LOC_FIELDS[LOC_LATITUDE] + ", "
+		+ LOC_TREE_FIELDS[TREE_MIN_LONGITUDE] + "=new." + LOC_FIELDS[LOC_LONGITUDE] + ", " + LOC_TREE_FIELDS[TREE_MAX_LONGITUDE] + "=new." + LOC_FIELDS[LOC_LONGITUDE] + " where " + LOC_TREE_FIELDS[TREE_ID] + "=old." + LOC_FIELDS[LOC_ID] + "; end;",
+		"create trigger " + DB_TABLE_LOCATION_TREE + "Delete after delete on " + DB_TABLE_LOCATION + " begin"
+		+ " delete from " + DB_TABLE_LOCATION_TREE + " where " + LOC_TREE_FIELDS[TREE_ID] + "=old." + LOC_FIELDS[LOC_ID] + "; end;"
+	};
+
+	/*
+	 * Bounding box queries. Both return the LOC_FIELDS columns of the locations within one longitude range.
+	 * The unary + keeps SQLite from using the lat/lng index instead of the R*Tree for the exact check. It also
+	 * drops the column's REAL affinity, so the arguments, which are bound as TEXT, are cast to REAL.
+	 */
+	private static final String SELECT_LOCATIONS_IN_TREE_BOX_SQL =
+		"select " + DB_TABLE_LOCATION + "." + LOC_FIELDS[LOC_ID] + " AS " + LOC_FIELDS[LOC_ID] + ", " + LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + ", " + LOC_FIELDS[LOC_RADIUS]
+		+ " from " + DB_TABLE_LOCATION_TREE + " join " + DB_TABLE_LOCATION + " on (" + DB_TABLE_LOCATION + "." + LOC_FIELDS[LOC_ID] + "=" + DB_TABLE_LOCATION_TREE + "." + LOC_TREE_FIELDS[TREE_ID] + ")"
+		+ " where " + LOC_TREE_FIELDS[TREE_MAX_LATITUDE] + ">=cast(? as REAL) and " + LOC_TREE_FIELDS[TREE_MIN_LATITUDE] + "<=cast(? as REAL) and "
+		+ LOC_TREE_FIELDS[TREE_MAX_LONGITUDE] + ">=cast(? as REAL) and " + LOC_TREE_FIELDS[TREE_MIN_LONGITUDE] + "<=cast(? as REAL)"
+		+ " and +" + LOC_FIELDS[LOC_LATITUDE] + " between cast(? as REAL) and cast(? as REAL) and +" + LOC_FIELDS[LOC_LONGITUDE] + " between cast(? as REAL) and cast(? as REAL)";
+
+	private static final String SELECT_LOCATIONS_IN_BOX_SQL =
+		"select " + LOC_FIELDS[LOC_ID] + ", " + LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + ", " + LOC_FIELDS[LOC_RADIUS] + " from " + DB_TABLE_LOCATION
+		+ " where " + LOC_FIELDS[LOC_LATITUDE] + " between cast(? as REAL) and cast(? as REAL) and " + LOC_FIELDS[LOC_LONGITUDE] + " between cast(? as REAL) and cast(? as REAL)";
+
+	private static final String HAS_LOCATION_TREE_SQL =
+		"select exists(select 1 from sqlite_master where type='table' and name='" + DB_TABLE_LOCATION_TREE + "')";
+
+	private static final int LOCATION_TREE_VERSION = 7;
+
+	/*
+	 * Denormalized copy of the LocToArt, Artifact and Location join, with one row per association. The
+	 * triggers keep it in sync, and the sort order index lets the artifact lists read it without a join or sort.
+	 */
+	private static final String CREATE_ARTIFACT_LISTING_TABLE =
+		"create table " + DB_TABLE_ARTIFACT_LISTING + " (" + LOC_ART_FIELDS[FK_ART_ID] + " INTEGER not null, "
+		+ LOC_ART_FIELDS[FK_LOC_ID] + " INTEGER not null, "
+		+ ART_FIELDS[ART_NAME] + " TEXT not null, "
+		+ ART_FIELDS[ART_DATA] + " TEXT, "
+		+ LOC_FIELDS[LOC_NAME] + " TEXT not null, "
+		+ LOC_FIELDS[LOC_LATITUDE] + " REAL not null, "
+		+ LOC_FIELDS[LOC_LONGITUDE] + " REAL not null, "
+		+ "PRIMARY KEY (" + LOC_ART_FIELDS[FK_ART_ID] + ", " + LOC_ART_FIELDS[FK_LOC_ID] + "));";
+
+	private static final String CREATE_ARTIFACT_LISTING_SORT_ORDER_INDEX =
+		"create index " + DB_TABLE_ARTIFACT_LISTING + "SortOrder on " + DB_TABLE_ARTIFACT_LISTING + " (" + LOC_FIELDS[LOC_NAME] + ", " + ART_FIELDS[ART_NAME] + ", " + LOC_ART_FIELDS[FK_ART_ID] + ");";
+
+	private static final String SELECT_ARTIFACT_LISTING_ROWS_SQL =
+		"select " + DB_TABLE_ARTIFACT + "." + ART_FIELDS[ART_ID] + ", " + DB_TABLE_LOCATION + "." + LOC_FIELDS[LOC_ID] + ", " + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + ", "
+		+ LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE]
+		+ " from " + DB_TABLE_LOC_TO_ART + " join " + DB_TABLE_ARTIFACT + " on (" + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_ART_ID] + "=" + DB_TABLE_ARTIFACT + "." + ART_FIELDS[ART_ID] + ")"
+		+ " join " + DB_TABLE_LOCATION + " on (" + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_LOC_ID] + "=" + DB_TABLE_LOCATION + "." + LOC_FIELDS[LOC_ID] + ")";
+
+	private static final String [] CREATE_ARTIFACT_LISTING_TRIGGERS = {
+		"create trigger " + DB_TABLE_ARTIFACT_LISTING + "LocToArtInsert after insert on " + DB_TABLE_LOC_TO_ART + " begin"
+		+ " insert into " + DB_TABLE_ARTIFACT_LISTING + " " + SELECT_ARTIFACT_LISTING_ROWS_SQL
+		+ " where " + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_ART_ID] + "=new." + LOC_ART_FIELDS[FK_ART_ID] + " and " + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_LOC_ID] + "=new." + LOC_ART_FIELDS[FK_LOC_ID] + "; end;",
+		"create trigger " + DB_TABLE_ARTIFACT_LISTING + "LocToArtDelete after delete on " + DB_TABLE_LOC_TO_ART + " begin"
+		+ " delete from " + DB_TABLE_ARTIFACT_LISTING + " where " + LOC_ART_FIELDS[FK_ART_ID] + "=old." + LOC_ART_FIELDS[FK_ART_ID] + " and " + LOC_ART_FIELDS[FK_LOC_ID] + "=old." + LOC_ART_FIELDS[FK_LOC_ID] + "; end;",
+		"create trigger " + DB_TABLE_ARTIFACT_LISTING + "ArtifactUpdate after update of " + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + " on " + DB_TABLE_ARTIFACT + " begin"
+		+ " update " + DB_TABLE_ARTIFACT_LISTING + " set " + ART_FIELDS[ART_NAME] + "=new." + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + "=new." + ART_FIELDS[ART_DATA]
+		+ " where " + LOC_ART_FIELDS[FK_ART_ID] + "=old." + ART_FIELDS[ART_ID] + "; end;",
+		"create trigger " + DB_TABLE_ARTIFACT_LISTING + "ArtifactDelete after delete on " + DB_TABLE_ARTIFACT + " begin"
+		+ " delete from " + DB_TABLE_ARTIFACT_LISTING + " where " + LOC_ART_FIELDS[FK_ART_ID] + "=old." + ART_FIELDS[ART_ID] + "; end;",
+		"create trigger " + DB_TABLE_ARTIFACT_LISTING + "LocationUpdate after update of " + LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + " on " + DB_TABLE_LOCATION + " begin"
+		+ " update " + DB_TABLE_ARTIFACT_LISTING + " set " + LOC_FIELDS[LOC_NAME] + "=new." + LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + "=new." + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + "=new." + LOC_FIELDS[LOC_LONGITUDE]
+		+ " where " + LOC_ART_FIELDS[FK_LOC_ID] + "=old." + LOC_FIELDS[LOC_ID] + "; end;",
+		"create trigger " + DB_TABLE_ARTIFACT_LISTING + "LocationDelete after delete on " + DB_TABLE_LOCATION + " begin"
+		+ " delete from " + DB_TABLE_ARTIFACT_LISTING + " where " + LOC_ART_FIELDS[FK_LOC_ID] + "=old." + LOC_FIELDS[LOC_ID] + "; end;"
+	};
+
+	private static final String [] CREATE_ARTIFACT_LISTING = concat(new String[] {CREATE_ARTIFACT_LISTING_TABLE, CREATE_ARTIFACT_LISTING_SORT_ORDER_INDEX}, CREATE_ARTIFACT_LISTING_TRIGGERS);
+
+	/*
+	 * Version 12 adds the compressed artifact data to the listing, so list cursors can inflate it in place, see ArtifactCursor.
+	 * The triggers that copy artifact data are replaced by ones that copy artDataZ as well.
+	 */
+	private static final String [] ADD_ARTIFACT_LISTING_COMPRESSED_DATA = {
+		"alter table " + DB_TABLE_ARTIFACT_LISTING + " add column " + ART_FIELDS[ART_DATA_COMPRESSED] + " BLOB;",
+		"drop trigger " + DB_TABLE_ARTIFACT_LISTING + "LocToArtInsert;",
+		"create trigger " + DB_TABLE_ARTIFACT_LISTING + "LocToArtInsert after insert on " + DB_TABLE_LOC_TO_ART + " begin"
+		+ " insert into " + DB_TABLE_ARTIFACT_LISTING + " (" + LOC_ART_FIELDS[FK_ART_ID] + ", " + LOC_ART_FIELDS[FK_LOC_ID] + ", " + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + ", "
+		+ LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + ", " + ART_FIELDS[ART_DATA_COMPRESSED] + ") "
+		+ SELECT_ARTIFACT_LISTING_ROWS_SQL.replaceFirst(" from ", ", " + ART_FIELDS[ART_DATA_COMPRESSED] + " from ")
+		+ " where " + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_ART_ID] + "=new." + LOC_ART_FIELDS[FK_ART_ID] + " and " + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_LOC_ID] + "=new." + LOC_ART_FIELDS[FK_LOC_ID] + "; end;",
+		"drop trigger " + DB_TABLE_ARTIFACT_LISTING + "ArtifactUpdate;",
+		"create trigger " + DB_TABLE_ARTIFACT_LISTING + "ArtifactUpdate after update of " + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + ", " + ART_FIELDS[ART_DATA_COMPRESSED] + " on " + DB_TABLE_ARTIFACT + " begin"
+		+ " update " + DB_TABLE_ARTIFACT_LISTING + " set " + ART_FIELDS[ART_NAME] + "=new." + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + "=new." + ART_FIELDS[ART_DATA] + ", "
+		+ ART_FIELDS[ART_DATA_COMPRESSED] + "=new." + ART_FIELDS[ART_DATA_COMPRESSED]
+		+ " where " + LOC_ART_FIELDS[FK_ART_ID] + "=old." + ART_FIELDS[ART_ID] + "; end;"
+	};
+
+	// Columns of the artifact list queries
+	private static final String [] ARTIFACT_LISTING_COLUMNS = {
+		LOC_ART_FIELDS[FK_ART_ID], LOC_ART_FIELDS[FK_LOC_ID], ART_FIELDS[ART_NAME], ART_FIELDS[ART_DATA], LOC_FIELDS[LOC_NAME], LOC_FIELDS[LOC_LATITUDE], LOC_FIELDS[LOC_LONGITUDE], ART_FIELDS[ART_DATA_COMPRESSED]
+	};
+
+	private static final String ARTIFACT_LISTING_ORDER_BY =
+		LOC_FIELDS[LOC_NAME] + " ASC, " + ART_FIELDS[ART_NAME] + " ASC, " + LOC_ART_FIELDS[FK_ART_ID] + " ASC";
+
+	// Listing rows of the locations in the "in" list that the caller appends
+	private static final String SELECT_ARTIFACTS_AT_LOCATIONS_SQL =
+		"select " + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_ART_ID] + " as " + LOC_ART_FIELDS[FK_ART_ID] + ", " + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_LOC_ID] + " as " + LOC_ART_FIELDS[FK_LOC_ID] + ", "
+		+ ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + ", " + LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + ", " + ART_FIELDS[ART_DATA_COMPRESSED]
+		+ " from " + DB_TABLE_LOC_TO_ART + " join " + DB_TABLE_ARTIFACT + " on (" + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_ART_ID] + "=" + DB_TABLE_ARTIFACT + "." + ART_FIELDS[ART_ID] + ")"
+		+ " join " + DB_TABLE_LOCATION + " on (" + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_LOC_ID] + "=" + DB_TABLE_LOCATION + "." + LOC_FIELDS[LOC_ID] + ")"
+		+ " where " + DB_TABLE_LOC_TO_ART + "." + LOC_ART_FIELDS[FK_LOC_ID] + " in";
+
+	// Single row table with the data version
+	private static final String [] CREATE_DATA_VERSION = {
+		"create table " + DB_TABLE_DATA_VERSION + " (" + DATA_VERSION_FIELDS[0] + " INTEGER primary key check (" + DATA_VERSION_FIELDS[0] + "=1), "
+		+ DATA_VERSION_FIELDS[1] + " INTEGER not null);",
+		"insert into " + DB_TABLE_DATA_VERSION + " values (1, 1);"
+	};
+
+	private static final String ADD_LOCATION_RADIUS_COLUMN =
+		"alter table " + DB_TABLE_LOCATION + " add column " + LOC_FIELDS[LOC_RADIUS] + " INTEGER;";
+
+	private static final String SELECT_LOCATION_SNAPSHOT_SQL =
+		"select " + LOC_FIELDS[LOC_ID] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + ", " + LOC_FIELDS[LOC_RADIUS]
+		+ ", exists (select 1 from " + DB_TABLE_LOC_TO_ART + " where " + LOC_ART_FIELDS[FK_LOC_ID] + "=" + DB_TABLE_LOCATION + "." + LOC_FIELDS[LOC_ID] + ")"
+		+ " from " + DB_TABLE_LOCATION + " order by " + LOC_FIELDS[LOC_LATITUDE];
+
+	private static final String SELECT_DATA_VERSION_SQL =
+		"select " + DATA_VERSION_FIELDS[1] + " from " + DB_TABLE_DATA_VERSION;
+
+	private static final String INCREMENT_DATA_VERSION_SQL =
+		"update " + DB_TABLE_DATA_VERSION + " set " + DATA_VERSION_FIELDS[1] + "=" + DATA_VERSION_FIELDS[1] + "+1";
+
+	private static final String CREATE_LOC_TO_ART_LOC_ID_INDEX =
+		"create index " + DB_TABLE_LOC_TO_ART + "LocId on " + DB_TABLE_LOC_TO_ART + " (" + LOC_ART_FIELDS[FK_LOC_ID] + ", " + LOC_ART_FIELDS[FK_ART_ID] + ");";
+
+	/*
+	 * Single value queries and inserts. They are compiled once and cached, see getCompiledStatement()
+	 */
+	private static final String SELECT_LOCATION_ID_SQL =
+		"select ifnull((select " + LOC_FIELDS[LOC_ID] + " from " + DB_TABLE_LOCATION + " where " + LOC_FIELDS[LOC_LATITUDE] + "=? and " + LOC_FIELDS[LOC_LONGITUDE] + "=? limit 1), -1)";
+
+	private static final String SELECT_ARTIFACT_ID_SQL =
+		"select ifnull((select " + ART_FIELDS[ART_ID] + " from " + DB_TABLE_ARTIFACT + " where " + ART_FIELDS[ART_NAME] + "=? limit 1), -1)";
+
+	private static final String HAS_ARTIFACT_SQL =
+		"select exists(select 1 from " + DB_TABLE_ARTIFACT + " where " + ART_FIELDS[ART_ID] + "=?)";
+
+	private static final String IS_ARTIFACT_REFERENCED_SQL =
+		"select exists(select 1 from " + DB_TABLE_LOC_TO_ART + " where " + LOC_ART_FIELDS[FK_ART_ID] + "=?)";
+
+	private static final String HAS_LOCATION_SQL =
+		"select exists(select 1 from " + DB_TABLE_LOCATION + " where " + LOC_FIELDS[LOC_NAME] + "=?)";
+
+	private static final String HAS_LOCATION_IN_LOC_TO_ART_SQL =
+		"select exists(select 1 from " + DB_TABLE_LOC_TO_ART + " where " + LOC_ART_FIELDS[FK_LOC_ID] + "=?)";
+
+	private static final String HAS_OTHER_LOCATION_WITH_NAME_SQL =
+		"select exists(select 1 from " + DB_TABLE_LOCATION + " where " + LOC_FIELDS[LOC_NAME] + "=? and " + LOC_FIELDS[LOC_ID] + "<>?)";
+
+	private static final String HAS_LOCATION_WITH_NAME_ELSEWHERE_SQL =
+		"select exists(select 1 from " + DB_TABLE_LOCATION + " where " + LOC_FIELDS[LOC_NAME] + "=? and (" + LOC_FIELDS[LOC_LATITUDE] + "<>? or " + LOC_FIELDS[LOC_LONGITUDE] + "<>?))";
+
+	private static final String HAS_ARTIFACT_AT_LOCATION_SQL =
+		"select exists(select 1 from " + DB_TABLE_ARTIFACT_LISTING + " where " + ART_FIELDS[ART_NAME] + "=? and " + LOC_FIELDS[LOC_NAME] + "=? and " + LOC_ART_FIELDS[FK_LOC_ID] + "=?)";
+
+	private static final String INSERT_LOCATION_SQL =
+		"insert into " + DB_TABLE_LOCATION + " (" + LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + ") values (?, ?, ?)";
+
+	private static final String INSERT_ARTIFACT_SQL =
+		"insert into " + DB_TABLE_ARTIFACT + " (" + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + ", " + ART_FIELDS[ART_DATA_COMPRESSED] + ") values (?, ?, ?)";
 
-	// Constructor that initializes the database
+	private static final String INSERT_LOC_TO_ART_SQL =
+		"insert or ignore into " + DB_TABLE_LOC_TO_ART + " (" + LOC_ART_FIELDS[FK_ART_ID] + ", " + LOC_ART_FIELDS[FK_LOC_ID] + ") values (?, ?)";
+
+	/*
+	 * Schema migration steps, in version order. See SchemaMigrator
+	 */
+	private static final SchemaMigration [] SCHEMA_MIGRATIONS = {
+
+		// Version 4 stores the location coordinates as REAL instead of TEXT. SQLite cannot change a column type, so the rows are copied into a new table.
+		// Rows with coordinates that don't parse are moved to the LocationInvalid table instead, see copyLocationCoordinates()
+		new SchemaMigration(4, "Location coordinates as REAL", false,
+			new String[] {CREATE_LOCATION_TABLE.replaceFirst(DB_TABLE_LOCATION, DB_TABLE_LOCATION + "_v4"), CREATE_LOCATION_INVALID_TABLE},
+			DB_TABLE_LOCATION,
+			null,
+			new String[] {"drop table " + DB_TABLE_LOCATION, "alter table " + DB_TABLE_LOCATION + "_v4 rename to " + DB_TABLE_LOCATION, CREATE_LOCATION_LAT_LNG_INDEX}) {
+
+			@Override
+			long copyRows(SQLiteDatabase db, long fromRowId, long toRowId) {
+
+				return copyLocationCoordinates(db, fromRowId, toRowId);
+			}
+		},
+
+		// Version 5 adds the indexes that the sorted and keyset paginated artifact lists use
+		new SchemaMigration(5, "List indexes", false,
+			new String[] {CREATE_LOCATION_NAME_INDEX, CREATE_ARTIFACT_NAME_INDEX, CREATE_LOC_TO_ART_LOC_ID_INDEX},
+			null, null, null),
+
+		// Version 6 adds the full-text search table. Search results are incomplete until the existing artifacts are copied.
+		// Artifacts that the triggers already indexed are skipped with a docid lookup per row, which every FTS3 version can do without a scan
+		new SchemaMigration(6, "Artifact search", true,
+			CREATE_ARTIFACT_SEARCH,
+			DB_TABLE_ARTIFACT,
+			"insert into " + DB_TABLE_ARTIFACT_SEARCH + " (docid, " + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + ")"
+			+ " select " + ART_FIELDS[ART_ID] + ", " + ART_FIELDS[ART_NAME] + ", " + ART_FIELDS[ART_DATA] + " from " + DB_TABLE_ARTIFACT
+			+ " where " + ART_FIELDS[ART_ID] + " > ? and " + ART_FIELDS[ART_ID] + " <= ?"
+			+ " and not exists (select 1 from " + DB_TABLE_ARTIFACT_SEARCH + " where docid=" + DB_TABLE_ARTIFACT + "." + ART_FIELDS[ART_ID] + ")",
+			null),
+
+		// Version 7 adds the R*Tree location index. Bounding box queries use the lat/lng index until the existing locations are copied
+		new SchemaMigration(LOCATION_TREE_VERSION, "Location R*Tree", true,
+			null,
+			DB_TABLE_LOCATION,
+			"insert into " + DB_TABLE_LOCATION_TREE + " select " + LOC_FIELDS[LOC_ID] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", "
+			+ LOC_FIELDS[LOC_LONGITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + " from " + DB_TABLE_LOCATION
+			+ " where " + LOC_FIELDS[LOC_ID] + " > ? and " + LOC_FIELDS[LOC_ID] + " <= ?",
+			null) {
+
+			@Override
+			boolean prepare(SQLiteDatabase db) {
+
+				return createLocationTree(db);
+			}
+		},
+
+		// Version 8 adds the denormalized artifact listing table that the artifact lists read
+		new SchemaMigration(8, "Artifact listing", false,
+			CREATE_ARTIFACT_LISTING,
+			DB_TABLE_LOC_TO_ART,
+			"insert or replace into " + DB_TABLE_ARTIFACT_LISTING + " " + SELECT_ARTIFACT_LISTING_ROWS_SQL
+			+ " where " + DB_TABLE_LOC_TO_ART + ".rowid > ? and " + DB_TABLE_LOC_TO_ART + ".rowid <= ?",
+			null),
+
+		// Version 9 adds the compressed artifact data column, and then compresses the existing large artifact data
+		new SchemaMigration(9, "Compressed artifact data", true,
+			new String[] {"alter table " + DB_TABLE_ARTIFACT + " add column " + ART_FIELDS[ART_DATA_COMPRESSED] + " BLOB"},
+			DB_TABLE_ARTIFACT,
+			null,
+			null) {
+
+			@Override
+			long copyRows(SQLiteDatabase db, long fromRowId, long toRowId) {
+
+				return compressArtifactData(db, fromRowId, toRowId);
+			}
+		},
+
+		// Version 10 adds the data version
+		new SchemaMigration(10, "Data version", false,
+			CREATE_DATA_VERSION,
+			null, null, null),
+
+		// Version 11 adds the optional location radius
+		new SchemaMigration(11, "Location radius", false,
+			new String[] {ADD_LOCATION_RADIUS_COLUMN},
+			null, null, null),
+
+		// Version 12 adds the compressed artifact data to the listing. Only the listing rows of compressed artifacts have to be filled
+		new SchemaMigration(12, "Artifact listing compressed data", false,
+			ADD_ARTIFACT_LISTING_COMPRESSED_DATA,
+			DB_TABLE_ARTIFACT,
+			"update " + DB_TABLE_ARTIFACT_LISTING + " set " + ART_FIELDS[ART_DATA_COMPRESSED] + "=(select " + ART_FIELDS[ART_DATA_COMPRESSED] + " from " + DB_TABLE_ARTIFACT
+			+ " where " + DB_TABLE_ARTIFACT + "." + ART_FIELDS[ART_ID] + "=" + DB_TABLE_ARTIFACT_LISTING + "." + LOC_ART_FIELDS[FK_ART_ID] + ")"
+			+ " where " + LOC_ART_FIELDS[FK_ART_ID] + " > ? and " + LOC_ART_FIELDS[FK_ART_ID] + " <= ? and " + ART_FIELDS[ART_DATA] + " is null",
+			null)
+	};
+
+
+	/*
+	 * Constructor that initializes the database. The schema migration steps run on a background
+	 * thread, and the other methods wait until the required ones are done, see isReady().
+	 */
 	public DbAdapter(Context context) {
 
 		mDatabaseHelper = new DatabaseHelper(context, DATABASE_NAME, null, DATABASE_VERSION);
 		mSQLiteDatabase = mDatabaseHelper.getWritableDatabase();
+		startSchemaMigrations();
 	}
 
+	/*
+	 * Close the database. Waits for the schema migration thread to stop after its current chunk.
+	 */
 	public void close() {
 
+		stopSchemaMigrations();
+		closeCompiledStatements();
+		closeReaderDatabases();
 		mDatabaseHelper.close();
 	}
 
 	/*
-	 * The insert checks first if the entity exists, if the entity exists, nothing is inserted.
-	 * If the entity doesn't exist, a new DB record is created for it.
+	 * The insert runs in one transaction. It reuses an existing location (lat/lng) and artifact (name)
+	 * and lets the LocToArt primary key reject an association that already exists.
 	 */
 	public byte insert(String locationName, String latitude, String longitude, String artifactName, String artifactData) {
 
+		awaitSchemaMigrations();
+
 		long locationRowID = -1;
 		long artifactRowId = -1;
+		boolean isCommitted = false;
 		byte returnStatus = DEFAULT_MASK;
-		ContentValues contentValues = null;
+		double lat = 0.0d;
+		double lng = 0.0d;
+
+		try {
+
+			lat = Double.parseDouble(latitude.trim());
+			lng = Double.parseDouble(longitude.trim());
+		}
+		catch(NumberFormatException e) {
+
+			Log.e(PROD_LOG_TAG, "NumberFormatException insert()", e);
+			returnStatus |= CREATE_ARTIFACT_LOCATION_ERROR;
+			return returnStatus;
+		}
+
+		mSQLiteDatabase.beginTransaction();
 
 		try {
 
@@ -106,35 +490,19 @@ public class DbAdapter implements ApplicationConstants {
 			 * If the user selected the current location, and the provided name matches a different
 			 * location (lat/lng) then we inform the user that he/she needs to choose a different name.
 			 */
-			if(!isValidLocation(locationName, latitude, longitude)) {
+			if(!isValidLocation(locationName, lat, lng)) {
 				
 				returnStatus |= CHOOSE_DIFFERENT_LOC_NAME;
 				return returnStatus;
 			}
 
-			/*
-			 * Check if the artifact @ location already exists
-			 */
-			boolean hasArtifactAtLocation = hasArtifactAtLocation(artifactName, locationName, latitude, longitude);
-			
-			if(hasArtifactAtLocation) {
-				
-				returnStatus |= USING_EXISTING_ARTIFACT;
-				returnStatus |= USING_EXISTING_LOCATION;
-				return returnStatus;
-			}
-			
 			// Check if the location exists. If it does, we reuse it
-			locationRowID = getLocation(latitude, longitude);
+			locationRowID = getLocation(lat, lng);
 			
 			//If the above location search didn't match, we create a new location record
 			if(-1 == locationRowID) {
 
-				contentValues = new ContentValues();
-				contentValues.put(LOC_FIELDS[LOC_NAME], locationName);
-				contentValues.put(LOC_FIELDS[LOC_LATITUDE], latitude);
-				contentValues.put(LOC_FIELDS[LOC_LONGITUDE], longitude);
-				locationRowID = mSQLiteDatabase.insert(DB_TABLE_LOCATION, null, contentValues);
+				locationRowID = executeInsert(INSERT_LOCATION_SQL, locationName, Double.valueOf(lat), Double.valueOf(lng));
 			}
 
 			// Check if artifact already exists. If it does, we reuse it
@@ -146,35 +514,189 @@ public class DbAdapter implements ApplicationConstants {
 			if(-1 == artifactRowId) {
 
 				// Artifact doesn't exist so we create a new db record for it 
-				contentValues = new ContentValues();
-				contentValues.put(ART_FIELDS[ART_NAME], artifactName);
-				contentValues.put(ART_FIELDS[ART_DATA], artifactData);
-				artifactRowId = mSQLiteDatabase.insert(DB_TABLE_ARTIFACT, null, contentValues);
+				artifactRowId = insertArtifact(artifactName, artifactData);
 			}
 			
 			/*
-			 * Creating the artifact / location association. Since we check if the artifact / location 
-			 * association exists above, we know that this is a new association and thus we create it
+			 * Creating the artifact / location association. If the association already exists, the
+			 * primary key conflict is ignored and no row is inserted. In that case both the location
+			 * and the artifact were reused, so there is nothing to roll back.
 			 */
-			contentValues = new ContentValues();
-			contentValues.put(LOC_ART_FIELDS[FK_ART_ID], artifactRowId);
-			contentValues.put(LOC_ART_FIELDS[FK_LOC_ID], locationRowID);
-			mSQLiteDatabase.insert(DB_TABLE_LOC_TO_ART, null, contentValues);
+			long associationRowId = executeInsert(INSERT_LOC_TO_ART_SQL, Long.valueOf(artifactRowId), Long.valueOf(locationRowID));
+
+			if(-1 == associationRowId) {
+
+				returnStatus |= USING_EXISTING_ARTIFACT;
+				returnStatus |= USING_EXISTING_LOCATION;
+				return returnStatus;
+			}
+
+			incrementDataVersion();
+			mSQLiteDatabase.setTransactionSuccessful();
+			isCommitted = true;
 		}
 		catch(SQLiteException e) {
 			
 			Log.e(PROD_LOG_TAG, "SQLiteException insert()", e);
 			returnStatus |= CREATE_ARTIFACT_LOCATION_ERROR;
 		}
+		finally {
+
+			mSQLiteDatabase.endTransaction();
+		}
+
+		if(isCommitted) {
+
+			refreshDataVersion();
+		}
 		
 		return returnStatus;
 	}
 
+	/*
+	 * Bulk insert of artifact/location rows, see IMPORT_FIELDS for the field order. Each row is handled
+	 * like insert(), using the cached compiled statements, and the rows are committed in batches of the
+	 * provided size. The result has the status byte mask of every row.
+	 */
+	public ImportResult bulkInsert(Iterator<String[]> rows, int batchSize) {
+
+		awaitSchemaMigrations();
+
+		ImportResult result = new ImportResult();
+		long startTime = System.currentTimeMillis();
+
+		if(batchSize < 1) {
+
+			batchSize = IMPORT_BATCH_SIZE_DEFAULT;
+		}
+
+		int batchRowCount = 0;
+		boolean isBatchChanged = false;
+		mSQLiteDatabase.beginTransaction();
+
+		try {
+
+			while(rows.hasNext()) {
+
+				String[] row = rows.next();
+				byte returnStatus = DEFAULT_MASK;
+
+				if(null == row || row.length < IMPORT_FIELDS.length || null == row[IMPORT_ART_NAME] || 0 == row[IMPORT_ART_NAME].trim().length()) {
+
+					returnStatus |= ARTIFACT_NAME_ERROR;
+				}
+				else if(null == row[IMPORT_LOC_NAME] || 0 == row[IMPORT_LOC_NAME].trim().length()) {
+
+					returnStatus |= LOCATION_NAME_ERROR;
+				}
+				else if(null == row[IMPORT_LOC_LATITUDE] || null == row[IMPORT_LOC_LONGITUDE]) {
+
+					returnStatus |= CREATE_ARTIFACT_LOCATION_ERROR;
+				}
+				else {
+
+					// Rows that this import row inserted, and that have to be deleted again if the row fails
+					long insertedLocationRowId = -1;
+					long insertedArtifactRowId = -1;
+
+					try {
+
+						double lat = Double.parseDouble(row[IMPORT_LOC_LATITUDE].trim());
+						double lng = Double.parseDouble(row[IMPORT_LOC_LONGITUDE].trim());
+
+						if(!isValidLocation(row[IMPORT_LOC_NAME], lat, lng)) {
+
+							returnStatus |= CHOOSE_DIFFERENT_LOC_NAME;
+						}
+						else {
+
+							isBatchChanged = true;
+							long locationRowId = getLocation(lat, lng);
+
+							if(-1 == locationRowId) {
+
+								locationRowId = executeInsert(INSERT_LOCATION_SQL, row[IMPORT_LOC_NAME], Double.valueOf(lat), Double.valueOf(lng));
+								insertedLocationRowId = locationRowId;
+							}
+
+							long artifactRowId = getArtifact(row[IMPORT_ART_NAME]);
+
+							if(-1 == artifactRowId) {
+
+								artifactRowId = insertArtifact(row[IMPORT_ART_NAME], row[IMPORT_ART_DATA]);
+								insertedArtifactRowId = artifactRowId;
+							}
+
+							if(-1 == locationRowId || -1 == artifactRowId) {
+
+								throw new SQLiteException("Insert failed");
+							}
+
+							if(-1 == executeInsert(INSERT_LOC_TO_ART_SQL, Long.valueOf(artifactRowId), Long.valueOf(locationRowId))) {
+
+								returnStatus |= USING_EXISTING_ARTIFACT;
+								returnStatus |= USING_EXISTING_LOCATION;
+							}
+						}
+					}
+					catch(NumberFormatException e) {
+
+						returnStatus |= CREATE_ARTIFACT_LOCATION_ERROR;
+					}
+					catch(SQLiteException e) {
+
+						Log.e(PROD_LOG_TAG, "SQLiteException bulkInsert() row " + result.getRowCount(), e);
+						deleteImportedRow(insertedLocationRowId, insertedArtifactRowId);
+						returnStatus |= CREATE_ARTIFACT_LOCATION_ERROR;
+					}
+				}
+
+				result.addRowStatus(returnStatus);
+
+				// Commit the current batch and start a new one
+				if(++batchRowCount == batchSize) {
+
+					if(isBatchChanged) {
+
+						incrementDataVersion();
+					}
+
+					mSQLiteDatabase.setTransactionSuccessful();
+					mSQLiteDatabase.endTransaction();
+					refreshDataVersion();
+					batchRowCount = 0;
+					isBatchChanged = false;
+					mSQLiteDatabase.beginTransaction();
+				}
+			}
+
+			if(isBatchChanged) {
+
+				incrementDataVersion();
+			}
+
+			mSQLiteDatabase.setTransactionSuccessful();
+		}
+		finally {
+
+			mSQLiteDatabase.endTransaction();
+		}
+
+		refreshDataVersion();
+		result.setElapsedTime(System.currentTimeMillis() - startTime);
+
+		return result;
+	}
+
 	/*
 	 * Deleting artifact and its artifact to location mapping
 	 */
 	public int deleteArtifact(String artifactId, String locationId) {
 		
+		awaitSchemaMigrations();
+
+		mSQLiteDatabase.beginTransaction();
+
 		try {
 			
 			// Delete from location/artifact mapping
@@ -194,17 +716,21 @@ public class DbAdapter implements ApplicationConstants {
 					
 					return -1;
 				}
-				else {
-					
-					return 1;
-				}
 			}
+
+			incrementDataVersion();
+			mSQLiteDatabase.setTransactionSuccessful();
 		}
 		catch(SQLiteException e) {
 			
 			Log.e(PROD_LOG_TAG, "SQLiteException: deleteArtifact()", e);
 			return -1;
 		}
+		finally {
+
+			mSQLiteDatabase.endTransaction();
+			refreshDataVersion();
+		}
 		
 		return 1;
 	}
@@ -212,33 +738,28 @@ public class DbAdapter implements ApplicationConstants {
 	/*
 	 * Select one artifact 
 	 */
-	public Cursor select(String artifactId, String locationId) {
+	public StoreCursor select(String artifactId, String locationId) {
 		
-		SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
-		queryBuilder.setTables("LocToArt JOIN Artifact ON (LocToArt.artId=Artifact._id) JOIN Location ON (LocToArt.locId=Location._id)");
-		queryBuilder.setDistinct(true);
-		return queryBuilder.query(mSQLiteDatabase,
-				new String[] {"Artifact._id AS artId",
-							  "Location._id AS locId",
-							  "Artifact.artName AS artName",
-							  "Artifact.artData AS artData",
-							  "Location.locName AS locName",
-							  "Location.lat AS lat",
-							  "Location.lng AS lng"},
-							  LOC_ART_FIELDS[FK_ART_ID] + "=? AND " + LOC_ART_FIELDS[FK_LOC_ID] + "=? ",
-							  new String[] {artifactId, locationId}, null, null, null);
+		awaitSchemaMigrations();
+
+		return new ArtifactCursor(getReaderDatabase().query(DB_TABLE_ARTIFACT_LISTING,
+				ARTIFACT_LISTING_COLUMNS,
+				LOC_ART_FIELDS[FK_ART_ID] + "=? AND " + LOC_ART_FIELDS[FK_LOC_ID] + "=? ",
+				new String[] {artifactId, locationId}, null, null, null));
 	}
 	
 	/*
 	 * Select all locations
 	 * NOTE: Caller must call cursor.close()
 	 */
-	public Cursor getLocations() {
+	public StoreCursor getLocations() {
+
+		awaitSchemaMigrations();
 
-		return mSQLiteDatabase.query(true,
+		return new SQLiteStoreCursor(getReaderDatabase().query(true,
 				DB_TABLE_LOCATION,
 				LOC_FIELDS,
-				null, null, null, null, "Location.locName ASC", null);
+				null, null, null, null, "Location.locName ASC", null));
 	}
 	
 	/*
@@ -246,6 +767,8 @@ public class DbAdapter implements ApplicationConstants {
 	 */
 	public int updateArtifact(String artifactId, String artifactName, String artifactData, String locationId, String locationName) {
 		
+		awaitSchemaMigrations();
+
 		/*
 		 * First, we need to check if the update changes the artifact name to 
 		 * an existing artifact name at that location. We don't allow duplicate
@@ -267,12 +790,31 @@ public class DbAdapter implements ApplicationConstants {
 		
 		ContentValues artContentValues = new ContentValues();
 		artContentValues.put(ART_FIELDS[ART_NAME], artifactName);
-		artContentValues.put(ART_FIELDS[ART_DATA], artifactData);
-		int numberArtRowsAffected = mSQLiteDatabase.update(DB_TABLE_ARTIFACT, artContentValues, ART_FIELDS[ART_ID] + "=?", new String[] {artifactId});
-		
-		ContentValues locContentValues = new ContentValues();
-		locContentValues.put(LOC_FIELDS[LOC_NAME], locationName);
-		int numberLocRowsAffected = mSQLiteDatabase.update(DB_TABLE_LOCATION, locContentValues, LOC_FIELDS[LOC_ID] + "=?", new String[] {locationId});
+		int numberArtRowsAffected = 0;
+		int numberLocRowsAffected = 0;
+
+		mSQLiteDatabase.beginTransaction();
+
+		try {
+
+			numberArtRowsAffected = updateArtifactRow(artifactId, artContentValues, artifactData);
+
+			ContentValues locContentValues = new ContentValues();
+			locContentValues.put(LOC_FIELDS[LOC_NAME], locationName);
+			numberLocRowsAffected = mSQLiteDatabase.update(DB_TABLE_LOCATION, locContentValues, LOC_FIELDS[LOC_ID] + "=?", new String[] {locationId});
+
+			if(0 < numberArtRowsAffected + numberLocRowsAffected) {
+
+				incrementDataVersion();
+			}
+
+			mSQLiteDatabase.setTransactionSuccessful();
+		}
+		finally {
+
+			mSQLiteDatabase.endTransaction();
+			refreshDataVersion();
+		}
 		
 		return ((numberArtRowsAffected == 1 && numberLocRowsAffected ==  1) ? 1 : -2);
 	}
@@ -282,18 +824,95 @@ public class DbAdapter implements ApplicationConstants {
 	 */
 	public int updateArtifactData(String artifactId, String artifactData) {
 		
-		ContentValues artContentValues = new ContentValues();
-		artContentValues.put(ART_FIELDS[ART_DATA], artifactData);
-		int numberArtRowsAffected = mSQLiteDatabase.update(DB_TABLE_ARTIFACT, artContentValues, ART_FIELDS[ART_ID] + "=?", new String[] {artifactId});
+		awaitSchemaMigrations();
+
+		int numberArtRowsAffected = 0;
+
+		mSQLiteDatabase.beginTransaction();
+
+		try {
+
+			numberArtRowsAffected = updateArtifactRow(artifactId, new ContentValues(), artifactData);
+
+			if(0 < numberArtRowsAffected) {
+
+				incrementDataVersion();
+			}
+
+			mSQLiteDatabase.setTransactionSuccessful();
+		}
+		finally {
+
+			mSQLiteDatabase.endTransaction();
+			refreshDataVersion();
+		}
 		
 		return ((numberArtRowsAffected == 1) ? 1 : -1);
 	}
 	
+	/*
+	 * Update the data of several artifacts, keyed by artifact ID, in one transaction. Returns the
+	 * number of updated artifacts.
+	 */
+	public int updateArtifactData(Map<String, String> artifactData) {
+
+		awaitSchemaMigrations();
+
+		int numberArtRowsAffected = 0;
+
+		mSQLiteDatabase.beginTransaction();
+
+		try {
+
+			for(Map.Entry<String, String> artifact : artifactData.entrySet()) {
+
+				numberArtRowsAffected += updateArtifactRow(artifact.getKey(), new ContentValues(), artifact.getValue());
+			}
+
+			if(0 < numberArtRowsAffected) {
+
+				incrementDataVersion();
+			}
+
+			mSQLiteDatabase.setTransactionSuccessful();
+		}
+		finally {
+
+			mSQLiteDatabase.endTransaction();
+			refreshDataVersion();
+		}
+
+		return numberArtRowsAffected;
+	}
+
+	/*
+	 * Check if an artifact exists
+	 */
+	public boolean hasArtifact(String artifactId) {
+
+		awaitSchemaMigrations();
+
+		boolean hasArtifact = false;
+
+		try {
+
+			hasArtifact = (1 == queryForLong(HAS_ARTIFACT_SQL, artifactId));
+		}
+		catch(SQLiteException e) {
+
+			Log.e(PROD_LOG_TAG, "SQLiteException: hasArtifact()", e);
+		}
+
+		return hasArtifact;
+	}
+	
 	/*
 	 * Update a Location
 	 */
 	public int updateLocation(String locationId, String locationName, String locationLat, String locationLng) {
 		
+		awaitSchemaMigrations();
+
 		/*
 		 * First, we need to check if the update changes the location name to
 		 * an existing location name. 
@@ -305,462 +924,1179 @@ public class DbAdapter implements ApplicationConstants {
 		}
 		ContentValues locContentValues = new ContentValues();
 		locContentValues.put(LOC_FIELDS[LOC_NAME], locationName);
-		int numberLocRowsAffected = mSQLiteDatabase.update(DB_TABLE_LOCATION, locContentValues, LOC_FIELDS[LOC_ID] + "=?", new String[] {locationId});
+		int numberLocRowsAffected = updateLocationRow(locationId, locContentValues);
 		
 		return ((numberLocRowsAffected ==  1) ? 1 : -2);
 	}
-	
-	
-	/*
-	 * Update a location's coordinates
-	 */
-	public int updateLocationCoodinates(String locationId, String locationName, String locationLat, String locationLng) {
-		
-		
-		/*
-		 * Check if location for provided coordinates exist
-		 */
-		long locId = getLocation(locationLat, locationLng);
-		
-		if(-1 == locId) {
-		
-			ContentValues locContentValues = new ContentValues();
-			locContentValues.put(LOC_FIELDS[LOC_NAME], locationName);
-			locContentValues.put(LOC_FIELDS[LOC_LATITUDE], locationLat);
-			locContentValues.put(LOC_FIELDS[LOC_LONGITUDE], locationLng);
-			int numberLocRowsAffected = mSQLiteDatabase.update(DB_TABLE_LOCATION, locContentValues, LOC_FIELDS[LOC_ID] + "=?", new String[] {locationId});
 
-			return ((numberLocRowsAffected ==  1) ? 1 : -2);
-		}
-		else {
-			
-			return -1;
-		}
-	}
-	
 	/*
-	 * Select all the location and artifact relationships
-	 * NOTE: Caller must call cursor.close()
+	 * Update a Location's name and radius. The radius is in meters, and an empty radius makes the
+	 * location use the radius preference again. Keeping the location's own name is not a collision.
 	 */
-	public Cursor select() {
+	public int updateLocation(String locationId, String locationName, String locationLat, String locationLng, String locationRadius) {
 
-		SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
-		queryBuilder.setTables("LocToArt JOIN Artifact ON (LocToArt.artId=Artifact._id) JOIN Location ON (LocToArt.locId=Location._id)");
-		queryBuilder.setDistinct(true);
-		return queryBuilder.query(mSQLiteDatabase,
-				new String[] {"Artifact._id AS artId",
-							  "Location._id AS locId",
-							  "Artifact.artName AS artName",
-							  "Artifact.artData AS artData",
-							  "Location.locName AS locName",
-							  "Location.lat AS lat",
-							  "Location.lng AS lng"},
-				null, null, null, null, "Location.locName ASC, Artifact.artName ASC");
-	}
+		awaitSchemaMigrations();
+
+		Integer radius = null;
+
+		if(null != locationRadius && 0 < locationRadius.trim().length()) {
+
+			try {
+
+				radius = Integer.valueOf(locationRadius.trim());
+			}
+			catch(NumberFormatException e) {
+
+				Log.e(PROD_LOG_TAG, "NumberFormatException updateLocation()", e);
+				return -2;
+			}
+
+			if(radius.intValue() <= 0) {
+
+				return -2;
+			}
+		}
+
+		if(!isValidLocation(locationName, locationId)) {
+
+			return -1;
+		}
+
+		ContentValues locContentValues = new ContentValues();
+		locContentValues.put(LOC_FIELDS[LOC_NAME], locationName);
+
+		if(null == radius) {
+
+			locContentValues.putNull(LOC_FIELDS[LOC_RADIUS]);
+		}
+		else {
+
+			locContentValues.put(LOC_FIELDS[LOC_RADIUS], radius);
+		}
+
+		int numberLocRowsAffected = updateLocationRow(locationId, locContentValues);
+
+		return ((numberLocRowsAffected ==  1) ? 1 : -2);
+	}
+	
+	
+	/*
+	 * Update a location's coordinates
+	 */
+	public int updateLocationCoodinates(String locationId, String locationName, String locationLat, String locationLng) {
+		
+		awaitSchemaMigrations();
+
+		
+		double lat = 0.0d;
+		double lng = 0.0d;
+
+		try {
+
+			lat = Double.parseDouble(locationLat.trim());
+			lng = Double.parseDouble(locationLng.trim());
+		}
+		catch(NumberFormatException e) {
+
+			Log.e(PROD_LOG_TAG, "NumberFormatException updateLocationCoodinates()", e);
+			return -2;
+		}
+		
+		/*
+		 * Check if location for provided coordinates exist
+		 */
+		long locId = getLocation(lat, lng);
+		
+		if(-1 == locId) {
+		
+			ContentValues locContentValues = new ContentValues();
+			locContentValues.put(LOC_FIELDS[LOC_NAME], locationName);
+			locContentValues.put(LOC_FIELDS[LOC_LATITUDE], Double.valueOf(lat));
+			locContentValues.put(LOC_FIELDS[LOC_LONGITUDE], Double.valueOf(lng));
+			int numberLocRowsAffected = updateLocationRow(locationId, locContentValues);
+
+			return ((numberLocRowsAffected == 1) ? 1 : -2);
+		}
+		else {
+			
+			return -1;
+		}
+	}
+	
+	/*
+	 * Select all the location and artifact relationships
+	 * NOTE: Caller must call cursor.close()
+	 */
+	public StoreCursor select() {
+
+		awaitSchemaMigrations();
+
+		return new ArtifactCursor(getReaderDatabase().query(DB_TABLE_ARTIFACT_LISTING,
+				ARTIFACT_LISTING_COLUMNS,
+				null, null, null, null, ARTIFACT_LISTING_ORDER_BY));
+	}
+
+	/*
+	 * Select one page of the location and artifact relationships, in select() order. The page
+	 * starts after the row with the provided (locName, artName, artId) key, or at the first row
+	 * if afterLocationName is null.
+	 * NOTE: Caller must call cursor.close()
+	 */
+	public StoreCursor selectPage(String afterLocationName, String afterArtifactName, long afterArtifactId, int pageSize) {
+
+		awaitSchemaMigrations();
+
+		String selection = null;
+		String[] selectionArgs = null;
+
+		// The leading locName >= ? term lets SQLite start the sort order index scan at the key
+		if(null != afterLocationName) {
+
+			selection = "locName >= ? AND (locName > ? OR artName > ? OR (artName = ? AND artId > ?))";
+			selectionArgs = new String[] {afterLocationName, afterLocationName, afterArtifactName, afterArtifactName, String.valueOf(afterArtifactId)};
+		}
+
+		return new ArtifactCursor(getReaderDatabase().query(DB_TABLE_ARTIFACT_LISTING,
+				ARTIFACT_LISTING_COLUMNS,
+				selection, selectionArgs, null, null, ARTIFACT_LISTING_ORDER_BY, String.valueOf(pageSize)));
+	}
+
+	/*
+	 * Full-text search over the artifact names and data. Every word of the query has to match,
+	 * either as a word or as a word prefix. Returns the IDs of the best matching artifacts, best
+	 * match first. Matches are ranked by the number of matching words, weighted by column.
+	 */
+	public long[] searchArtifacts(String query, int limit) {
+
+		awaitSchemaMigrations();
+
+		String matchExpression = getMatchExpression(query);
+
+		if(null == matchExpression || limit < 1) {
+
+			return new long[0];
+		}
+
+		// Min-heap of {score, artifact ID} that keeps the best matches. The worst match is at the head
+		PriorityQueue<long[]> bestMatches = new PriorityQueue<long[]>(limit + 1, ArtifactSearchRanking.SEARCH_MATCH_ORDER);
+
+		Cursor cursor = null;
+
+		try {
+
+			cursor = getReaderDatabase().rawQuery("select docid, offsets(" + DB_TABLE_ARTIFACT_SEARCH + ") from " + DB_TABLE_ARTIFACT_SEARCH
+					+ " where " + DB_TABLE_ARTIFACT_SEARCH + " match ?", new String[] {matchExpression});
+
+			for(cursor.moveToFirst(); cursor.isAfterLast() == false; cursor.moveToNext()) {
+
+				bestMatches.add(new long[] {getSearchScore(cursor.getString(1)), cursor.getLong(0)});
+
+				if(bestMatches.size() > limit) {
+
+					bestMatches.poll();
+				}
+			}
+		}
+		catch(SQLiteException e) {
+
+			Log.e(PROD_LOG_TAG, "SQLiteException: searchArtifacts()", e);
+		}
+		finally {
+
+			if(null != cursor) {
+
+				cursor.close();
+			}
+		}
+
+		return ArtifactSearchRanking.getArtifactIds(bestMatches);
+	}
+
+	/*
+	 * Select the location and artifact relationships of the provided artifacts
+	 * NOTE: Caller must call cursor.close()
+	 */
+	public StoreCursor select(long[] artifactIds) {
+
+		awaitSchemaMigrations();
+
+		StringBuilder selection = new StringBuilder(LOC_ART_FIELDS[FK_ART_ID] + " IN (");
+
+		for(int i = 0; i < artifactIds.length; i++) {
+
+			selection.append((0 == i) ? "" : ",").append(artifactIds[i]);
+		}
+
+		selection.append(")");
+
+		return new ArtifactCursor(getReaderDatabase().query(DB_TABLE_ARTIFACT_LISTING,
+				ARTIFACT_LISTING_COLUMNS,
+				selection.toString(), null, null, null, ARTIFACT_LISTING_ORDER_BY));
+	}
+
+	/*
+	 * Select the location and artifact relationships at the provided locations. The rows are read
+	 * through the LocToArt location index instead of scanning the listing table.
+	 * NOTE: Caller must call cursor.close()
+	 */
+	public StoreCursor selectAtLocations(long[] locationIds) {
+
+		awaitSchemaMigrations();
+
+		StringBuilder sql = new StringBuilder(SELECT_ARTIFACTS_AT_LOCATIONS_SQL).append(" (");
+
+		for(int i = 0; i < locationIds.length; i++) {
+
+			sql.append((0 == i) ? "" : ",").append(locationIds[i]);
+		}
+
+		sql.append(") order by ").append(ARTIFACT_LISTING_ORDER_BY);
+
+		return new ArtifactCursor(getReaderDatabase().rawQuery(sql.toString(), null));
+	}
+
+	/*
+	 * Select the locations within the provided bounding box, in no particular order. If minLongitude
+	 * is greater than maxLongitude, the box crosses the anti-meridian. The R*Tree index is used if it
+	 * exists, otherwise the lat/lng index.
+	 * NOTE: Caller must call cursor.close()
+	 */
+	public StoreCursor getLocations(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+
+		awaitSchemaMigrations();
+
+		if(minLongitude <= maxLongitude) {
+
+			return new SQLiteStoreCursor(getReaderDatabase().rawQuery(getBoundingBoxQuery(), getBoundingBoxArgs(minLatitude, minLongitude, maxLatitude, maxLongitude)));
+		}
+
+		// Split the box at the anti-meridian
+		String[] eastArgs = getBoundingBoxArgs(minLatitude, minLongitude, maxLatitude, 180.0d);
+		String[] westArgs = getBoundingBoxArgs(minLatitude, -180.0d, maxLatitude, maxLongitude);
+		String[] selectionArgs = new String[eastArgs.length + westArgs.length];
+		System.arraycopy(eastArgs, 0, selectionArgs, 0, eastArgs.length);
+		System.arraycopy(westArgs, 0, selectionArgs, eastArgs.length, westArgs.length);
+
+		return new SQLiteStoreCursor(getReaderDatabase().rawQuery(getBoundingBoxQuery() + " union all " + getBoundingBoxQuery(), selectionArgs));
+	}
+
+	/*
+	 * Select the locations in the bounding box of the radius around the provided point. The result
+	 * is a superset of the locations within the radius, so callers still need to check the exact distance.
+	 * NOTE: Caller must call cursor.close()
+	 */
+	public StoreCursor getLocationsNear(double latitude, double longitude, double radiusInMeters) {
+
+		awaitSchemaMigrations();
+
+		double[] boundingBox = LocationSnapshot.getBoundingBox(latitude, longitude, radiusInMeters);
+		return getLocations(boundingBox[0], boundingBox[1], boundingBox[2], boundingBox[3]);
+	}
+
+	/*
+	 * Delete location if it doesn't have any artifact mappings
+	 */
+	public int deleteLocation(String locationId) {
+		
+		awaitSchemaMigrations();
+
+		try {
+			
+			// Only delete location if it's not referenced by an artifact
+			if(!hasLocationInLocToArtTable(locationId)) {
+
+				int numAffectedRows = 0;
+
+				mSQLiteDatabase.beginTransaction();
+
+				try {
+
+					numAffectedRows = mSQLiteDatabase.delete(DB_TABLE_LOCATION, LOC_FIELDS[LOC_ID] + "=?", new String[] {locationId});
+
+					if(numAffectedRows == 1) {
+
+						incrementDataVersion();
+						mSQLiteDatabase.setTransactionSuccessful();
+					}
+				}
+				finally {
+
+					mSQLiteDatabase.endTransaction();
+					refreshDataVersion();
+				}
+				
+				if(numAffectedRows != 1) {
+					
+					return -1;
+				}
+			}
+			else {
+				
+				return 0;
+			}
+
+		}
+		catch(SQLiteException e) {
+			
+			Log.e(PROD_LOG_TAG, "SQLiteException: deleteLocation()", e);
+			return -1;
+		}
+
+		return 1;
+	}
+	
+	/*
+	 * Check if a location has any associated artifacts
+	 */
+	public boolean hasArtifactsAtLocation(String locId) {
+		
+		awaitSchemaMigrations();
+
+		boolean hasArtifacts = false;
+		
+		try {
+		
+			hasArtifacts = hasLocationInLocToArtTable(locId);
+		}
+		catch(SQLiteException e) {
+
+			Log.e(PROD_LOG_TAG, "SQLiteException: hasArtifactsAtLocation()", e);
+		}
+		
+		return hasArtifacts;
+	}
+	
+	/*
+	 * Check if the required schema migration steps are done, so that the other methods
+	 * don't have to wait for them. Callers on the main thread should check this first.
+	 * If the steps failed or were cancelled, this stays false and the other methods throw
+	 * an SQLiteException.
+	 */
+	public boolean isReady() {
+
+		return SCHEMA_MIGRATION_DONE == mSchemaMigrationState;
+	}
+
+	/*
+	 * Data version. It's persistent and increases with every change of the artifacts, locations,
+	 * or their associations, so callers can skip work when it hasn't changed.
+	 */
+	public long getDataVersion() {
+
+		awaitSchemaMigrations();
+		return mDataVersion;
+	}
+
+	/*
+	 * Snapshot of all the locations at the current data version. The snapshot is rebuilt
+	 * on the first call after a change and is never modified, so callers can keep using
+	 * it without holding any lock.
+	 */
+	public LocationSnapshot getLocationSnapshot() {
+
+		awaitSchemaMigrations();
+
+		LocationSnapshot snapshot = mLocationSnapshot;
+
+		if(null != snapshot && snapshot.getDataVersion() == mDataVersion) {
+
+			return snapshot;
+		}
+
+		synchronized(mLocationSnapshotLock) {
+
+			// Another thread may have rebuilt it while we were waiting
+			long dataVersion = mDataVersion;
+			snapshot = mLocationSnapshot;
+
+			if(null == snapshot || snapshot.getDataVersion() != dataVersion) {
+
+				snapshot = loadLocationSnapshot(dataVersion);
+				mLocationSnapshot = snapshot;
+			}
+
+			return snapshot;
+		}
+	}
+
+	/*
+	 * Helper method that reads all the locations, sorted by latitude, into a new snapshot. The data
+	 * version is read before the locations, so a concurrent change only causes another rebuild.
+	 */
+	private LocationSnapshot loadLocationSnapshot(long dataVersion) {
+
+		Cursor cursor = null;
+
+		try {
+
+			cursor = getReaderDatabase().rawQuery(SELECT_LOCATION_SNAPSHOT_SQL, null);
+
+			int size = cursor.getCount();
+			long[] ids = new long[size];
+			double[] latitudes = new double[size];
+			double[] longitudes = new double[size];
+			boolean[] hasArtifacts = new boolean[size];
+			int[] radii = new int[size];
+
+			for(int i = 0; i < size && cursor.moveToNext(); i++) {
+
+				ids[i] = cursor.getLong(0);
+				latitudes[i] = cursor.getDouble(1);
+				longitudes[i] = cursor.getDouble(2);
+
+				// A null radius reads as 0, i.e. the radius preference
+				radii[i] = cursor.getInt(3);
+				hasArtifacts[i] = 0 != cursor.getInt(4);
+			}
+
+			return new LocationSnapshot(dataVersion, ids, latitudes, longitudes, hasArtifacts, radii);
+		}
+		catch(SQLiteException e) {
+
+			Log.e(PROD_LOG_TAG, "SQLiteException: loadLocationSnapshot()", e);
+
+			// An invalid data version makes the next call try again
+			return new LocationSnapshot(-1, new long[0], new double[0], new double[0], new boolean[0], new int[0]);
+		}
+		finally {
+
+			if(null != cursor) {
+
+				cursor.close();
+			}
+		}
+	}
+
+	/*
+	 * Migration log with the state, progress, and elapsed time in milliseconds of each schema
+	 * migration step, see SchemaMigrator.SCHEMA_MIGRATION_FIELDS
+	 * NOTE: Caller must call cursor.close()
+	 */
+	public Cursor getSchemaMigrations() {
+
+		return getReaderDatabase().query(SchemaMigrator.DB_TABLE_SCHEMA_MIGRATION,
+				SchemaMigrator.SCHEMA_MIGRATION_FIELDS,
+				null, null, null, null, SchemaMigrator.SCHEMA_MIGRATION_FIELDS[SchemaMigrator.SM_VERSION] + " ASC");
+	}
+
+	/*
+	 * Helper method that starts the thread that runs the schema migration steps. The required
+	 * steps run first, then the reader connections are opened and the waiting callers are
+	 * released, and then the deferrable steps run at a lower priority. If the required steps
+	 * fail, the waiting callers are released with the failed state. The steps are resumed
+	 * the next time the database is opened.
+	 */
+	private void startSchemaMigrations() {
+
+		mSchemaMigrationThread = new Thread(new Runnable() {
+
+			public void run() {
+
+				boolean isDone = false;
+
+				try {
+
+					if(mSchemaMigrator.runRequired(mSQLiteDatabase)) {
+
+						openReaderDatabases();
+						mHasLocationTree = hasLocationTree();
+						refreshDataVersion();
+						isDone = true;
+					}
+					else {
+
+						Log.w(PROD_LOG_TAG, "The required schema migration steps were cancelled");
+					}
+				}
+				catch(SQLiteException e) {
+
+					Log.e(PROD_LOG_TAG, "SQLiteException: runRequired()", e);
+				}
+				finally {
+
+					mSchemaMigrationState = isDone ? SCHEMA_MIGRATION_DONE : SCHEMA_MIGRATION_FAILED;
+					mSchemaMigrationLatch.countDown();
+				}
+
+				if(!isDone) {
+
+					return;
+				}
+
+				if(mSchemaMigrator.hasDeferred(mSQLiteDatabase)) {
+
+					Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+					mSchemaMigrator.runDeferred(mSQLiteDatabase);
+					mHasLocationTree = hasLocationTree();
+				}
+			}
+		}, "SchemaMigration");
+
+		mSchemaMigrationThread.start();
+	}
+
+	/*
+	 * Helper method that stops the schema migration steps after their current chunk. They
+	 * resume the next time the database is opened.
+	 */
+	private void stopSchemaMigrations() {
+
+		if(null == mSchemaMigrationThread) {
+
+			return;
+		}
+
+		mSchemaMigrator.cancel();
+
+		try {
+
+			mSchemaMigrationThread.join();
+		}
+		catch(InterruptedException e) {
+
+			Log.w(PROD_LOG_TAG, "Interrupted while waiting for the schema migration to stop", e);
+		}
+
+		mSchemaMigrationThread = null;
+	}
+
+	/*
+	 * Helper method that waits until the required schema migration steps are done. Throws an
+	 * SQLiteException if they failed, were cancelled, or the wait was interrupted, since the
+	 * schema isn't complete then.
+	 */
+	private void awaitSchemaMigrations() {
+
+		try {
+
+			mSchemaMigrationLatch.await();
+		}
+		catch(InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+		}
+
+		if(SCHEMA_MIGRATION_FAILED == mSchemaMigrationState) {
+
+			throw new SQLiteException("The required schema migration steps failed, see getSchemaMigrations()");
+		}
+		else if(SCHEMA_MIGRATION_DONE != mSchemaMigrationState) {
+
+			throw new SQLiteException("Interrupted while waiting for the required schema migration steps");
+		}
+	}
+
+	/*
+	 * Helper method that checks if the R*Tree location index exists and is filled
+	 */
+	private boolean hasLocationTree() {
+
+		return 1 == queryForLong(HAS_LOCATION_TREE_SQL) && SchemaMigrator.isComplete(mSQLiteDatabase, LOCATION_TREE_VERSION);
+	}
+
+	/*
+	 * Helper method that returns the bounding box query for one longitude range
+	 */
+	private String getBoundingBoxQuery() {
+
+		return mHasLocationTree ? SELECT_LOCATIONS_IN_TREE_BOX_SQL : SELECT_LOCATIONS_IN_BOX_SQL;
+	}
+
+	/*
+	 * Helper method that returns the getBoundingBoxQuery() arguments for one longitude range
+	 */
+	private String[] getBoundingBoxArgs(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+
+		String[] exactArgs = new String[] {String.valueOf(minLatitude), String.valueOf(maxLatitude), String.valueOf(minLongitude), String.valueOf(maxLongitude)};
+
+		if(!mHasLocationTree) {
+
+			return exactArgs;
+		}
+
+		return new String[] {
+				String.valueOf(minLatitude - LOCATION_TREE_MARGIN_DEGREES), String.valueOf(maxLatitude + LOCATION_TREE_MARGIN_DEGREES),
+				String.valueOf(minLongitude - LOCATION_TREE_MARGIN_DEGREES), String.valueOf(maxLongitude + LOCATION_TREE_MARGIN_DEGREES),
+				exactArgs[0], exactArgs[1], exactArgs[2], exactArgs[3]};
+	}
+
+	/*
+	 * Helper method that updates a location and the data version in one transaction
+	 */
+	private int updateLocationRow(String locationId, ContentValues locContentValues) {
+
+		int numberLocRowsAffected = 0;
+
+		mSQLiteDatabase.beginTransaction();
+
+		try {
+
+			numberLocRowsAffected = mSQLiteDatabase.update(DB_TABLE_LOCATION, locContentValues, LOC_FIELDS[LOC_ID] + "=?", new String[] {locationId});
+
+			if(0 < numberLocRowsAffected) {
+
+				incrementDataVersion();
+			}
+
+			mSQLiteDatabase.setTransactionSuccessful();
+		}
+		finally {
+
+			mSQLiteDatabase.endTransaction();
+			refreshDataVersion();
+		}
+
+		return numberLocRowsAffected;
+	}
+
+	/*
+	 * Helper method that increments the persistent data version. Must be called within the
+	 * transaction of the change.
+	 */
+	private void incrementDataVersion() {
+
+		SQLiteStatement statement = getCompiledStatement(INCREMENT_DATA_VERSION_SQL);
+
+		synchronized(statement) {
+
+			statement.execute();
+		}
+	}
+
+	/*
+	 * Helper method that reads the committed data version into memory
+	 */
+	private void refreshDataVersion() {
+
+		try {
+
+			mDataVersion = queryForLong(SELECT_DATA_VERSION_SQL);
+		}
+		catch(SQLiteException e) {
+
+			Log.e(PROD_LOG_TAG, "SQLiteException: refreshDataVersion()", e);
+		}
+	}
+
+	/*
+	 * Helper method that checks if the provided artifactRowId is part of an existing location and artifact relationship
+	 */
+	private boolean isArtifactReferenced(String artifactId) {
+
+		return 1 == queryForLong(IS_ARTIFACT_REFERENCED_SQL, artifactId);
+	}
+
+	/*
+	 * Helper method that checks if a location with the provided name exists
+	 */
+	private boolean hasLocation(String locationName) {
+		
+		return 1 == queryForLong(HAS_LOCATION_SQL, locationName);
+	}
+	
+	/*
+	 * Helper method that checks if the provided locationRowId is part of an existing location and artifact relationship
+	 */
+	private boolean hasLocationInLocToArtTable(String locationId) {
+
+		return 1 == queryForLong(HAS_LOCATION_IN_LOC_TO_ART_SQL, locationId);
+	}
+
+	/*
+	 * Helper method that checks if an artifact/location exists
+	 */
+	private boolean hasArtifactAtLocation(String artifactName, String locationName, String locationId) {
+	
+		return 1 == queryForLong(HAS_ARTIFACT_AT_LOCATION_SQL, artifactName, locationName, locationId);
+	}
+	
+	/*
+	 * Helper method that searches by latitude, and longitude for an existing location
+	 */
+	private long getLocation(double latitude, double longitude) {
+
+		return queryForLong(SELECT_LOCATION_ID_SQL, Double.valueOf(latitude), Double.valueOf(longitude));
+	}
+	
+	/*
+	 * Helper method that queries locations for the provided name. If there is a location with
+	 * that name but a different location ID, then we signal a failure so that the user can
+	 * choose another name.
+	 */
+	private boolean isValidLocation(String name, String locationId) {
+
+		try {
+			
+			return 0 == queryForLong(HAS_OTHER_LOCATION_WITH_NAME_SQL, name, locationId);
+		}
+		catch(SQLiteException e) {
+
+			Log.e(PROD_LOG_TAG, "SQLiteException: isValidLocation()", e);
+		}
+
+		return false;
+	}
+	
+	/*
+	 * Helper method that queries locations for the provided name. If there is a location with
+	 * that name but a different Lat/Lng, then we signal a failure so that the user can choose
+	 * another name.
+	 */
+	private boolean isValidLocation(String name, double latitude, double longitude) {
+
+		try {
+			
+			return 0 == queryForLong(HAS_LOCATION_WITH_NAME_ELSEWHERE_SQL, name, Double.valueOf(latitude), Double.valueOf(longitude));
+		}
+		catch(SQLiteException e) {
+
+			Log.e(PROD_LOG_TAG, "SQLiteException: isValidLocation()", e);
+		}
+		
+		return false;
+	}
+
+	/*
+	 * Helper method that searches by name for an existing artifact
+	 */
+	private long getArtifact(String name) {
+
+		return queryForLong(SELECT_ARTIFACT_ID_SQL, name);
+	}
+
+	/*
+	 * Helper method that inserts an artifact, compressing large artifact data
+	 */
+	private long insertArtifact(String artifactName, String artifactData) {
+
+		byte[] compressedData = ArtifactDataCodec.compress(artifactData);
+		long artifactRowId = executeInsert(INSERT_ARTIFACT_SQL, artifactName, (null == compressedData) ? artifactData : null, compressedData);
+
+		if(null != compressedData && -1 != artifactRowId) {
+
+			replaceArtifactSearchData(mSQLiteDatabase, artifactRowId, artifactData);
+		}
+
+		return artifactRowId;
+	}
+
+	/*
+	 * Helper method that updates an artifact with the provided values and artifact data, compressing
+	 * large artifact data. Must be called within a transaction.
+	 */
+	private int updateArtifactRow(String artifactId, ContentValues artContentValues, String artifactData) {
+
+		byte[] compressedData = ArtifactDataCodec.compress(artifactData);
+
+		if(null == compressedData) {
+
+			artContentValues.put(ART_FIELDS[ART_DATA], artifactData);
+			artContentValues.putNull(ART_FIELDS[ART_DATA_COMPRESSED]);
+		}
+		else {
+
+			artContentValues.putNull(ART_FIELDS[ART_DATA]);
+			artContentValues.put(ART_FIELDS[ART_DATA_COMPRESSED], compressedData);
+		}
+
+		int numberArtRowsAffected = mSQLiteDatabase.update(DB_TABLE_ARTIFACT, artContentValues, ART_FIELDS[ART_ID] + "=?", new String[] {artifactId});
+
+		if(null != compressedData && 1 == numberArtRowsAffected) {
+
+			replaceArtifactSearchData(mSQLiteDatabase, Long.parseLong(artifactId), artifactData);
+		}
+
+		return numberArtRowsAffected;
+	}
+
+	/*
+	 * Helper method that replaces the search entry of an artifact with compressed data, since the
+	 * search triggers only see the null artData
+	 */
+	private static void replaceArtifactSearchData(SQLiteDatabase db, long artifactId, String artifactData) {
+
+		db.execSQL(DELETE_ARTIFACT_SEARCH_SQL, new Object[] {Long.valueOf(artifactId)});
+		db.execSQL(INSERT_ARTIFACT_SEARCH_SQL, new Object[] {artifactData, Long.valueOf(artifactId)});
+	}
 
 	/*
-	 * Delete location if it doesn't have any artifact mappings
+	 * Helper method that deletes the location and artifact that a failed bulkInsert() row inserted, so
+	 * the batch doesn't commit half of the row. This is done by hand because the Android SQLiteDatabase
+	 * handles any statement that starts with ROLLBACK as the end of its transaction, so a savepoint can't
+	 * be rolled back to.
 	 */
-	public int deleteLocation(String locationId) {
-		
+	private void deleteImportedRow(long locationRowId, long artifactRowId) {
+
+		if(-1 != artifactRowId) {
+
+			mSQLiteDatabase.delete(DB_TABLE_ARTIFACT, ART_FIELDS[ART_ID] + "=?", new String[] {String.valueOf(artifactRowId)});
+		}
+
+		if(-1 != locationRowId) {
+
+			mSQLiteDatabase.delete(DB_TABLE_LOCATION, LOC_FIELDS[LOC_ID] + "=?", new String[] {String.valueOf(locationRowId)});
+		}
+	}
+
+	/*
+	 * Helper method that copies the locations with an ID in the (fromLocationId, toLocationId] range
+	 * into the version 4 table with REAL coordinates. Locations whose coordinates don't parse are
+	 * moved to the LocationInvalid table instead of being stored as 0.0. Returns the number of copied locations.
+	 */
+	private static long copyLocationCoordinates(SQLiteDatabase db, long fromLocationId, long toLocationId) {
+
+		long copiedCount = 0;
+		long invalidCount = 0;
+		Cursor cursor = db.rawQuery("select " + LOC_FIELDS[LOC_ID] + ", " + LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + " from " + DB_TABLE_LOCATION
+				+ " where " + LOC_FIELDS[LOC_ID] + " > ? and " + LOC_FIELDS[LOC_ID] + " <= ?",
+				new String[] {String.valueOf(fromLocationId), String.valueOf(toLocationId)});
+
 		try {
-			
-			// Only delete location if it's not referenced by an artifact
-			if(!hasLocationInLocToArtTable(locationId)) {
 
-				int numAffectedRows = mSQLiteDatabase.delete(DB_TABLE_LOCATION, LOC_FIELDS[LOC_ID] + "=?", new String[] {locationId});
-				
-				if(numAffectedRows != 1) {
-					
-					return -1;
+			for(cursor.moveToFirst(); cursor.isAfterLast() == false; cursor.moveToNext()) {
+
+				Long locationId = Long.valueOf(cursor.getLong(0));
+				String locationName = cursor.getString(1);
+				String latitude = cursor.getString(2);
+				String longitude = cursor.getString(3);
+				double lat = parseCoordinate(latitude, 90d);
+				double lng = parseCoordinate(longitude, 180d);
+
+				if(Double.isNaN(lat) || Double.isNaN(lng)) {
+
+					db.execSQL("insert or replace into " + DB_TABLE_LOCATION_INVALID + " values (?, ?, ?, ?)", new Object[] {locationId, locationName, latitude, longitude});
+					invalidCount++;
+					continue;
 				}
+
+				db.execSQL("insert into " + DB_TABLE_LOCATION + "_v4 (" + LOC_FIELDS[LOC_ID] + ", " + LOC_FIELDS[LOC_NAME] + ", " + LOC_FIELDS[LOC_LATITUDE] + ", " + LOC_FIELDS[LOC_LONGITUDE] + ") values (?, ?, ?, ?)",
+						new Object[] {locationId, locationName, Double.valueOf(lat), Double.valueOf(lng)});
+				copiedCount++;
 			}
-			else {
-				
-				return 0;
-			}
+		}
+		finally {
 
+			cursor.close();
 		}
-		catch(SQLiteException e) {
-			
-			Log.e(PROD_LOG_TAG, "SQLiteException: deleteLocation()", e);
-			return -1;
+
+		if(invalidCount > 0) {
+
+			Log.w(PROD_LOG_TAG, invalidCount + " locations with invalid coordinates moved to " + DB_TABLE_LOCATION_INVALID);
 		}
 
-		return 1;
+		return copiedCount;
 	}
-	
+
 	/*
-	 * Check if a location has any associated artifacts
+	 * Helper method that parses a coordinate that was stored as TEXT. Returns NaN if it isn't
+	 * a number within [-maxDegrees, maxDegrees].
 	 */
-	public boolean hasArtifactsAtLocation(String locId) {
-		
-		boolean hasArtifacts = false;
-		
+	private static double parseCoordinate(String coordinate, double maxDegrees) {
+
+		if(null == coordinate) {
+
+			return Double.NaN;
+		}
+
 		try {
-		
-			hasArtifacts = hasLocationInLocToArtTable(locId);
+
+			double degrees = Double.parseDouble(coordinate.trim());
+			return (Math.abs(degrees) <= maxDegrees) ? degrees : Double.NaN;
 		}
-		catch(SQLiteException e) {
+		catch(NumberFormatException e) {
 
-			Log.e(PROD_LOG_TAG, "SQLiteException: hasArtifactsAtLocation()", e);
+			return Double.NaN;
 		}
-		
-		return hasArtifacts;
 	}
-	
+
 	/*
-	 * Helper method that checks if the provided artifactRowId is part of an existing location and artifact relationship
+	 * Helper method that compresses the large artifact data of the artifacts with an ID in the
+	 * (fromArtifactId, toArtifactId] range. Returns the number of compressed artifacts.
 	 */
-	private boolean isArtifactReferenced(String artifactId) {
+	private static long compressArtifactData(SQLiteDatabase db, long fromArtifactId, long toArtifactId) {
 
-		Cursor cursor = mSQLiteDatabase.query(true, DB_TABLE_LOC_TO_ART, LOC_ART_FIELDS, LOC_ART_FIELDS[FK_ART_ID] + "=?", new String [] {artifactId}, null, null, null, null);
+		long compressedCount = 0;
+		Cursor cursor = db.rawQuery("select " + ART_FIELDS[ART_ID] + ", " + ART_FIELDS[ART_DATA] + " from " + DB_TABLE_ARTIFACT
+				+ " where " + ART_FIELDS[ART_ID] + " > ? and " + ART_FIELDS[ART_ID] + " <= ? and length(" + ART_FIELDS[ART_DATA] + ") * 3 > " + ArtifactDataCodec.COMPRESSION_THRESHOLD,
+				new String[] {String.valueOf(fromArtifactId), String.valueOf(toArtifactId)});
 
-		if((null != cursor) && (0 < cursor.getCount())) {
+		try {
+
+			for(cursor.moveToFirst(); cursor.isAfterLast() == false; cursor.moveToNext()) {
+
+				long artifactId = cursor.getLong(0);
+				String artifactData = cursor.getString(1);
+				byte[] compressedData = ArtifactDataCodec.compress(artifactData);
+
+				if(null == compressedData) {
+
+					continue;
+				}
+
+				db.execSQL("update " + DB_TABLE_ARTIFACT + " set " + ART_FIELDS[ART_DATA] + "=null, " + ART_FIELDS[ART_DATA_COMPRESSED] + "=? where " + ART_FIELDS[ART_ID] + "=?",
+						new Object[] {compressedData, Long.valueOf(artifactId)});
+				replaceArtifactSearchData(db, artifactId, artifactData);
+				compressedCount++;
+			}
+		}
+		finally {
 
 			cursor.close();
-			return true;
 		}
-		else {
-			
-			if(null != cursor) {
-			
-				cursor.close();
-			}
-			
-			return false;
+
+		return compressedCount;
+	}
+
+	/*
+	 * Helper method that turns the user's query into an FTS match expression, with each search
+	 * term as a prefix term
+	 */
+	private static String getMatchExpression(String query) {
+
+		StringBuilder matchExpression = new StringBuilder();
+
+		for(String term : ArtifactSearchRanking.getSearchTerms(query)) {
+
+			matchExpression.append((0 == matchExpression.length()) ? "" : " ").append(term).append('*');
 		}
+
+		return (0 == matchExpression.length()) ? null : matchExpression.toString();
 	}
 
 	/*
-	 * Helper method that checks if a location with the provided name exists
+	 * Helper method that scores a match based on the FTS offsets(), which lists four integers
+	 * per matching term: column, term, byte offset, and size
 	 */
-	private boolean hasLocation(String locationName) {
-		
-		
-		Cursor cursor = mSQLiteDatabase.query(true,
-				DB_TABLE_LOCATION,
-				LOC_FIELDS,
-				LOC_FIELDS[LOC_NAME] + "=?",
-				new String [] {locationName},
-				null,
-				null,
-				null,
-				null);
+	private static long getSearchScore(String offsets) {
 
-		if((null != cursor) && (1 == cursor.getCount())) {
+		if(null == offsets) {
 
-			cursor.close();
-			return true;
+			return 0;
 		}
-		else {
 
-			if(null != cursor) {
+		String[] values = offsets.split(" ");
+		long score = 0;
 
-				cursor.close();
+		for(int i = 0; i + 3 < values.length; i += 4) {
+
+			try {
+
+				int column = Integer.parseInt(values[i]);
+				score += (column >= 0 && column < ArtifactSearchRanking.SEARCH_COLUMN_WEIGHTS.length) ? ArtifactSearchRanking.SEARCH_COLUMN_WEIGHTS[column] : 1;
 			}
+			catch(NumberFormatException e) {
 
-			return false;
+				score += 1;
+			}
 		}
+
+		return score;
 	}
-	
+
 	/*
-	 * Helper method that checks if the provided locationRowId is part of an existing location and artifact relationship
+	 * Helper method that switches the database to write-ahead logging and opens the read-only
+	 * connections. With WAL, readers on their own connection don't wait for the writer and see
+	 * the last committed state. Without WAL, all queries use the writable connection.
 	 */
-	private boolean hasLocationInLocToArtTable(String locationId) {
+	private void openReaderDatabases() {
 
-		Cursor cursor = mSQLiteDatabase.query(true, DB_TABLE_LOC_TO_ART, LOC_ART_FIELDS, LOC_ART_FIELDS[FK_LOC_ID] + "=?", new String [] {locationId}, null, null, null, null);
+		if(Build.VERSION.SDK_INT < WAL_MIN_SDK_VERSION) {
 
-		if((null != cursor) && (0 < cursor.getCount())) {
-			
-			cursor.close();
-			return true;
+			return;
 		}
-		else {
-			
-			if(null != cursor) {
 
-				cursor.close();
+		try {
+
+			// SQLiteDatabase.enableWriteAheadLogging() is not part of the API level we build against
+			Method enableWriteAheadLogging = SQLiteDatabase.class.getMethod("enableWriteAheadLogging");
+
+			if(!((Boolean)enableWriteAheadLogging.invoke(mSQLiteDatabase)).booleanValue()) {
+
+				return;
 			}
-			
-			return false;
+
+			SQLiteDatabase[] readerDatabases = new SQLiteDatabase[READER_POOL_SIZE];
+
+			for(int i = 0; i < readerDatabases.length; i++) {
+
+				readerDatabases[i] = SQLiteDatabase.openDatabase(mSQLiteDatabase.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+			}
+
+			mReaderDatabases = readerDatabases;
+		}
+		catch(Exception e) {
+
+			Log.w(PROD_LOG_TAG, "Was not able to enable write-ahead logging", e);
+			closeReaderDatabases();
 		}
 	}
 
 	/*
-	 * Helper method that checks if an artifact/location exists
+	 * Helper method that closes the read-only connections
 	 */
-	private boolean hasArtifactAtLocation(String artifactName, String locationName, String locationLat, String locationLng) {
-	
-		SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
-		queryBuilder.setTables("LocToArt JOIN Artifact ON (LocToArt.artId=Artifact._id) JOIN Location ON (LocToArt.locId=Location._id)");
-		queryBuilder.setDistinct(true);
-		StringBuilder selection = new StringBuilder();
-		selection.append(ART_FIELDS[ART_NAME])
-		.append("=? AND ")
-		.append(LOC_FIELDS[LOC_NAME])
-		.append("=? AND ")
-		.append(LOC_FIELDS[LOC_LATITUDE])
-		.append("=? AND ")
-		.append(LOC_FIELDS[LOC_LONGITUDE])
-		.append("=? ");
-		Cursor cursor = queryBuilder.query(mSQLiteDatabase,
-										  new String[] {"Artifact._id"},
-														selection.toString(), 
-														new String [] {artifactName, locationName, locationLat, locationLng},
-														null, null, null);
-
-		if((null != cursor) && (1 == cursor.getCount())) {
+	private void closeReaderDatabases() {
 
-			cursor.close();
-			return true;
-		}
-		else {
+		SQLiteDatabase[] readerDatabases = mReaderDatabases;
+		mReaderDatabases = new SQLiteDatabase[0];
 
-			if(null != cursor) {
+		for(int i = 0; i < readerDatabases.length; i++) {
 
-				cursor.close();
-			}
+			if(null != readerDatabases[i]) {
 
-			return false;
+				readerDatabases[i].close();
+			}
 		}
 	}
 
-	
 	/*
-	 * Helper method that checks if an artifact/location exists
+	 * Helper method that hands out the read-only connections round robin, or the writable
+	 * connection if there are none
 	 */
-	private boolean hasArtifactAtLocation(String artifactName, String locationName, String locationId) {
-	
-		SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
-		queryBuilder.setTables("LocToArt JOIN Artifact ON (LocToArt.artId=Artifact._id) JOIN Location ON (LocToArt.locId=Location._id)");
-		queryBuilder.setDistinct(true);
-		StringBuilder selection = new StringBuilder();
-		selection.append(ART_FIELDS[ART_NAME])
-		.append("=? AND ")
-		.append(LOC_FIELDS[LOC_NAME])
-		.append("=? AND ")
-		.append(LOC_ART_FIELDS[FK_LOC_ID])
-		.append("=? ");
-		Cursor cursor = queryBuilder.query(mSQLiteDatabase,
-										  new String[] {"Artifact._id"},
-														selection.toString(), 
-														new String [] {artifactName, locationName, locationId},
-														null, null, null);
-
-		if((null != cursor) && (1 == cursor.getCount())) {
+	private SQLiteDatabase getReaderDatabase() {
 
-			cursor.close();
-			return true;
+		SQLiteDatabase[] readerDatabases = mReaderDatabases;
+
+		if(0 == readerDatabases.length) {
+
+			return mSQLiteDatabase;
 		}
-		else {
 
-			if(null != cursor) {
+		synchronized(this) {
 
-				cursor.close();
-			}
+			mNextReaderDatabase = (mNextReaderDatabase + 1) % readerDatabases.length;
+			return readerDatabases[mNextReaderDatabase];
+		}
+	}
 
-			return false;
+	/*
+	 * Helper method that runs a cached, precompiled single value query
+	 */
+	private long queryForLong(String sql, Object... bindArgs) {
+
+		SQLiteStatement statement = getCompiledStatement(sql);
+
+		synchronized(statement) {
+
+			bindArguments(statement, bindArgs);
+			return statement.simpleQueryForLong();
 		}
 	}
-	
+
 	/*
-	 * Helper method that searches by latitude, and longitude for an existing location
+	 * Helper method that runs a cached, precompiled insert. Returns the new row ID or -1 if
+	 * no row was inserted
 	 */
-	private long getLocation(String latitude, String longitude) {
+	private long executeInsert(String sql, Object... bindArgs) {
 
-		Cursor cursor = mSQLiteDatabase.query(true,
-				DB_TABLE_LOCATION,
-				LOC_FIELDS,
-				LOC_FIELDS[LOC_LATITUDE] + "=? AND " + LOC_FIELDS[LOC_LONGITUDE] + "=?",
-				new String [] {latitude, longitude},
-				null,
-				null,
-				null,
-				null);
-
-		if((null != cursor) && (1 == cursor.getCount())) {
-			
-			cursor.moveToFirst();
-			int idColumnIndex = cursor.getColumnIndex(LOC_FIELDS[LOC_ID]);
-			long rowId = cursor.getLong(idColumnIndex);
-			cursor.close();
-			return rowId;
+		SQLiteStatement statement = getCompiledStatement(sql);
+
+		synchronized(statement) {
+
+			bindArguments(statement, bindArgs);
+			return statement.executeInsert();
 		}
-		else {
-			
-			if(null != cursor) {
-			
-				cursor.close();
+	}
+
+	/*
+	 * Helper method that returns the compiled statement for the provided SQL, compiling it
+	 * on first use
+	 */
+	private SQLiteStatement getCompiledStatement(String sql) {
+
+		synchronized(mStatementCache) {
+
+			SQLiteStatement statement = mStatementCache.get(sql);
+
+			if(null == statement) {
+
+				statement = mSQLiteDatabase.compileStatement(sql);
+				mStatementCache.put(sql, statement);
 			}
-			
-			return -1;
+
+			return statement;
 		}
 	}
-	
+
 	/*
-	 * Helper method that queries locations for the provided name. The result should contain zero or only
-	 * one location. If the location doesn't match the provided location ID, then we signal a failure
-	 * so that the user can choose another name.
+	 * Helper method that binds the provided String, Long, Double and byte[] arguments
 	 */
-	private boolean isValidLocation(String name, String locationId) {
+	private static void bindArguments(SQLiteStatement statement, Object[] bindArgs) {
 
-		Cursor cursor = null;
-		
-		try {
-			
-			// Search for locations that match the given name
-			cursor = mSQLiteDatabase.query(true,
-					DB_TABLE_LOCATION,
-					LOC_FIELDS,
-					LOC_FIELDS[LOC_NAME] + "=?",
-					new String [] {name},
-					null,
-					null,
-					null,
-					null);
-
-			if((null != cursor) && (1 == cursor.getCount())) {
-
-				cursor.moveToFirst();
-
-				int locIdColumnIndex = cursor.getColumnIndex(LOC_FIELDS[LOC_ID]);
-				String locId = String.valueOf(cursor.getLong(locIdColumnIndex));
-				
-				if(null != locationId && null != locId && locationId.equals(locId)) {
+		statement.clearBindings();
 
-					cursor.close();
-					return true;
-				}
-				else {
+		for(int i = 0; i < bindArgs.length; i++) {
 
-					cursor.close();
-					return false;
-				}
+			Object bindArg = bindArgs[i];
+
+			if(null == bindArg) {
+
+				statement.bindNull(i + 1);
 			}
-			else if((null != cursor) && (0 == cursor.getCount())) {
+			else if(bindArg instanceof Double) {
 
-				cursor.close();
-				return true;
+				statement.bindDouble(i + 1, ((Double)bindArg).doubleValue());
 			}
-			else {
+			else if(bindArg instanceof Long) {
 
-				if(null != cursor) {
+				statement.bindLong(i + 1, ((Long)bindArg).longValue());
+			}
+			else if(bindArg instanceof byte[]) {
 
-					cursor.close();
-				}
-				return false;
+				statement.bindBlob(i + 1, (byte[])bindArg);
+			}
+			else {
+
+				statement.bindString(i + 1, bindArg.toString());
 			}
 		}
-		catch(SQLiteException e) {
+	}
 
-			if(null != cursor) {
+	/*
+	 * Helper method that closes all the cached compiled statements
+	 */
+	private void closeCompiledStatements() {
 
-				cursor.close();
-				return false;
+		synchronized(mStatementCache) {
+
+			for(SQLiteStatement statement : mStatementCache.values()) {
+
+				statement.close();
 			}
-		}
 
-		return false;
+			mStatementCache.clear();
+		}
 	}
-	
+
+
 	/*
-	 * Helper method that queries locations for the provided name. The result should contain zero or only
-	 * one location. If the location doesn't match the provided Lat/Lng, then we signal a failure
-	 * so that the user can choose another name.
+	 * Helper method that creates the R*Tree location index and the triggers that keep it in sync.
+	 * Returns false if SQLite was built without the R*Tree module.
 	 */
-	private boolean isValidLocation(String name, String latitude, String longitude) {
+	private static boolean createLocationTree(SQLiteDatabase db) {
 
-		Cursor cursor = null;
-		
 		try {
-			
-			// Search for locations that match the given name
-			cursor = mSQLiteDatabase.query(true,
-					DB_TABLE_LOCATION,
-					LOC_FIELDS,
-					LOC_FIELDS[LOC_NAME] + "=?",
-					new String [] {name},
-					null,
-					null,
-					null,
-					null);
-
-			if((null != cursor) && (1 == cursor.getCount())) {
-
-				cursor.moveToFirst();
-
-				int latColumnIndex = cursor.getColumnIndex(LOC_FIELDS[LOC_LATITUDE]);
-				int lngColumnIndex = cursor.getColumnIndex(LOC_FIELDS[LOC_LONGITUDE]);
-				String lat = cursor.getString(latColumnIndex);
-				String lng = cursor .getString(lngColumnIndex);
-
-				if(null != lat && null != lng && lat.equals(latitude) && lng.equals(longitude)) {
-					
-					cursor.close();
-					return true;
-				}
-				else {
-					
-					cursor.close();
-					return false;
-				}
-			}
-			else if((null != cursor) && (0 == cursor.getCount())) {
-				
-				cursor.close();
-				return true;
-			}
-			else {
 
-				if(null != cursor) {
-				
-					cursor.close();
-				}
-				return false;
-			}
+			db.execSQL(CREATE_LOCATION_TREE_TABLE);
 		}
 		catch(SQLiteException e) {
 
-			if(null != cursor) {
-				
-				cursor.close();
-				return false;
-			}
+			Log.w(PROD_LOG_TAG, "R*Tree module is not available, using the lat/lng index for bounding box queries", e);
+			return false;
 		}
-		
-		return false;
+
+		SchemaMigration.execute(db, CREATE_LOCATION_TREE_TRIGGERS);
+		return true;
 	}
 
 	/*
-	 * Helper method that searches by name for an existing artifact
+	 * Helper method that concatenates two arrays of SQL statements
 	 */
-	private long getArtifact(String name) {
+	private static String[] concat(String[] statements, String[] moreStatements) {
 
-		Cursor cursor = mSQLiteDatabase.query(true,
-				DB_TABLE_ARTIFACT, ART_FIELDS, ART_FIELDS[ART_NAME] + "=?",
-				new String [] {name},
-				null,
-				null,
-				null,
-				null);
-
-		if((null != cursor) && (1 == cursor.getCount())) {
-			
-			cursor.moveToFirst();
-			int idColumnIndex = cursor.getColumnIndex(ART_FIELDS[ART_ID]);
-			long rowId = cursor.getLong(idColumnIndex);
-			cursor.close();
-			return rowId;
-		}
-		else {
-			
-			if(null != cursor) {
-				
-				cursor.close();
-			}
-			return -1;
-		}
+		String[] allStatements = new String[statements.length + moreStatements.length];
+		System.arraycopy(statements, 0, allStatements, 0, statements.length);
+		System.arraycopy(moreStatements, 0, allStatements, statements.length, moreStatements.length);
+		return allStatements;
 	}
 
 
@@ -775,13 +2111,29 @@ public class DbAdapter implements ApplicationConstants {
 		public void onCreate(SQLiteDatabase db) {
 
 			db.execSQL(CREATE_LOCATION_TABLE);
+			db.execSQL(ADD_LOCATION_RADIUS_COLUMN);
 			db.execSQL(CREATE_ARTIFACT_TABLE);
 			db.execSQL(CREATE_LOC_TO_ART_TABLE);
+			db.execSQL(CREATE_LOCATION_LAT_LNG_INDEX);
+			db.execSQL(CREATE_LOCATION_NAME_INDEX);
+			db.execSQL(CREATE_ARTIFACT_NAME_INDEX);
+			db.execSQL(CREATE_LOC_TO_ART_LOC_ID_INDEX);
+			SchemaMigration.execute(db, CREATE_ARTIFACT_SEARCH);
+			createLocationTree(db);
+			SchemaMigration.execute(db, CREATE_ARTIFACT_LISTING);
+			SchemaMigration.execute(db, ADD_ARTIFACT_LISTING_COMPRESSED_DATA);
+			SchemaMigration.execute(db, CREATE_DATA_VERSION);
+			SchemaMigrator.createLog(db);
 		}
 
+		/*
+		 * The upgrade only schedules the schema migration steps. They run once the database is
+		 * open, see DbAdapter() and SchemaMigrator.
+		 */
 		@Override
-		public void onUpgrade(SQLiteDatabase arg0, int oldVersion, int newVersion) {
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 			
+			new SchemaMigrator(SCHEMA_MIGRATIONS, UPGRADE_CHUNK_SIZE).schedule(db, oldVersion, newVersion);
 		}
 	}
 }
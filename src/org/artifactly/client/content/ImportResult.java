@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import org.artifactly.client.ApplicationConstants;
+
+/*
+ * Result of a bulk artifact import. It keeps the ApplicationConstants status
+ * byte mask for every imported row, in input order, plus the overall throughput.
+ */
+public class ImportResult implements ApplicationConstants {
+
+	private byte[] rowStatus = new byte[256];
+	private int rowCount = 0;
+	private int createdCount = 0;
+	private int existingCount = 0;
+	private int errorCount = 0;
+	private long elapsedTime = 0;
+
+	/*
+	 * Record the status of the next row
+	 */
+	void addRowStatus(byte status) {
+
+		if(rowCount == rowStatus.length) {
+
+			byte[] newRowStatus = new byte[rowStatus.length * 2];
+			System.arraycopy(rowStatus, 0, newRowStatus, 0, rowCount);
+			rowStatus = newRowStatus;
+		}
+
+		rowStatus[rowCount++] = status;
+
+		if(DEFAULT_MASK == status) {
+
+			createdCount++;
+		}
+		else if((status ^ ARTIFACT_AND_LOCATION_EXIST) == IS_MATCH) {
+
+			existingCount++;
+		}
+		else {
+
+			errorCount++;
+		}
+	}
+
+	void setElapsedTime(long elapsedTime) {
+
+		this.elapsedTime = elapsedTime;
+	}
+
+	/*
+	 * Status byte mask of the row at the provided position
+	 */
+	public byte getRowStatus(int row) {
+
+		if(row < 0 || row >= rowCount) {
+
+			throw new IndexOutOfBoundsException("Row " + row + " of " + rowCount);
+		}
+
+		return rowStatus[row];
+	}
+
+	/*
+	 * Status byte masks of all rows
+	 */
+	public byte[] getRowStatuses() {
+
+		byte[] statuses = new byte[rowCount];
+		System.arraycopy(rowStatus, 0, statuses, 0, rowCount);
+		return statuses;
+	}
+
+	public int getRowCount() {
+
+		return rowCount;
+	}
+
+	public int getCreatedCount() {
+
+		return createdCount;
+	}
+
+	public int getExistingCount() {
+
+		return existingCount;
+	}
+
+	public int getErrorCount() {
+
+		return errorCount;
+	}
+
+	/*
+	 * Elapsed time in milliseconds
+	 */
+	public long getElapsedTime() {
+
+		return elapsedTime;
+	}
+
+	/*
+	 * Overall throughput
+	 */
+	public double getRowsPerSecond() {
+
+		if(0 == elapsedTime) {
+
+			return rowCount;
+		}
+
+		return (rowCount * 1000.0d) / elapsedTime;
+	}
+}
@@ -0,0 +1,673 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+ * Immutable snapshot of all the locations at one data version. The locations are kept in
+ * parallel arrays that are sorted by latitude, so that a proximity check can find the
+ * latitude band of its search radius with a binary search and then scan it without any
+ * SQL or allocation. DbAdapter builds a new snapshot when the data version changes.
+ * The coordinates are also kept in radians, with the cosine of the latitude, for the
+ * ProximityKernel.
+ * 
+ * Locations can have their own radius instead of the kernel's. To find the locations whose
+ * radius contains a point without widening every band to the largest radius, the locations
+ * with artifacts are also grouped into tiers of similar radii, each sorted by latitude and
+ * scanned with the band of its own largest radius. Tier 0 has the locations that use the
+ * kernel's radius.
+ */
+public final class LocationSnapshot {
+
+	// Used to convert the search radius to degrees. The margin covers the difference
+	// between the spherical approximation used here and Location.distanceBetween()
+	private static final double METERS_PER_DEGREE_LATITUDE = 111320.0d;
+	private static final double RADIUS_MARGIN = 1.01d;
+
+	private final long dataVersion;
+	private final long[] ids;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final boolean[] hasArtifacts;
+	private final double[] latitudeRadians;
+	private final double[] longitudeRadians;
+	private final double[] cosLatitudes;
+
+	// Radius in meters of each location, or 0 for the kernel's radius, and its haversine
+	private final int[] radii;
+	private final double[] haversineRadii;
+	private final int maxRadius;
+
+	// Indexes of the locations with artifacts by radius tier, and the largest radius in each tier
+	private final int[][] tiers;
+	private final int[] tierRadii;
+
+	// Bands with fewer locations than this are always scanned by the calling thread. Below it,
+	// handing chunks to other threads costs more than it saves.
+	static final int PARALLEL_SCAN_THRESHOLD = 16384;
+
+	/*
+	 * The arrays must be sorted by latitude and are not copied. A radius of 0 means that the
+	 * location uses the kernel's radius.
+	 */
+	LocationSnapshot(long dataVersion, long[] ids, double[] latitudes, double[] longitudes, boolean[] hasArtifacts, int[] radii) {
+
+		this.dataVersion = dataVersion;
+		this.ids = ids;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.hasArtifacts = hasArtifacts;
+		this.radii = radii;
+		this.latitudeRadians = new double[ids.length];
+		this.longitudeRadians = new double[ids.length];
+		this.cosLatitudes = new double[ids.length];
+		this.haversineRadii = new double[ids.length];
+
+		// Tier 0 uses the kernel's radius, tier n > 0 has the radii in [2^(n-1), 2^n)
+		int[] tierSizes = new int[33];
+		int maxRadius = 0;
+
+		for(int i = 0; i < ids.length; i++) {
+
+			latitudeRadians[i] = Math.toRadians(latitudes[i]);
+			longitudeRadians[i] = Math.toRadians(longitudes[i]);
+			cosLatitudes[i] = Math.cos(latitudeRadians[i]);
+			haversineRadii[i] = ProximityKernel.toHaversine(radii[i]);
+			maxRadius = Math.max(maxRadius, radii[i]);
+
+			if(hasArtifacts[i]) {
+
+				tierSizes[getTier(radii[i])]++;
+			}
+		}
+
+		this.maxRadius = maxRadius;
+
+		// Only the tiers up to the largest one with locations are kept
+		int tierCount = 1;
+
+		for(int tier = 1; tier < tierSizes.length; tier++) {
+
+			if(0 < tierSizes[tier]) {
+
+				tierCount = tier + 1;
+			}
+		}
+
+		this.tiers = new int[tierCount][];
+		this.tierRadii = new int[tierCount];
+
+		for(int tier = 0; tier < tierCount; tier++) {
+
+			tiers[tier] = new int[tierSizes[tier]];
+			tierSizes[tier] = 0;
+		}
+
+		// The indexes are added in latitude order, so every tier is sorted by latitude
+		for(int i = 0; i < ids.length; i++) {
+
+			if(hasArtifacts[i]) {
+
+				int tier = getTier(radii[i]);
+				tiers[tier][tierSizes[tier]++] = i;
+				tierRadii[tier] = Math.max(tierRadii[tier], radii[i]);
+			}
+		}
+	}
+
+	/*
+	 * Data version of the locations in this snapshot
+	 */
+	public long getDataVersion() {
+
+		return dataVersion;
+	}
+
+	/*
+	 * Number of locations
+	 */
+	public int size() {
+
+		return ids.length;
+	}
+
+	/*
+	 * Location DB row id at the provided index
+	 */
+	public long getId(int index) {
+
+		return ids[index];
+	}
+
+	public double getLatitude(int index) {
+
+		return latitudes[index];
+	}
+
+	public double getLongitude(int index) {
+
+		return longitudes[index];
+	}
+
+	/*
+	 * Radius in meters of the location at the provided index, or 0 if it uses the kernel's radius
+	 */
+	public int getRadius(int index) {
+
+		return radii[index];
+	}
+
+	/*
+	 * Whether the center of the provided kernel lies within the radius of the location at the
+	 * provided index, which is the kernel's radius unless the location has its own
+	 */
+	public boolean isWithinRadius(int index, ProximityKernel kernel) {
+
+		if(0 == radii[index]) {
+
+			return kernel.isWithinRadius(latitudeRadians[index], longitudeRadians[index], cosLatitudes[index]);
+		}
+
+		return kernel.isWithinRadius(latitudeRadians[index], longitudeRadians[index], cosLatitudes[index], haversineRadii[index]);
+	}
+
+	/*
+	 * Returns the indexes of the locations with artifacts whose radius contains the center of the
+	 * provided kernel, see isWithinRadius(). Each radius tier is scanned in the latitude band of its
+	 * largest radius only.
+	 */
+	public int[] getContaining(ProximityKernel kernel) {
+
+		return getContaining(kernel, null, 1);
+	}
+
+	/*
+	 * Same as above, but if the bands have at least PARALLEL_SCAN_THRESHOLD locations, they are split
+	 * into up to parallelism chunks. The calling thread scans one chunk and the provided executor the
+	 * others. A chunk that the executor fails to scan is scanned by the calling thread. The result is
+	 * the same as that of the sequential scan.
+	 */
+	public int[] getContaining(final ProximityKernel kernel, ExecutorService executor, int parallelism) {
+
+		double centerLatitude = Math.toDegrees(kernel.getLatitudeRadians());
+		int[] bandStarts = new int[tiers.length];
+		int[] bandEnds = new int[tiers.length];
+		int bandSize = 0;
+
+		for(int tier = 0; tier < tiers.length; tier++) {
+
+			double latitudeDelta = getLatitudeDelta((0 == tier) ? kernel.getRadiusInMeters() : tierRadii[tier]);
+			bandStarts[tier] = getFirstIndex(tiers[tier], centerLatitude - latitudeDelta);
+			bandEnds[tier] = Math.max(bandStarts[tier], getEndIndex(tiers[tier], centerLatitude + latitudeDelta));
+			bandSize += bandEnds[tier] - bandStarts[tier];
+		}
+
+		List<int[]> matches = new ArrayList<int[]>();
+
+		if(null == executor || parallelism < 2 || bandSize < PARALLEL_SCAN_THRESHOLD) {
+
+			for(int tier = 0; tier < tiers.length; tier++) {
+
+				matches.add(scan(kernel, tier, bandStarts[tier], bandEnds[tier]));
+			}
+
+			return concat(matches);
+		}
+
+		// Split the bands into chunks of about the same size, in tier and latitude order
+		int chunkSize = (bandSize + parallelism - 1) / parallelism;
+		List<int[]> chunks = new ArrayList<int[]>();
+
+		for(int tier = 0; tier < tiers.length; tier++) {
+
+			for(int from = bandStarts[tier]; from < bandEnds[tier]; from += chunkSize) {
+
+				chunks.add(new int[] {tier, from, Math.min(bandEnds[tier], from + chunkSize)});
+			}
+		}
+
+		List<Future<int[]>> futures = new ArrayList<Future<int[]>>(chunks.size());
+
+		for(int i = 0; i < chunks.size() - 1; i++) {
+
+			final int[] chunk = chunks.get(i);
+
+			try {
+
+				futures.add(executor.submit(new Callable<int[]>() {
+
+					public int[] call() {
+
+						return scan(kernel, chunk[0], chunk[1], chunk[2]);
+					}
+				}));
+			}
+			catch(RejectedExecutionException e) {
+
+				futures.add(null);
+			}
+		}
+
+		int[] lastChunk = chunks.get(chunks.size() - 1);
+		int[] lastMatches = scan(kernel, lastChunk[0], lastChunk[1], lastChunk[2]);
+
+		for(int i = 0; i < futures.size(); i++) {
+
+			int[] chunk = chunks.get(i);
+			int[] chunkMatches = null;
+
+			try {
+
+				if(null != futures.get(i)) {
+
+					chunkMatches = futures.get(i).get();
+				}
+			}
+			catch(InterruptedException e) {
+
+				Thread.currentThread().interrupt();
+			}
+			catch(ExecutionException e) {
+
+				// Scanned again below
+			}
+
+			matches.add((null != chunkMatches) ? chunkMatches : scan(kernel, chunk[0], chunk[1], chunk[2]));
+		}
+
+		matches.add(lastMatches);
+
+		return concat(matches);
+	}
+
+	/*
+	 * Helper method that returns the indexes of the locations with artifacts in the provided range
+	 * of the provided tier whose radius contains the center of the provided kernel
+	 */
+	private int[] scan(ProximityKernel kernel, int tier, int from, int to) {
+
+		int[] indexes = tiers[tier];
+		int[] containing = new int[4];
+		int count = 0;
+
+		for(int i = from; i < to; i++) {
+
+			if(!isWithinRadius(indexes[i], kernel)) {
+
+				continue;
+			}
+
+			if(count == containing.length) {
+
+				int[] newContaining = new int[containing.length * 2];
+				System.arraycopy(containing, 0, newContaining, 0, count);
+				containing = newContaining;
+			}
+
+			containing[count++] = indexes[i];
+		}
+
+		int[] result = new int[count];
+		System.arraycopy(containing, 0, result, 0, count);
+
+		return result;
+	}
+
+	/*
+	 * Helper method that concatenates the provided arrays
+	 */
+	private static int[] concat(List<int[]> arrays) {
+
+		int length = 0;
+
+		for(int[] array : arrays) {
+
+			length += array.length;
+		}
+
+		int[] result = new int[length];
+		int offset = 0;
+
+		for(int[] array : arrays) {
+
+			System.arraycopy(array, 0, result, offset, array.length);
+			offset += array.length;
+		}
+
+		return result;
+	}
+
+	/*
+	 * Distance in meters between the location at the provided index and the center of the provided kernel
+	 */
+	public double getDistance(int index, ProximityKernel kernel) {
+
+		return ProximityKernel.toMeters(kernel.getHaversine(latitudeRadians[index], longitudeRadians[index], cosLatitudes[index]));
+	}
+
+	/*
+	 * Returns the indexes of up to k locations with artifacts within the radius of the provided
+	 * kernel, nearest first. The locations are visited outwards from the center latitude, always
+	 * on the side with the smaller latitude difference, and kept in a bounded max-heap. Once
+	 * the heap is full, its farthest location bounds the search, which ends when the latitude
+	 * difference alone exceeds that bound.
+	 */
+	public int[] getNearest(ProximityKernel kernel, int k) {
+
+		// There can't be more results than locations, whatever the caller asks for
+		k = Math.min(k, ids.length);
+
+		if(k < 1) {
+
+			return new int[0];
+		}
+
+		// Max-heap of {haversine, index}, farthest location first
+		double[] heapHaversines = new double[k];
+		int[] heapIndexes = new int[k];
+		int heapSize = 0;
+		double limit = kernel.getHaversineRadius();
+
+		double centerLatitude = kernel.getLatitudeRadians();
+		int up = getFirstIndex(Math.toDegrees(centerLatitude));
+		int down = up - 1;
+
+		while(up < ids.length || down >= 0) {
+
+			double upDelta = (up < ids.length) ? latitudeRadians[up] - centerLatitude : Double.MAX_VALUE;
+			double downDelta = (down >= 0) ? centerLatitude - latitudeRadians[down] : Double.MAX_VALUE;
+			int index = (upDelta <= downDelta) ? up++ : down--;
+
+			// All the remaining locations are at least as far in latitude
+			if(ProximityKernel.getMinHaversine(Math.min(upDelta, downDelta)) > limit) {
+
+				break;
+			}
+
+			if(!hasArtifacts[index]) {
+
+				continue;
+			}
+
+			double haversine = kernel.getHaversine(latitudeRadians[index], longitudeRadians[index], cosLatitudes[index]);
+
+			if(haversine > limit || (heapSize == k && haversine >= heapHaversines[0])) {
+
+				continue;
+			}
+
+			if(heapSize < k) {
+
+				// Sift up
+				int child = heapSize++;
+
+				while(child > 0 && heapHaversines[(child - 1) / 2] < haversine) {
+
+					heapHaversines[child] = heapHaversines[(child - 1) / 2];
+					heapIndexes[child] = heapIndexes[(child - 1) / 2];
+					child = (child - 1) / 2;
+				}
+
+				heapHaversines[child] = haversine;
+				heapIndexes[child] = index;
+			}
+			else {
+
+				siftDown(heapHaversines, heapIndexes, heapSize, haversine, index);
+			}
+
+			if(heapSize == k) {
+
+				limit = heapHaversines[0];
+			}
+		}
+
+		// Empty the heap, farthest first, into the result from the back
+		int[] nearest = new int[heapSize];
+
+		for(int i = heapSize - 1; i >= 0; i--) {
+
+			nearest[i] = heapIndexes[0];
+			siftDown(heapHaversines, heapIndexes, i, heapHaversines[i], heapIndexes[i]);
+		}
+
+		return nearest;
+	}
+
+	/*
+	 * Returns the distance in meters from the center of the provided kernel to the nearest radius
+	 * boundary of a location with artifacts, see isWithinRadius(), or maxDistance if none is closer. Moving the center
+	 * less than that can't take it into or out of any location's radius. The locations are visited
+	 * outwards from the center latitude, as in getNearest(), until the latitude difference alone
+	 * puts the remaining boundaries farther away.
+	 */
+	public double getBoundaryDistance(ProximityKernel kernel, double maxDistance) {
+
+		double maxEffectiveRadius = Math.max(kernel.getRadiusInMeters(), maxRadius);
+		double boundaryDistance = maxDistance;
+
+		double centerLatitude = kernel.getLatitudeRadians();
+		int up = getFirstIndex(Math.toDegrees(centerLatitude));
+		int down = up - 1;
+
+		while(up < ids.length || down >= 0) {
+
+			double upDelta = (up < ids.length) ? latitudeRadians[up] - centerLatitude : Double.MAX_VALUE;
+			double downDelta = (down >= 0) ? centerLatitude - latitudeRadians[down] : Double.MAX_VALUE;
+			int index = (upDelta <= downDelta) ? up++ : down--;
+
+			// All the remaining locations are at least as far in latitude
+			if(ProximityKernel.toMeters(ProximityKernel.getMinHaversine(Math.min(upDelta, downDelta))) - maxEffectiveRadius >= boundaryDistance) {
+
+				break;
+			}
+
+			if(!hasArtifacts[index]) {
+
+				continue;
+			}
+
+			double distance = ProximityKernel.toMeters(kernel.getHaversine(latitudeRadians[index], longitudeRadians[index], cosLatitudes[index]));
+			int radius = (0 == radii[index]) ? kernel.getRadiusInMeters() : radii[index];
+			boundaryDistance = Math.min(boundaryDistance, Math.abs(distance - radius));
+		}
+
+		return boundaryDistance;
+	}
+
+	/*
+	 * Helper method that replaces the root of the max-heap with the provided entry and restores the heap
+	 */
+	private static void siftDown(double[] heapHaversines, int[] heapIndexes, int heapSize, double haversine, int index) {
+
+		int parent = 0;
+
+		while(true) {
+
+			int child = 2 * parent + 1;
+
+			if(child >= heapSize) {
+
+				break;
+			}
+
+			if(child + 1 < heapSize && heapHaversines[child + 1] > heapHaversines[child]) {
+
+				child++;
+			}
+
+			if(heapHaversines[child] <= haversine) {
+
+				break;
+			}
+
+			heapHaversines[parent] = heapHaversines[child];
+			heapIndexes[parent] = heapIndexes[child];
+			parent = child;
+		}
+
+		heapHaversines[parent] = haversine;
+		heapIndexes[parent] = index;
+	}
+
+	/*
+	 * Whether the location at the provided index has any associated artifacts
+	 */
+	public boolean hasArtifacts(int index) {
+
+		return hasArtifacts[index];
+	}
+
+	/*
+	 * Returns the index of the first location with a latitude of at least minLatitude, or
+	 * size() if there is none
+	 */
+	public int getFirstIndex(double minLatitude) {
+
+		int low = 0;
+		int high = latitudes.length;
+
+		while(low < high) {
+
+			int middle = (low + high) >>> 1;
+
+			if(latitudes[middle] < minLatitude) {
+
+				low = middle + 1;
+			}
+			else {
+
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/*
+	 * Helper method that returns the index into the provided latitude sorted indexes of the first
+	 * location with a latitude of at least minLatitude, or indexes.length if there is none
+	 */
+	private int getFirstIndex(int[] indexes, double minLatitude) {
+
+		int low = 0;
+		int high = indexes.length;
+
+		while(low < high) {
+
+			int middle = (low + high) >>> 1;
+
+			if(latitudes[indexes[middle]] < minLatitude) {
+
+				low = middle + 1;
+			}
+			else {
+
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/*
+	 * Helper method that returns the index into the provided latitude sorted indexes after the last
+	 * location with a latitude of at most maxLatitude, or 0 if there is none
+	 */
+	private int getEndIndex(int[] indexes, double maxLatitude) {
+
+		int low = 0;
+		int high = indexes.length;
+
+		while(low < high) {
+
+			int middle = (low + high) >>> 1;
+
+			if(latitudes[indexes[middle]] <= maxLatitude) {
+
+				low = middle + 1;
+			}
+			else {
+
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/*
+	 * Helper method that returns the radius tier of the provided radius in meters
+	 */
+	private static int getTier(int radiusInMeters) {
+
+		return (radiusInMeters <= 0) ? 0 : 32 - Integer.numberOfLeadingZeros(radiusInMeters);
+	}
+
+	/*
+	 * Helper method that returns the latitude difference in degrees that covers the provided radius
+	 */
+	private static double getLatitudeDelta(double radiusInMeters) {
+
+		return (radiusInMeters * RADIUS_MARGIN) / METERS_PER_DEGREE_LATITUDE;
+	}
+
+	/*
+	 * Returns the {minLatitude, minLongitude, maxLatitude, maxLongitude} box that contains the radius
+	 * around the provided point. The longitudes are wrapped, so minLongitude is greater than maxLongitude
+	 * when the box crosses the anti-meridian.
+	 */
+	public static double[] getBoundingBox(double latitude, double longitude, double radiusInMeters) {
+
+		double latDelta = getLatitudeDelta(radiusInMeters);
+
+		// The longitude span grows towards the poles, so we use the bounding box edge closest to a pole
+		double maxAbsLatitude = Math.min(90.0d, Math.abs(latitude) + latDelta);
+		double cosLatitude = Math.cos(Math.toRadians(maxAbsLatitude));
+		double lngDelta = (cosLatitude > 0.0d) ? latDelta / cosLatitude : Double.MAX_VALUE;
+
+		double minLatitude = Math.max(-90.0d, latitude - latDelta);
+		double maxLatitude = Math.min(90.0d, latitude + latDelta);
+
+		if(lngDelta >= 180.0d) {
+
+			return new double[] {minLatitude, -180.0d, maxLatitude, 180.0d};
+		}
+
+		double minLongitude = longitude - lngDelta;
+		double maxLongitude = longitude + lngDelta;
+
+		if(minLongitude < -180.0d) {
+
+			minLongitude += 360.0d;
+		}
+
+		if(maxLongitude > 180.0d) {
+
+			maxLongitude -= 360.0d;
+		}
+
+		return new double[] {minLatitude, minLongitude, maxLatitude, maxLongitude};
+	}
+}
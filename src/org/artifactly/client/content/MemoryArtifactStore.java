@@ -0,0 +1,1020 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.artifactly.client.ApplicationConstants;
+
+/*
+ * In-memory storage engine with the same behavior and return codes as DbAdapter. Artifacts
+ * and locations are kept in hash indexes by ID and name, locations also in a sorted index by
+ * coordinates, and the location and artifact relationships in a sorted index in listing order.
+ * Nothing is persisted. All methods are synchronized; cursors work on a copy of their rows.
+ */
+public class MemoryArtifactStore implements ArtifactStore, StoreSchema, ApplicationConstants {
+
+	private static final String [] LISTING_COLUMNS = {
+		LOC_ART_FIELDS[FK_ART_ID], LOC_ART_FIELDS[FK_LOC_ID], ART_FIELDS[ART_NAME], ART_FIELDS[ART_DATA],
+		LOC_FIELDS[LOC_NAME], LOC_FIELDS[LOC_LATITUDE], LOC_FIELDS[LOC_LONGITUDE]
+	};
+
+	private static final class ArtifactRecord {
+
+		final long id;
+		String name;
+		String data;
+		final List<Association> associations = new ArrayList<Association>(1);
+
+		ArtifactRecord(long id, String name, String data) {
+
+			this.id = id;
+			this.name = name;
+			this.data = data;
+		}
+	}
+
+	private static final class LocationRecord {
+
+		final long id;
+		String name;
+		double latitude;
+		double longitude;
+		int radius = 0;
+		final List<Association> associations = new ArrayList<Association>(1);
+
+		LocationRecord(long id, String name, double latitude, double longitude) {
+
+			this.id = id;
+			this.name = name;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+	}
+
+	private static final class Association {
+
+		final ArtifactRecord artifact;
+		final LocationRecord location;
+
+		Association(ArtifactRecord artifact, LocationRecord location) {
+
+			this.artifact = artifact;
+			this.location = location;
+		}
+	}
+
+	// Same order as DbAdapter.select(): location name, artifact name, artifact ID
+	private static final Comparator<Association> LISTING_ORDER = new Comparator<Association>() {
+
+		public int compare(Association association, Association otherAssociation) {
+
+			int result = association.location.name.compareTo(otherAssociation.location.name);
+
+			if(0 == result) {
+
+				result = association.artifact.name.compareTo(otherAssociation.artifact.name);
+			}
+
+			if(0 == result) {
+
+				result = compareIds(association.artifact.id, otherAssociation.artifact.id);
+			}
+
+			return (0 == result) ? compareIds(association.location.id, otherAssociation.location.id) : result;
+		}
+	};
+
+	private static final Comparator<LocationRecord> COORDINATE_ORDER = new Comparator<LocationRecord>() {
+
+		public int compare(LocationRecord location, LocationRecord otherLocation) {
+
+			int result = Double.compare(location.latitude, otherLocation.latitude);
+
+			if(0 == result) {
+
+				result = Double.compare(location.longitude, otherLocation.longitude);
+			}
+
+			return (0 == result) ? compareIds(location.id, otherLocation.id) : result;
+		}
+	};
+
+	private final HashMap<Long, ArtifactRecord> artifactsById = new HashMap<Long, ArtifactRecord>();
+	private final HashMap<String, List<ArtifactRecord>> artifactsByName = new HashMap<String, List<ArtifactRecord>>();
+	private final HashMap<Long, LocationRecord> locationsById = new HashMap<Long, LocationRecord>();
+	private final TreeMap<String, List<LocationRecord>> locationsByName = new TreeMap<String, List<LocationRecord>>();
+	private final TreeSet<LocationRecord> locationsByCoordinates = new TreeSet<LocationRecord>(COORDINATE_ORDER);
+	private final TreeSet<Association> listing = new TreeSet<Association>(LISTING_ORDER);
+
+	private long nextArtifactId = 1;
+	private long nextLocationId = 1;
+	private long dataVersion = 1;
+	private LocationSnapshot locationSnapshot = null;
+
+	// API method
+	public synchronized byte insert(String locationName, String latitude, String longitude, String artifactName, String artifactData) {
+
+		byte returnStatus = DEFAULT_MASK;
+
+		if(null == latitude || null == longitude) {
+
+			returnStatus |= CREATE_ARTIFACT_LOCATION_ERROR;
+			return returnStatus;
+		}
+
+		try {
+
+			returnStatus = insertRow(locationName, Double.parseDouble(latitude.trim()), Double.parseDouble(longitude.trim()), artifactName, artifactData);
+		}
+		catch(NumberFormatException e) {
+
+			returnStatus |= CREATE_ARTIFACT_LOCATION_ERROR;
+		}
+
+		return returnStatus;
+	}
+
+	/*
+	 * The rows are applied one at a time, so the batch size has no effect
+	 */
+	public synchronized ImportResult bulkInsert(Iterator<String[]> rows, int batchSize) {
+
+		ImportResult result = new ImportResult();
+		long startTime = System.currentTimeMillis();
+
+		while(rows.hasNext()) {
+
+			String[] row = rows.next();
+			byte returnStatus = DEFAULT_MASK;
+
+			if(null == row || row.length < IMPORT_FIELDS.length || null == row[IMPORT_ART_NAME] || 0 == row[IMPORT_ART_NAME].trim().length()) {
+
+				returnStatus |= ARTIFACT_NAME_ERROR;
+			}
+			else if(null == row[IMPORT_LOC_NAME] || 0 == row[IMPORT_LOC_NAME].trim().length()) {
+
+				returnStatus |= LOCATION_NAME_ERROR;
+			}
+			else if(null == row[IMPORT_LOC_LATITUDE] || null == row[IMPORT_LOC_LONGITUDE]) {
+
+				returnStatus |= CREATE_ARTIFACT_LOCATION_ERROR;
+			}
+			else {
+
+				returnStatus = insert(row[IMPORT_LOC_NAME], row[IMPORT_LOC_LATITUDE], row[IMPORT_LOC_LONGITUDE],
+						row[IMPORT_ART_NAME], row[IMPORT_ART_DATA]);
+			}
+
+			result.addRowStatus(returnStatus);
+		}
+
+		result.setElapsedTime(System.currentTimeMillis() - startTime);
+
+		return result;
+	}
+
+	// API method
+	public synchronized int deleteArtifact(String artifactId, String locationId) {
+
+		Association association = getAssociation(getArtifact(artifactId), getLocation(locationId));
+
+		if(null == association) {
+
+			return -1;
+		}
+
+		removeAssociation(association);
+
+		// Only delete artifact if it's not referenced by a location
+		if(association.artifact.associations.isEmpty()) {
+
+			artifactsById.remove(Long.valueOf(association.artifact.id));
+			removeFromNameIndex(artifactsByName, association.artifact.name, association.artifact);
+		}
+
+		dataVersion++;
+		return 1;
+	}
+
+	// API method
+	public synchronized int deleteLocation(String locationId) {
+
+		LocationRecord location = getLocation(locationId);
+
+		if(null != location && !location.associations.isEmpty()) {
+
+			return 0;
+		}
+
+		if(null == location) {
+
+			return -1;
+		}
+
+		locationsById.remove(Long.valueOf(location.id));
+		removeFromNameIndex(locationsByName, location.name, location);
+		locationsByCoordinates.remove(location);
+		dataVersion++;
+
+		return 1;
+	}
+
+	// API method
+	public synchronized int updateArtifact(String artifactId, String artifactName, String artifactData, String locationId, String locationName) {
+
+		ArtifactRecord artifact = getArtifact(artifactId);
+		LocationRecord location = getLocation(locationId);
+
+		// We don't allow duplicate artifacts at the same location
+		if(null != location && location.name.equals(locationName)) {
+
+			for(Association association : location.associations) {
+
+				if(association.artifact.name.equals(artifactName)) {
+
+					return -1;
+				}
+			}
+		}
+
+		// The location name can't change to the name of another location
+		List<LocationRecord> namedLocations = locationsByName.get(locationName);
+
+		if(null != namedLocations && (namedLocations.size() > 1 || namedLocations.get(0) != location)) {
+
+			return -4;
+		}
+
+		if(null != artifact) {
+
+			setArtifactName(artifact, artifactName);
+			artifact.data = artifactData;
+		}
+
+		if(null != location) {
+
+			setLocationName(location, locationName);
+		}
+
+		if(null != artifact || null != location) {
+
+			dataVersion++;
+		}
+
+		return ((null != artifact && null != location) ? 1 : -2);
+	}
+
+	// API method
+	public synchronized int updateArtifactData(String artifactId, String artifactData) {
+
+		ArtifactRecord artifact = getArtifact(artifactId);
+
+		if(null == artifact) {
+
+			return -1;
+		}
+
+		artifact.data = artifactData;
+		dataVersion++;
+
+		return 1;
+	}
+
+	// API method
+	public synchronized int updateArtifactData(Map<String, String> artifactData) {
+
+		int numberArtRowsAffected = 0;
+
+		for(Map.Entry<String, String> update : artifactData.entrySet()) {
+
+			ArtifactRecord artifact = getArtifact(update.getKey());
+
+			if(null != artifact) {
+
+				artifact.data = update.getValue();
+				numberArtRowsAffected++;
+			}
+		}
+
+		if(0 < numberArtRowsAffected) {
+
+			dataVersion++;
+		}
+
+		return numberArtRowsAffected;
+	}
+
+	// API method
+	public synchronized boolean hasArtifact(String artifactId) {
+
+		return null != getArtifact(artifactId);
+	}
+
+	// API method
+	public synchronized int updateLocation(String locationId, String locationName, String locationLat, String locationLng) {
+
+		if(locationsByName.containsKey(locationName)) {
+
+			return -1;
+		}
+
+		LocationRecord location = getLocation(locationId);
+
+		if(null == location) {
+
+			return -2;
+		}
+
+		setLocationName(location, locationName);
+		dataVersion++;
+
+		return 1;
+	}
+
+	// API method
+	public synchronized int updateLocation(String locationId, String locationName, String locationLat, String locationLng, String locationRadius) {
+
+		int radius = 0;
+
+		if(null != locationRadius && 0 < locationRadius.trim().length()) {
+
+			try {
+
+				radius = Integer.parseInt(locationRadius.trim());
+			}
+			catch(NumberFormatException e) {
+
+				return -2;
+			}
+
+			if(radius <= 0) {
+
+				return -2;
+			}
+		}
+
+		LocationRecord location = getLocation(locationId);
+
+		if(null == location || null == locationName) {
+
+			return -2;
+		}
+
+		List<LocationRecord> namedLocations = locationsByName.get(locationName);
+
+		if(null != namedLocations && (1 < namedLocations.size() || namedLocations.get(0) != location)) {
+
+			return -1;
+		}
+
+		setLocationName(location, locationName);
+		location.radius = radius;
+		dataVersion++;
+
+		return 1;
+	}
+
+	// API method
+	public synchronized int updateLocationCoodinates(String locationId, String locationName, String locationLat, String locationLng) {
+
+		double lat = 0.0d;
+		double lng = 0.0d;
+
+		if(null == locationLat || null == locationLng) {
+
+			return -2;
+		}
+
+		try {
+
+			lat = Double.parseDouble(locationLat.trim());
+			lng = Double.parseDouble(locationLng.trim());
+		}
+		catch(NumberFormatException e) {
+
+			return -2;
+		}
+
+		if(null != getLocation(lat, lng)) {
+
+			return -1;
+		}
+
+		LocationRecord location = getLocation(locationId);
+
+		if(null == location || null == locationName) {
+
+			return -2;
+		}
+
+		setLocationName(location, locationName);
+
+		// The coordinates are part of the sort key
+		locationsByCoordinates.remove(location);
+		location.latitude = lat;
+		location.longitude = lng;
+		locationsByCoordinates.add(location);
+		dataVersion++;
+
+		return 1;
+	}
+
+	// API method
+	public synchronized boolean hasArtifactsAtLocation(String locId) {
+
+		LocationRecord location = getLocation(locId);
+		return null != location && !location.associations.isEmpty();
+	}
+
+	// API method
+	public synchronized StoreCursor select(String artifactId, String locationId) {
+
+		List<Object[]> rows = new ArrayList<Object[]>(1);
+		Association association = getAssociation(getArtifact(artifactId), getLocation(locationId));
+
+		if(null != association) {
+
+			rows.add(getListingRow(association));
+		}
+
+		return new MemoryStoreCursor(LISTING_COLUMNS, rows);
+	}
+
+	// API method
+	public synchronized StoreCursor select() {
+
+		return selectPage(null, null, -1, Integer.MAX_VALUE);
+	}
+
+	// API method
+	public synchronized StoreCursor selectPage(String afterLocationName, String afterArtifactName, long afterArtifactId, int pageSize) {
+
+		Iterable<Association> associations = listing;
+		Association after = null;
+
+		if(null != afterLocationName) {
+
+			// The probe sorts after all the rows with the provided key. SortedSet.tailSet() includes an equal row, which is skipped below
+			after = new Association(new ArtifactRecord(afterArtifactId, afterArtifactName, null), new LocationRecord(Long.MAX_VALUE, afterLocationName, 0.0d, 0.0d));
+			associations = listing.tailSet(after);
+		}
+
+		List<Object[]> rows = new ArrayList<Object[]>();
+
+		for(Association association : associations) {
+
+			if(rows.size() >= pageSize) {
+
+				break;
+			}
+
+			if(null != after && 0 == LISTING_ORDER.compare(association, after)) {
+
+				continue;
+			}
+
+			rows.add(getListingRow(association));
+		}
+
+		return new MemoryStoreCursor(LISTING_COLUMNS, rows);
+	}
+
+	// API method
+	public synchronized StoreCursor select(long[] artifactIds) {
+
+		TreeSet<Association> associations = new TreeSet<Association>(LISTING_ORDER);
+
+		for(long artifactId : artifactIds) {
+
+			ArtifactRecord artifact = artifactsById.get(Long.valueOf(artifactId));
+
+			if(null != artifact) {
+
+				associations.addAll(artifact.associations);
+			}
+		}
+
+		return getListingCursor(associations);
+	}
+
+	// API method
+	public synchronized StoreCursor selectAtLocations(long[] locationIds) {
+
+		TreeSet<Association> associations = new TreeSet<Association>(LISTING_ORDER);
+
+		for(long locationId : locationIds) {
+
+			LocationRecord location = locationsById.get(Long.valueOf(locationId));
+
+			if(null != location) {
+
+				associations.addAll(location.associations);
+			}
+		}
+
+		return getListingCursor(associations);
+	}
+
+	// API method
+	public synchronized StoreCursor getLocations() {
+
+		List<Object[]> rows = new ArrayList<Object[]>(locationsById.size());
+
+		for(List<LocationRecord> namedLocations : locationsByName.values()) {
+
+			for(LocationRecord location : namedLocations) {
+
+				rows.add(getLocationRow(location));
+			}
+		}
+
+		return new MemoryStoreCursor(LOC_FIELDS, rows);
+	}
+
+	/*
+	 * Same rows as the DbAdapter bounding box query, read from the sorted coordinate index.
+	 * A box that crosses the anti-meridian is read as two boxes.
+	 */
+	public synchronized StoreCursor getLocations(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+
+		List<Object[]> rows = new ArrayList<Object[]>();
+
+		if(minLongitude <= maxLongitude) {
+
+			addLocationsInBox(rows, minLatitude, minLongitude, maxLatitude, maxLongitude);
+		}
+		else {
+
+			addLocationsInBox(rows, minLatitude, minLongitude, maxLatitude, 180.0d);
+			addLocationsInBox(rows, minLatitude, -180.0d, maxLatitude, maxLongitude);
+		}
+
+		return new MemoryStoreCursor(LOC_FIELDS, rows);
+	}
+
+	// API method
+	public StoreCursor getLocationsNear(double latitude, double longitude, double radiusInMeters) {
+
+		double[] boundingBox = LocationSnapshot.getBoundingBox(latitude, longitude, radiusInMeters);
+		return getLocations(boundingBox[0], boundingBox[1], boundingBox[2], boundingBox[3]);
+	}
+
+	/*
+	 * Same matching and ranking as the DbAdapter full-text search, but computed by scanning
+	 * all the artifacts. Like the FTS simple tokenizer, words are runs of ASCII letters and
+	 * digits or non-ASCII characters, and only ASCII letters are case folded.
+	 */
+	public synchronized long[] searchArtifacts(String query, int limit) {
+
+		List<String> terms = ArtifactSearchRanking.getSearchTerms(query);
+
+		if(terms.isEmpty() || limit < 1) {
+
+			return new long[0];
+		}
+
+		String[] foldedTerms = new String[terms.size()];
+
+		for(int i = 0; i < foldedTerms.length; i++) {
+
+			foldedTerms[i] = foldAsciiCase(terms.get(i));
+		}
+
+		PriorityQueue<long[]> bestMatches = new PriorityQueue<long[]>(limit + 1, ArtifactSearchRanking.SEARCH_MATCH_ORDER);
+
+		for(ArtifactRecord artifact : artifactsById.values()) {
+
+			List<String> nameWords = getSearchWords(artifact.name);
+			List<String> dataWords = getSearchWords(artifact.data);
+			long score = 0;
+			boolean isMatch = true;
+
+			for(int i = 0; i < foldedTerms.length && isMatch; i++) {
+
+				int nameMatches = countPrefixMatches(nameWords, foldedTerms[i]);
+				int dataMatches = countPrefixMatches(dataWords, foldedTerms[i]);
+
+				isMatch = 0 < nameMatches + dataMatches;
+				score += (nameMatches * ArtifactSearchRanking.SEARCH_COLUMN_WEIGHTS[0]) + (dataMatches * ArtifactSearchRanking.SEARCH_COLUMN_WEIGHTS[1]);
+			}
+
+			if(isMatch) {
+
+				bestMatches.add(new long[] {score, artifact.id});
+
+				if(bestMatches.size() > limit) {
+
+					bestMatches.poll();
+				}
+			}
+		}
+
+		return ArtifactSearchRanking.getArtifactIds(bestMatches);
+	}
+
+	// API method
+	public boolean isReady() {
+
+		return true;
+	}
+
+	// API method
+	public synchronized long getDataVersion() {
+
+		return dataVersion;
+	}
+
+	/*
+	 * The snapshot is rebuilt from the coordinate index, which is already sorted by latitude
+	 */
+	public synchronized LocationSnapshot getLocationSnapshot() {
+
+		if(null != locationSnapshot && locationSnapshot.getDataVersion() == dataVersion) {
+
+			return locationSnapshot;
+		}
+
+		int size = locationsByCoordinates.size();
+		long[] ids = new long[size];
+		double[] latitudes = new double[size];
+		double[] longitudes = new double[size];
+		boolean[] hasArtifacts = new boolean[size];
+		int[] radii = new int[size];
+		int i = 0;
+
+		for(LocationRecord location : locationsByCoordinates) {
+
+			ids[i] = location.id;
+			latitudes[i] = location.latitude;
+			longitudes[i] = location.longitude;
+			hasArtifacts[i] = !location.associations.isEmpty();
+			radii[i] = location.radius;
+			i++;
+		}
+
+		locationSnapshot = new LocationSnapshot(dataVersion, ids, latitudes, longitudes, hasArtifacts, radii);
+		return locationSnapshot;
+	}
+
+	/*
+	 * Helper method that inserts one artifact/location row like DbAdapter.insert()
+	 */
+	private byte insertRow(String locationName, double latitude, double longitude, String artifactName, String artifactData) {
+
+		byte returnStatus = DEFAULT_MASK;
+
+		if(null == locationName || null == artifactName) {
+
+			returnStatus |= CREATE_ARTIFACT_LOCATION_ERROR;
+			return returnStatus;
+		}
+
+		// A location name can't be used for different coordinates
+		List<LocationRecord> namedLocations = locationsByName.get(locationName);
+
+		if(null != namedLocations) {
+
+			for(LocationRecord namedLocation : namedLocations) {
+
+				if(namedLocation.latitude != latitude || namedLocation.longitude != longitude) {
+
+					returnStatus |= CHOOSE_DIFFERENT_LOC_NAME;
+					return returnStatus;
+				}
+			}
+		}
+
+		// Reuse an existing location and artifact
+		LocationRecord location = getLocation(latitude, longitude);
+		List<ArtifactRecord> namedArtifacts = artifactsByName.get(artifactName);
+		ArtifactRecord artifact = (null == namedArtifacts) ? null : namedArtifacts.get(0);
+
+		if(null != getAssociation(artifact, location)) {
+
+			returnStatus |= USING_EXISTING_ARTIFACT;
+			returnStatus |= USING_EXISTING_LOCATION;
+			return returnStatus;
+		}
+
+		if(null == location) {
+
+			location = new LocationRecord(nextLocationId++, locationName, latitude, longitude);
+			locationsById.put(Long.valueOf(location.id), location);
+			addToNameIndex(locationsByName, locationName, location);
+			locationsByCoordinates.add(location);
+		}
+
+		if(null == artifact) {
+
+			artifact = new ArtifactRecord(nextArtifactId++, artifactName, artifactData);
+			artifactsById.put(Long.valueOf(artifact.id), artifact);
+			addToNameIndex(artifactsByName, artifactName, artifact);
+		}
+
+		Association association = new Association(artifact, location);
+		artifact.associations.add(association);
+		location.associations.add(association);
+		listing.add(association);
+		dataVersion++;
+
+		return returnStatus;
+	}
+
+	/*
+	 * Helper method that looks up an artifact by its ID string
+	 */
+	private ArtifactRecord getArtifact(String artifactId) {
+
+		if(null == artifactId) {
+
+			return null;
+		}
+
+		try {
+
+			return artifactsById.get(Long.valueOf(artifactId.trim()));
+		}
+		catch(NumberFormatException e) {
+
+			return null;
+		}
+	}
+
+	/*
+	 * Helper method that looks up a location by its ID string
+	 */
+	private LocationRecord getLocation(String locationId) {
+
+		if(null == locationId) {
+
+			return null;
+		}
+
+		try {
+
+			return locationsById.get(Long.valueOf(locationId.trim()));
+		}
+		catch(NumberFormatException e) {
+
+			return null;
+		}
+	}
+
+	/*
+	 * Helper method that looks up a location by its exact coordinates
+	 */
+	private LocationRecord getLocation(double latitude, double longitude) {
+
+		Iterator<LocationRecord> locations = locationsByCoordinates.tailSet(new LocationRecord(Long.MIN_VALUE, null, latitude, longitude)).iterator();
+
+		if(!locations.hasNext()) {
+
+			return null;
+		}
+
+		LocationRecord location = locations.next();
+
+		if(location.latitude == latitude && location.longitude == longitude) {
+
+			return location;
+		}
+
+		return null;
+	}
+
+	/*
+	 * Helper method that adds the rows of the locations within one longitude range of a bounding box
+	 */
+	private void addLocationsInBox(List<Object[]> rows, double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+
+		for(LocationRecord location : locationsByCoordinates.tailSet(new LocationRecord(Long.MIN_VALUE, null, minLatitude, Double.NEGATIVE_INFINITY))) {
+
+			if(location.latitude > maxLatitude) {
+
+				break;
+			}
+
+			if(minLongitude <= location.longitude && location.longitude <= maxLongitude) {
+
+				rows.add(getLocationRow(location));
+			}
+		}
+	}
+
+	/*
+	 * Helper method that builds a location row in LOC_FIELDS order
+	 */
+	private static Object[] getLocationRow(LocationRecord location) {
+
+		return new Object[] {Long.valueOf(location.id), location.name, Double.valueOf(location.latitude), Double.valueOf(location.longitude), (0 == location.radius) ? null : Integer.valueOf(location.radius)};
+	}
+
+	/*
+	 * Helper method that returns the relationship of the provided artifact and location, if any
+	 */
+	private static Association getAssociation(ArtifactRecord artifact, LocationRecord location) {
+
+		if(null == artifact || null == location) {
+
+			return null;
+		}
+
+		for(Association association : artifact.associations) {
+
+			if(association.location == location) {
+
+				return association;
+			}
+		}
+
+		return null;
+	}
+
+	/*
+	 * Helper method that removes a relationship from all the indexes
+	 */
+	private void removeAssociation(Association association) {
+
+		listing.remove(association);
+		association.artifact.associations.remove(association);
+		association.location.associations.remove(association);
+	}
+
+	/*
+	 * Helper method that renames an artifact. The name is part of the listing sort key, so its
+	 * relationships are removed from the listing index while it changes.
+	 */
+	private void setArtifactName(ArtifactRecord artifact, String name) {
+
+		if(artifact.name.equals(name)) {
+
+			return;
+		}
+
+		listing.removeAll(artifact.associations);
+		removeFromNameIndex(artifactsByName, artifact.name, artifact);
+		artifact.name = name;
+		addToNameIndex(artifactsByName, name, artifact);
+		listing.addAll(artifact.associations);
+	}
+
+	/*
+	 * Helper method that renames a location, see setArtifactName()
+	 */
+	private void setLocationName(LocationRecord location, String name) {
+
+		if(location.name.equals(name)) {
+
+			return;
+		}
+
+		listing.removeAll(location.associations);
+		removeFromNameIndex(locationsByName, location.name, location);
+		location.name = name;
+		addToNameIndex(locationsByName, name, location);
+		listing.addAll(location.associations);
+	}
+
+	/*
+	 * Helper method that returns a cursor over the provided relationships
+	 */
+	private static StoreCursor getListingCursor(Iterable<Association> associations) {
+
+		List<Object[]> rows = new ArrayList<Object[]>();
+
+		for(Association association : associations) {
+
+			rows.add(getListingRow(association));
+		}
+
+		return new MemoryStoreCursor(LISTING_COLUMNS, rows);
+	}
+
+	/*
+	 * Helper method that builds a listing row in LISTING_COLUMNS order
+	 */
+	private static Object[] getListingRow(Association association) {
+
+		return new Object[] {
+			Long.valueOf(association.artifact.id), Long.valueOf(association.location.id), association.artifact.name, association.artifact.data,
+			association.location.name, Double.valueOf(association.location.latitude), Double.valueOf(association.location.longitude)
+		};
+	}
+
+	private static <T> void addToNameIndex(Map<String, List<T>> index, String name, T record) {
+
+		List<T> records = index.get(name);
+
+		if(null == records) {
+
+			records = new ArrayList<T>(1);
+			index.put(name, records);
+		}
+
+		records.add(record);
+	}
+
+	private static <T> void removeFromNameIndex(Map<String, List<T>> index, String name, T record) {
+
+		List<T> records = index.get(name);
+
+		if(null != records) {
+
+			records.remove(record);
+
+			if(records.isEmpty()) {
+
+				index.remove(name);
+			}
+		}
+	}
+
+	/*
+	 * Helper method that splits text into case folded search words
+	 */
+	private static List<String> getSearchWords(String text) {
+
+		List<String> words = new ArrayList<String>();
+
+		if(null == text) {
+
+			return words;
+		}
+
+		int start = -1;
+
+		for(int i = 0; i <= text.length(); i++) {
+
+			char c = (i < text.length()) ? text.charAt(i) : ' ';
+			boolean isWordChar = c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+
+			if(isWordChar && -1 == start) {
+
+				start = i;
+			}
+			else if(!isWordChar && -1 != start) {
+
+				words.add(foldAsciiCase(text.substring(start, i)));
+				start = -1;
+			}
+		}
+
+		return words;
+	}
+
+	private static int countPrefixMatches(List<String> words, String prefix) {
+
+		int matches = 0;
+
+		for(String word : words) {
+
+			if(word.startsWith(prefix)) {
+
+				matches++;
+			}
+		}
+
+		return matches;
+	}
+
+	private static String foldAsciiCase(String text) {
+
+		StringBuilder folded = new StringBuilder(text.length());
+
+		for(int i = 0; i < text.length(); i++) {
+
+			char c = text.charAt(i);
+			folded.append((c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : c);
+		}
+
+		return folded.toString();
+	}
+
+	private static int compareIds(long id, long otherId) {
+
+		return (id < otherId) ? -1 : ((id == otherId) ? 0 : 1);
+	}
+}
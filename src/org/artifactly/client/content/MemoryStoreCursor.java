@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import java.util.List;
+
+/*
+ * StoreCursor over rows that are already in memory. The rows are not copied.
+ */
+class MemoryStoreCursor implements StoreCursor {
+
+	private final String[] columnNames;
+	private final List<Object[]> rows;
+	private int position = -1;
+
+	MemoryStoreCursor(String[] columnNames, List<Object[]> rows) {
+
+		this.columnNames = columnNames;
+		this.rows = rows;
+	}
+
+	public int getCount() {
+
+		return rows.size();
+	}
+
+	public boolean moveToFirst() {
+
+		return moveToPosition(0);
+	}
+
+	public boolean moveToLast() {
+
+		return moveToPosition(rows.size() - 1);
+	}
+
+	public boolean moveToNext() {
+
+		return moveToPosition(position + 1);
+	}
+
+	public boolean isAfterLast() {
+
+		return 0 == rows.size() || position >= rows.size();
+	}
+
+	public int getColumnIndex(String columnName) {
+
+		for(int i = 0; i < columnNames.length; i++) {
+
+			if(columnNames[i].equals(columnName)) {
+
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	public int getInt(int columnIndex) {
+
+		Object value = getValue(columnIndex);
+		return (null == value) ? 0 : ((Number)value).intValue();
+	}
+
+	public long getLong(int columnIndex) {
+
+		Object value = getValue(columnIndex);
+		return (null == value) ? 0 : ((Number)value).longValue();
+	}
+
+	public double getDouble(int columnIndex) {
+
+		Object value = getValue(columnIndex);
+		return (null == value) ? 0.0d : ((Number)value).doubleValue();
+	}
+
+	public String getString(int columnIndex) {
+
+		Object value = getValue(columnIndex);
+		return (null == value) ? null : value.toString();
+	}
+
+	public void close() {
+
+		position = rows.size();
+	}
+
+	/*
+	 * Helper method that moves to the provided row, or before the first or after the last row
+	 */
+	private boolean moveToPosition(int newPosition) {
+
+		if(newPosition < 0) {
+
+			position = -1;
+			return false;
+		}
+
+		if(newPosition >= rows.size()) {
+
+			position = rows.size();
+			return false;
+		}
+
+		position = newPosition;
+		return true;
+	}
+
+	/*
+	 * Helper method that returns the value at the provided column of the current row
+	 */
+	private Object getValue(int columnIndex) {
+
+		if(position < 0 || position >= rows.size()) {
+
+			throw new IndexOutOfBoundsException("Row " + position + " of " + rows.size());
+		}
+
+		return rows.get(position)[columnIndex];
+	}
+}
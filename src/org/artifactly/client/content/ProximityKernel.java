@@ -0,0 +1,193 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+/*
+ * Checks whether locations lie within a radius of a center point. The center is converted
+ * to radians once, and the radius to the haversine of its central angle, so a check is the
+ * haversine identity hav(d) = hav(dLat) + cos(lat1) cos(lat2) hav(dLng) compared against
+ * that threshold, without any asin or sqrt. Before the exact check, the equirectangular
+ * estimate dLat^2 + cos(lat1) cos(lat2) dLng^2 bounds hav(d) from above and below using
+ * multiplications only, which settles almost every location without calling sin.
+ * 
+ * Distances are on a sphere with the mean Earth radius. They differ from the WGS84 ellipsoid
+ * distances of Location.distanceBetween() by at most about 0.6%, along the meridian near the equator.
+ */
+public final class ProximityKernel {
+
+	// Mean Earth radius
+	private static final double EARTH_RADIUS_METERS = 6371008.8d;
+
+	private static final double TWO_PI = 2.0d * Math.PI;
+
+	private final double latitude;
+	private final double longitude;
+	private final double cosLatitude;
+	private final int radiusInMeters;
+
+	// Haversine of the radius' central angle
+	private final double haversineRadius;
+
+	public ProximityKernel(double latitudeDegrees, double longitudeDegrees, int radiusInMeters) {
+
+		this.latitude = Math.toRadians(latitudeDegrees);
+		this.longitude = Math.toRadians(longitudeDegrees);
+		this.cosLatitude = Math.cos(latitude);
+		this.radiusInMeters = radiusInMeters;
+		this.haversineRadius = toHaversine(radiusInMeters);
+	}
+
+	public int getRadiusInMeters() {
+
+		return radiusInMeters;
+	}
+
+	/*
+	 * Whether the location with the provided coordinates in radians, and cosine of its latitude,
+	 * lies within the radius. See LocationSnapshot for precomputed values.
+	 */
+	public boolean isWithinRadius(double latitudeRadians, double longitudeRadians, double cosLatitudeRadians) {
+
+		return isWithinRadius(latitudeRadians, longitudeRadians, cosLatitudeRadians, haversineRadius);
+	}
+
+	/*
+	 * Same as above, but for another radius, given as the haversine of its central angle. See toHaversine().
+	 */
+	public boolean isWithinRadius(double latitudeRadians, double longitudeRadians, double cosLatitudeRadians, double haversineRadius) {
+
+		double latitudeDelta = latitudeRadians - latitude;
+		double longitudeDelta = Math.abs(longitudeRadians - longitude);
+
+		// Wrap around the anti-meridian, so that the delta is in [0, PI]
+		if(longitudeDelta > Math.PI) {
+
+			longitudeDelta = TWO_PI - longitudeDelta;
+		}
+
+		double cosProduct = cosLatitude * cosLatitudeRadians;
+		double latitudeDeltaSquared = latitudeDelta * latitudeDelta;
+		double longitudeDeltaSquared = longitudeDelta * longitudeDelta;
+
+		/*
+		 * With x/2 - (x/2)^3/6 <= sin(x/2) <= x/2, hav(x) lies between (x^2/4)(1 - x^2/12) and x^2/4.
+		 * The lower bound holds for |x| <= PI, which both deltas are.
+		 */
+		double upperBound = (latitudeDeltaSquared + cosProduct * longitudeDeltaSquared) / 4.0d;
+
+		if(upperBound <= haversineRadius) {
+
+			return true;
+		}
+
+		double lowerBound = (latitudeDeltaSquared * (1.0d - latitudeDeltaSquared / 12.0d) + cosProduct * longitudeDeltaSquared * (1.0d - longitudeDeltaSquared / 12.0d)) / 4.0d;
+
+		if(lowerBound > haversineRadius) {
+
+			return false;
+		}
+
+		return getHaversine(latitudeRadians, longitudeRadians, cosLatitudeRadians) <= haversineRadius;
+	}
+
+	/*
+	 * Haversine of the central angle between the center and the location with the provided
+	 * coordinates in radians, and cosine of its latitude. It grows with the distance, so it
+	 * can be compared in place of the distance.
+	 */
+	public double getHaversine(double latitudeRadians, double longitudeRadians, double cosLatitudeRadians) {
+
+		double sinHalfLatitudeDelta = Math.sin((latitudeRadians - latitude) / 2.0d);
+		double sinHalfLongitudeDelta = Math.sin((longitudeRadians - longitude) / 2.0d);
+
+		return sinHalfLatitudeDelta * sinHalfLatitudeDelta + cosLatitude * cosLatitudeRadians * sinHalfLongitudeDelta * sinHalfLongitudeDelta;
+	}
+
+	/*
+	 * Lower bound of the haversine of the provided latitude difference in radians, and thus of
+	 * the haversine of any location at that latitude difference
+	 */
+	public static double getMinHaversine(double latitudeDelta) {
+
+		double latitudeDeltaSquared = latitudeDelta * latitudeDelta;
+
+		return latitudeDeltaSquared * (1.0d - latitudeDeltaSquared / 12.0d) / 4.0d;
+	}
+
+	/*
+	 * Haversine of the radius' central angle
+	 */
+	public double getHaversineRadius() {
+
+		return haversineRadius;
+	}
+
+	/*
+	 * Center latitude in radians
+	 */
+	public double getLatitudeRadians() {
+
+		return latitude;
+	}
+
+	/*
+	 * Center longitude in radians
+	 */
+	public double getLongitudeRadians() {
+
+		return longitude;
+	}
+
+	/*
+	 * Converts a distance in meters to the haversine of its central angle
+	 */
+	public static double toHaversine(double meters) {
+
+		double angle = Math.min(Math.PI, Math.max(0.0d, meters / EARTH_RADIUS_METERS));
+		double sinHalfAngle = Math.sin(angle / 2.0d);
+
+		return sinHalfAngle * sinHalfAngle;
+	}
+
+	/*
+	 * Converts a haversine to the distance in meters
+	 */
+	public static double toMeters(double haversine) {
+
+		return 2.0d * EARTH_RADIUS_METERS * Math.asin(Math.sqrt(Math.min(1.0d, Math.max(0.0d, haversine))));
+	}
+
+	/*
+	 * Distance in meters between the center and the location with the provided coordinates in degrees
+	 */
+	public double getDistanceDegrees(double latitudeDegrees, double longitudeDegrees) {
+
+		double latitudeRadians = Math.toRadians(latitudeDegrees);
+
+		return toMeters(getHaversine(latitudeRadians, Math.toRadians(longitudeDegrees), Math.cos(latitudeRadians)));
+	}
+
+	/*
+	 * Whether the location with the provided coordinates in degrees lies within the radius
+	 */
+	public boolean isWithinRadiusDegrees(double latitudeDegrees, double longitudeDegrees) {
+
+		double latitudeRadians = Math.toRadians(latitudeDegrees);
+
+		return isWithinRadius(latitudeRadians, Math.toRadians(longitudeDegrees), Math.cos(latitudeRadians));
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/*
+ * One versioned schema migration step. A step prepares the schema, optionally copies
+ * the rows of a source table in rowid ordered chunks, and then finishes the schema.
+ * Each of these runs in its own transaction, see SchemaMigrator.
+ */
+class SchemaMigration {
+
+	final int version;
+	final String name;
+
+	// Deferrable steps only have their schema prepared before the database is used, the copy runs in the background
+	final boolean isDeferrable;
+
+	private final String[] prepareSql;
+	private final String sourceTable;
+	private final String copySql;
+	private final String[] finishSql;
+
+	/*
+	 * The copy SQL selects the source table rows with a rowid in the (?, ?] range that it is bound to.
+	 * The source table and copy SQL are null for steps that only change the schema.
+	 */
+	SchemaMigration(int version, String name, boolean isDeferrable, String[] prepareSql, String sourceTable, String copySql, String[] finishSql) {
+
+		this.version = version;
+		this.name = name;
+		this.isDeferrable = isDeferrable;
+		this.prepareSql = prepareSql;
+		this.sourceTable = sourceTable;
+		this.copySql = copySql;
+		this.finishSql = finishSql;
+	}
+
+	/*
+	 * Prepare the schema. Returns false if the step can't be applied on this device, in
+	 * which case it is skipped.
+	 */
+	boolean prepare(SQLiteDatabase db) {
+
+		execute(db, prepareSql);
+		return true;
+	}
+
+	/*
+	 * The highest source table rowid that the step needs to copy. Rows that are added later
+	 * are expected to be handled by the prepared schema, e.g. by triggers.
+	 */
+	long getMaxRowId(SQLiteDatabase db) {
+
+		if(null == sourceTable) {
+
+			return -1;
+		}
+
+		SQLiteStatement statement = db.compileStatement("select ifnull(max(rowid), -1) from " + sourceTable);
+
+		try {
+
+			return statement.simpleQueryForLong();
+		}
+		finally {
+
+			statement.close();
+		}
+	}
+
+	/*
+	 * Returns the last rowid of the next chunk of source table rows after lastRowId, or
+	 * lastRowId if there are no more rows to copy
+	 */
+	long getChunkEnd(SQLiteDatabase db, long lastRowId, long maxRowId, int chunkSize) {
+
+		if(null == sourceTable || lastRowId >= maxRowId) {
+
+			return lastRowId;
+		}
+
+		SQLiteStatement statement = db.compileStatement("select ifnull(max(id), ?) from (select rowid as id from " + sourceTable
+				+ " where rowid > ? and rowid <= ? order by rowid limit " + chunkSize + ")");
+
+		try {
+
+			statement.bindLong(1, lastRowId);
+			statement.bindLong(2, lastRowId);
+			statement.bindLong(3, maxRowId);
+			return statement.simpleQueryForLong();
+		}
+		finally {
+
+			statement.close();
+		}
+	}
+
+	/*
+	 * Copy the source table rows with a rowid in the (fromRowId, toRowId] range. Returns the
+	 * number of copied rows.
+	 */
+	long copyRows(SQLiteDatabase db, long fromRowId, long toRowId) {
+
+		db.execSQL(copySql, new Object[] {Long.valueOf(fromRowId), Long.valueOf(toRowId)});
+
+		SQLiteStatement changes = db.compileStatement("select changes()");
+
+		try {
+
+			return changes.simpleQueryForLong();
+		}
+		finally {
+
+			changes.close();
+		}
+	}
+
+	/*
+	 * Finish the schema once all the rows are copied
+	 */
+	void finish(SQLiteDatabase db) {
+
+		execute(db, finishSql);
+	}
+
+	/*
+	 * Helper method that runs the provided statements, if any
+	 */
+	static void execute(SQLiteDatabase db, String[] statements) {
+
+		if(null == statements) {
+
+			return;
+		}
+
+		for(String sql : statements) {
+
+			db.execSQL(sql);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/*
+ * Runs the versioned schema migration steps in order. SQLiteOpenHelper.onUpgrade() only
+ * schedules the steps in the SchemaMigration log table. The steps then run once the database
+ * is open, with every prepare, chunk copy and finish committed together with its progress.
+ * If the process dies during an upgrade, the next start resumes at the last committed chunk.
+ */
+class SchemaMigrator {
+
+	private static final String PROD_LOG_TAG = "** A.S.M. **";
+
+	static final String DB_TABLE_SCHEMA_MIGRATION = "SchemaMigration";
+
+	static final String [] SCHEMA_MIGRATION_FIELDS = {"version", "name", "state", "lastRowId", "maxRowId", "rowCount", "elapsedTime", "completionDate"};
+
+	static final int SM_VERSION = 0;
+	static final int SM_NAME = 1;
+	static final int SM_STATE = 2;
+	static final int SM_LAST_ROW_ID = 3;
+	static final int SM_MAX_ROW_ID = 4;
+	static final int SM_ROW_COUNT = 5;
+	static final int SM_ELAPSED_TIME = 6;
+	static final int SM_COMPLETION_DATE = 7;
+
+	static final int STATE_PENDING = 0;
+	static final int STATE_PREPARED = 1;
+	static final int STATE_COMPLETE = 2;
+
+	private static final String CREATE_SCHEMA_MIGRATION_TABLE =
+		"create table if not exists " + DB_TABLE_SCHEMA_MIGRATION + " (" + SCHEMA_MIGRATION_FIELDS[SM_VERSION] + " INTEGER primary key, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_NAME] + " TEXT not null, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_STATE] + " INTEGER not null default " + STATE_PENDING + ", "
+		+ SCHEMA_MIGRATION_FIELDS[SM_LAST_ROW_ID] + " INTEGER not null default -1, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_MAX_ROW_ID] + " INTEGER not null default -1, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_ROW_COUNT] + " INTEGER not null default 0, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_ELAPSED_TIME] + " INTEGER not null default 0, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_COMPLETION_DATE] + " DATETIME);";
+
+	private static final String SCHEDULE_SQL =
+		"insert or ignore into " + DB_TABLE_SCHEMA_MIGRATION + " (" + SCHEMA_MIGRATION_FIELDS[SM_VERSION] + ", " + SCHEMA_MIGRATION_FIELDS[SM_NAME] + ") values (?, ?)";
+
+	private static final String SELECT_PROGRESS_SQL =
+		"select " + SCHEMA_MIGRATION_FIELDS[SM_STATE] + ", " + SCHEMA_MIGRATION_FIELDS[SM_LAST_ROW_ID] + ", " + SCHEMA_MIGRATION_FIELDS[SM_MAX_ROW_ID] + ", "
+		+ SCHEMA_MIGRATION_FIELDS[SM_ROW_COUNT] + ", " + SCHEMA_MIGRATION_FIELDS[SM_ELAPSED_TIME]
+		+ " from " + DB_TABLE_SCHEMA_MIGRATION + " where " + SCHEMA_MIGRATION_FIELDS[SM_VERSION] + "=?";
+
+	private static final String UPDATE_PREPARED_SQL =
+		"update " + DB_TABLE_SCHEMA_MIGRATION + " set " + SCHEMA_MIGRATION_FIELDS[SM_STATE] + "=" + STATE_PREPARED + ", " + SCHEMA_MIGRATION_FIELDS[SM_MAX_ROW_ID] + "=?, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_ELAPSED_TIME] + "=" + SCHEMA_MIGRATION_FIELDS[SM_ELAPSED_TIME] + "+? where " + SCHEMA_MIGRATION_FIELDS[SM_VERSION] + "=?";
+
+	private static final String UPDATE_PROGRESS_SQL =
+		"update " + DB_TABLE_SCHEMA_MIGRATION + " set " + SCHEMA_MIGRATION_FIELDS[SM_LAST_ROW_ID] + "=?, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_ROW_COUNT] + "=" + SCHEMA_MIGRATION_FIELDS[SM_ROW_COUNT] + "+?, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_ELAPSED_TIME] + "=" + SCHEMA_MIGRATION_FIELDS[SM_ELAPSED_TIME] + "+? where " + SCHEMA_MIGRATION_FIELDS[SM_VERSION] + "=?";
+
+	private static final String UPDATE_COMPLETE_SQL =
+		"update " + DB_TABLE_SCHEMA_MIGRATION + " set " + SCHEMA_MIGRATION_FIELDS[SM_STATE] + "=" + STATE_COMPLETE + ", " + SCHEMA_MIGRATION_FIELDS[SM_COMPLETION_DATE] + "=current_timestamp, "
+		+ SCHEMA_MIGRATION_FIELDS[SM_ELAPSED_TIME] + "=" + SCHEMA_MIGRATION_FIELDS[SM_ELAPSED_TIME] + "+? where " + SCHEMA_MIGRATION_FIELDS[SM_VERSION] + "=?";
+
+	private final SchemaMigration[] migrations;
+	private final int chunkSize;
+	private volatile boolean isCancelled = false;
+
+	SchemaMigrator(SchemaMigration[] migrations, int chunkSize) {
+
+		this.migrations = migrations;
+		this.chunkSize = chunkSize;
+	}
+
+	/*
+	 * Create the migration log table
+	 */
+	static void createLog(SQLiteDatabase db) {
+
+		db.execSQL(CREATE_SCHEMA_MIGRATION_TABLE);
+	}
+
+	/*
+	 * Schedule the steps of an upgrade from oldVersion to newVersion. This is meant to be
+	 * called from SQLiteOpenHelper.onUpgrade(), and doesn't run any of the steps.
+	 */
+	void schedule(SQLiteDatabase db, int oldVersion, int newVersion) {
+
+		createLog(db);
+
+		for(SchemaMigration migration : migrations) {
+
+			if(migration.version > oldVersion && migration.version <= newVersion) {
+
+				db.execSQL(SCHEDULE_SQL, new Object[] {Long.valueOf(migration.version), migration.name});
+			}
+		}
+	}
+
+	/*
+	 * Run all the scheduled steps that have to complete before the database can be used, in
+	 * version order. Deferrable steps only get their schema prepared, see runDeferred(). Returns
+	 * false if the migrator was cancelled before the steps completed.
+	 */
+	boolean runRequired(SQLiteDatabase db) {
+
+		createLog(db);
+
+		for(SchemaMigration migration : migrations) {
+
+			long[] progress = getProgress(db, migration);
+
+			if(null == progress || STATE_COMPLETE == progress[0]) {
+
+				continue;
+			}
+
+			if(STATE_PENDING == progress[0] && !prepare(db, migration)) {
+
+				continue;
+			}
+
+			if(!migration.isDeferrable && !copyAndFinish(db, migration)) {
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * Check if any prepared deferrable steps still have to run
+	 */
+	boolean hasDeferred(SQLiteDatabase db) {
+
+		for(SchemaMigration migration : migrations) {
+
+			long[] progress = getProgress(db, migration);
+
+			if(migration.isDeferrable && null != progress && STATE_PREPARED == progress[0]) {
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/*
+	 * Run the copy of the prepared deferrable steps, in version order, until they are
+	 * complete or the migrator is cancelled. Meant to be run on a background thread.
+	 */
+	void runDeferred(SQLiteDatabase db) {
+
+		try {
+
+			for(SchemaMigration migration : migrations) {
+
+				long[] progress = getProgress(db, migration);
+
+				if(migration.isDeferrable && null != progress && STATE_PREPARED == progress[0] && !copyAndFinish(db, migration)) {
+
+					return;
+				}
+			}
+		}
+		catch(SQLiteException e) {
+
+			Log.e(PROD_LOG_TAG, "SQLiteException: runDeferred()", e);
+		}
+	}
+
+	/*
+	 * Stop runRequired() or runDeferred() after its current chunk
+	 */
+	void cancel() {
+
+		isCancelled = true;
+	}
+
+	/*
+	 * Check if the step of the provided version is complete, or was never scheduled
+	 */
+	static boolean isComplete(SQLiteDatabase db, int version) {
+
+		Cursor cursor = db.rawQuery("select " + SCHEMA_MIGRATION_FIELDS[SM_STATE] + " from " + DB_TABLE_SCHEMA_MIGRATION + " where " + SCHEMA_MIGRATION_FIELDS[SM_VERSION] + "=?", new String[] {String.valueOf(version)});
+
+		try {
+
+			return !cursor.moveToFirst() || STATE_COMPLETE == cursor.getInt(0);
+		}
+		finally {
+
+			cursor.close();
+		}
+	}
+
+	/*
+	 * Helper method that prepares a step's schema. Returns false if the step was skipped.
+	 */
+	private boolean prepare(SQLiteDatabase db, SchemaMigration migration) {
+
+		long startTime = System.currentTimeMillis();
+		boolean isPrepared = false;
+
+		db.beginTransaction();
+
+		try {
+
+			isPrepared = migration.prepare(db);
+
+			if(isPrepared) {
+
+				db.execSQL(UPDATE_PREPARED_SQL, new Object[] {Long.valueOf(migration.getMaxRowId(db)), Long.valueOf(System.currentTimeMillis() - startTime), Long.valueOf(migration.version)});
+			}
+			else {
+
+				db.execSQL(UPDATE_COMPLETE_SQL, new Object[] {Long.valueOf(System.currentTimeMillis() - startTime), Long.valueOf(migration.version)});
+				Log.i(PROD_LOG_TAG, "Schema migration " + migration.version + " (" + migration.name + ") skipped");
+			}
+
+			db.setTransactionSuccessful();
+		}
+		finally {
+
+			db.endTransaction();
+		}
+
+		return isPrepared;
+	}
+
+	/*
+	 * Helper method that copies a prepared step's rows, one chunk per transaction, and then
+	 * finishes it. Returns false if the migrator was cancelled before the step completed.
+	 */
+	private boolean copyAndFinish(SQLiteDatabase db, SchemaMigration migration) {
+
+		long[] progress = getProgress(db, migration);
+		long lastRowId = progress[1];
+		long maxRowId = progress[2];
+
+		while(lastRowId < maxRowId) {
+
+			if(isCancelled) {
+
+				return false;
+			}
+
+			long startTime = System.currentTimeMillis();
+
+			db.beginTransaction();
+
+			try {
+
+				long toRowId = migration.getChunkEnd(db, lastRowId, maxRowId, chunkSize);
+				long rowCount = 0;
+
+				// Nothing left within the range
+				if(toRowId == lastRowId) {
+
+					toRowId = maxRowId;
+				}
+				else {
+
+					rowCount = migration.copyRows(db, lastRowId, toRowId);
+				}
+
+				db.execSQL(UPDATE_PROGRESS_SQL, new Object[] {Long.valueOf(toRowId), Long.valueOf(rowCount), Long.valueOf(System.currentTimeMillis() - startTime), Long.valueOf(migration.version)});
+				db.setTransactionSuccessful();
+				lastRowId = toRowId;
+			}
+			finally {
+
+				db.endTransaction();
+			}
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		db.beginTransaction();
+
+		try {
+
+			migration.finish(db);
+			db.execSQL(UPDATE_COMPLETE_SQL, new Object[] {Long.valueOf(System.currentTimeMillis() - startTime), Long.valueOf(migration.version)});
+			db.setTransactionSuccessful();
+		}
+		finally {
+
+			db.endTransaction();
+		}
+
+		progress = getProgress(db, migration);
+		Log.i(PROD_LOG_TAG, "Schema migration " + migration.version + " (" + migration.name + ") completed: " + progress[3] + " rows in " + progress[4] + " ms");
+
+		return true;
+	}
+
+	/*
+	 * Helper method that returns the {state, lastRowId, maxRowId, rowCount, elapsedTime} of a
+	 * step, or null if the step isn't scheduled
+	 */
+	private static long[] getProgress(SQLiteDatabase db, SchemaMigration migration) {
+
+		Cursor cursor = db.rawQuery(SELECT_PROGRESS_SQL, new String[] {String.valueOf(migration.version)});
+
+		try {
+
+			if(!cursor.moveToFirst()) {
+
+				return null;
+			}
+
+			return new long[] {cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3), cursor.getLong(4)};
+		}
+		finally {
+
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+/*
+ * Forward and random access to the rows of a store query. It has the same methods and
+ * semantics as the subset of android.database.Cursor that the service uses, so that the
+ * SQLite store can hand out its cursors directly. The column names are the DbAdapter ones.
+ * NOTE: Caller must call close()
+ */
+public interface StoreCursor {
+
+	public int getCount();
+
+	public boolean moveToFirst();
+
+	public boolean moveToLast();
+
+	public boolean moveToNext();
+
+	public boolean isAfterLast();
+
+	/*
+	 * Returns the index of the column with the provided name, or -1 if there is none
+	 */
+	public int getColumnIndex(String columnName);
+
+	public int getInt(int columnIndex);
+
+	public long getLong(int columnIndex);
+
+	public double getDouble(int columnIndex);
+
+	public String getString(int columnIndex);
+
+	public void close();
+}
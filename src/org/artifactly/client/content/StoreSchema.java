@@ -0,0 +1,57 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+/*
+ * Column names and field orders that are shared by the ArtifactStore engines. This has no
+ * Android dependencies, so that MemoryArtifactStore can be used on a plain JVM.
+ */
+public interface StoreSchema {
+
+	public static final String [] LOC_FIELDS = {"_id", "locName", "lat", "lng", "radius"};
+	public static final String [] LOC_FIELDS_AS = {"locId", "locName", "locLat", "locLng", "locRadius"};
+	public static final String [] ART_FIELDS = {"_id", "artName", "artData", "artCreationDate", "artDataZ"};
+	public static final String [] LOC_ART_FIELDS = {"artId", "locId" };
+
+	public static final int LOC_ID = 0;
+	public static final int LOC_NAME = 1;
+	public static final int LOC_LATITUDE = 2;
+	public static final int LOC_LONGITUDE = 3;
+
+	// Radius in meters, or null if the location uses the radius preference
+	public static final int LOC_RADIUS = 4;
+
+	public static final int ART_ID = 0;
+	public static final int ART_NAME = 1;
+	public static final int ART_DATA = 2;
+	public static final int ART_CREATION_DATE = 3;
+
+	// Compressed artifact data. Only one of artData and artDataZ is set, see ArtifactDataCodec
+	public static final int ART_DATA_COMPRESSED = 4;
+
+	public static final int FK_ART_ID = 0;
+	public static final int FK_LOC_ID = 1;
+
+	// Field order of the rows that are passed to ArtifactStore.bulkInsert()
+	public static final String [] IMPORT_FIELDS = {"artName", "artData", "locName", "lat", "lng"};
+
+	public static final int IMPORT_ART_NAME = 0;
+	public static final int IMPORT_ART_DATA = 1;
+	public static final int IMPORT_LOC_NAME = 2;
+	public static final int IMPORT_LOC_LATITUDE = 3;
+	public static final int IMPORT_LOC_LONGITUDE = 4;
+}
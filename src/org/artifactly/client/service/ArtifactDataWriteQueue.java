@@ -0,0 +1,216 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.artifactly.client.content.ArtifactStore;
+
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/*
+ * Write-behind queue for artifact data updates. Pending updates are coalesced per artifact,
+ * so that only the last edit is written, and all of them are written in one transaction when
+ * the flush delay expires or the queue is full. The flushes run on the queue's own thread.
+ * Readers call flush() first, so that they always see the edits that were accepted before.
+ *
+ * Durability: an accepted update is only held in memory until the next flush commits it, at
+ * most FLUSH_DELAY later. close() writes the pending updates before the service goes away,
+ * but if the process is killed without onDestroy(), the updates of that window are lost.
+ * Callers that need an update on disk before they go on call flush().
+ */
+public class ArtifactDataWriteQueue {
+
+	// Logging
+	private static final String PROD_LOG_TAG = "** A.D.W.Q. **";
+
+	private static final long FLUSH_DELAY = 2000; // 2 sec
+	private static final int FLUSH_SIZE = 32;
+
+	private final ArtifactStore dbAdapter;
+
+	// Pending artifact data by artifact ID, guarded by this
+	private final LinkedHashMap<String, String> pendingUpdates = new LinkedHashMap<String, String>();
+	private boolean isFlushScheduled = false;
+	private boolean isClosed = false;
+
+	// Serializes the flushes, so that a reader's flush waits for a flush that is still writing
+	private final Object flushLock = new Object();
+
+	private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+		public Thread newThread(Runnable runnable) {
+
+			Thread thread = new Thread(runnable, "ArtifactDataFlush");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Runnable flushTask = new Runnable() {
+
+		public void run() {
+
+			synchronized(ArtifactDataWriteQueue.this) {
+
+				isFlushScheduled = false;
+			}
+
+			flush();
+		}
+	};
+
+	public ArtifactDataWriteQueue(ArtifactStore dbAdapter) {
+
+		this.dbAdapter = dbAdapter;
+	}
+
+	/*
+	 * Queue an artifact data update. Returns 1 if the update was accepted, or -1 if the
+	 * artifact doesn't exist. Once the queue is closed, the update is written before this
+	 * returns.
+	 */
+	public int enqueue(String artifactId, String artifactData) {
+
+		if(!dbAdapter.hasArtifact(artifactId)) {
+
+			return -1;
+		}
+
+		boolean isWriteThrough = false;
+
+		synchronized(this) {
+
+			pendingUpdates.put(artifactId, artifactData);
+
+			if(isClosed) {
+
+				isWriteThrough = true;
+			}
+			else if(pendingUpdates.size() >= FLUSH_SIZE) {
+
+				// Flush now, but on the flush thread so that the caller doesn't wait for it
+				isFlushScheduled = true;
+				flushExecutor.execute(flushTask);
+			}
+			else {
+
+				scheduleFlush();
+			}
+		}
+
+		if(isWriteThrough) {
+
+			flush();
+		}
+
+		return 1;
+	}
+
+	/*
+	 * Write all the pending updates in one transaction. Returns false if the write failed.
+	 * The updates are then queued again, unless a newer update for the same artifact arrived
+	 * in the meantime.
+	 */
+	public boolean flush() {
+
+		synchronized(flushLock) {
+
+			Map<String, String> updates = null;
+
+			synchronized(this) {
+
+				if(pendingUpdates.isEmpty()) {
+
+					return true;
+				}
+
+				updates = new LinkedHashMap<String, String>(pendingUpdates);
+				pendingUpdates.clear();
+			}
+
+			try {
+
+				int numberArtRowsAffected = dbAdapter.updateArtifactData(updates);
+
+				if(numberArtRowsAffected != updates.size()) {
+
+					Log.w(PROD_LOG_TAG, "Flushed " + updates.size() + " artifact data updates, " + (updates.size() - numberArtRowsAffected) + " artifacts no longer exist");
+				}
+
+				return true;
+			}
+			catch(SQLiteException e) {
+
+				Log.e(PROD_LOG_TAG, "SQLiteException: flush()", e);
+
+				synchronized(this) {
+
+					for(Map.Entry<String, String> update : updates.entrySet()) {
+
+						if(!pendingUpdates.containsKey(update.getKey())) {
+
+							pendingUpdates.put(update.getKey(), update.getValue());
+						}
+					}
+
+					scheduleFlush();
+				}
+
+				return false;
+			}
+		}
+	}
+
+	/*
+	 * Stop the flush thread and write the pending updates. Called when the service is
+	 * destroyed. Later updates are written through.
+	 */
+	public void close() {
+
+		synchronized(this) {
+
+			isClosed = true;
+		}
+
+		// Drops the scheduled flush, the pending updates are written below instead
+		flushExecutor.shutdownNow();
+
+		if(!flush()) {
+
+			Log.e(PROD_LOG_TAG, "Artifact data updates could not be written on close()");
+		}
+	}
+
+	/*
+	 * Helper method that schedules a flush unless there is one already. Must hold the lock on this.
+	 */
+	private void scheduleFlush() {
+
+		if(!isFlushScheduled && !isClosed) {
+
+			isFlushScheduled = true;
+			flushExecutor.schedule(flushTask, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.artifactly.client.ApplicationConstants;
+import org.artifactly.client.content.StoreSchema;
+import org.json.JSONObject;
+
+/*
+ * Writes artifact/location rows, one at a time, to a CSV or JSON stream. The output uses
+ * the StoreSchema.IMPORT_FIELDS order and keys, so it can be read back by ArtifactImportReader.
+ * Nothing but the current row is kept in memory.
+ *
+ * In CSV, a null value is written as an empty field and an empty string as a quoted ("")
+ * field, so the two stay distinct when they are read back.
+ */
+public class ArtifactExportWriter implements ApplicationConstants {
+
+	private final Writer writer;
+	private final int format;
+	private int rowCount = 0;
+
+	public ArtifactExportWriter(OutputStream outputStream, int format) throws IOException {
+
+		this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, Charset.forName("UTF-8")));
+		this.format = format;
+
+		if(DATA_FORMAT_JSON == format) {
+
+			writer.write('[');
+		}
+		else {
+
+			for(int i = 0; i < StoreSchema.IMPORT_FIELDS.length; i++) {
+
+				if(0 < i) {
+
+					writer.write(',');
+				}
+
+				writer.write(StoreSchema.IMPORT_FIELDS[i]);
+			}
+
+			writer.write('\n');
+		}
+	}
+
+	/*
+	 * Write one artifact/location row
+	 */
+	public void writeRow(String artifactName, String artifactData, String locationName, double latitude, double longitude) throws IOException {
+
+		if(DATA_FORMAT_JSON == format) {
+
+			if(0 < rowCount) {
+
+				writer.write(',');
+			}
+
+			writer.write("\n{");
+			writeJsonField(StoreSchema.IMPORT_ART_NAME, JSONObject.quote(artifactName));
+			writer.write(',');
+			writeJsonField(StoreSchema.IMPORT_ART_DATA, (null == artifactData) ? "null" : JSONObject.quote(artifactData));
+			writer.write(',');
+			writeJsonField(StoreSchema.IMPORT_LOC_NAME, JSONObject.quote(locationName));
+			writer.write(',');
+			writeJsonField(StoreSchema.IMPORT_LOC_LATITUDE, String.valueOf(latitude));
+			writer.write(',');
+			writeJsonField(StoreSchema.IMPORT_LOC_LONGITUDE, String.valueOf(longitude));
+			writer.write('}');
+		}
+		else {
+
+			writeCsvField(artifactName);
+			writer.write(',');
+			writeCsvField(artifactData);
+			writer.write(',');
+			writeCsvField(locationName);
+			writer.write(',');
+			writer.write(String.valueOf(latitude));
+			writer.write(',');
+			writer.write(String.valueOf(longitude));
+			writer.write('\n');
+		}
+
+		rowCount++;
+	}
+
+	/*
+	 * Finish the document and flush it to the underlying stream. The stream itself is
+	 * left open for the caller to close.
+	 */
+	public void finish() throws IOException {
+
+		if(DATA_FORMAT_JSON == format) {
+
+			writer.write("\n]\n");
+		}
+
+		writer.flush();
+	}
+
+	public int getRowCount() {
+
+		return rowCount;
+	}
+
+	/*
+	 * Helper method that writes a JSON key and its already encoded value
+	 */
+	private void writeJsonField(int field, String value) throws IOException {
+
+		writer.write('"');
+		writer.write(StoreSchema.IMPORT_FIELDS[field]);
+		writer.write("\":");
+		writer.write(value);
+	}
+
+	/*
+	 * Helper method that writes a CSV field, quoting it if needed. Null is written as
+	 * nothing, and the empty string is quoted to tell it apart.
+	 */
+	private void writeCsvField(String value) throws IOException {
+
+		if(null == value) {
+
+			return;
+		}
+
+		if(0 < value.length() && value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+
+			writer.write(value);
+			return;
+		}
+
+		writer.write('"');
+		writer.write(value.replace("\"", "\"\""));
+		writer.write('"');
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.artifactly.client.ApplicationConstants;
+import org.artifactly.client.content.DbAdapter;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/*
+ * Reads artifact/location rows, one at a time, from a CSV or JSON stream. The rows have the
+ * DbAdapter.IMPORT_FIELDS order so that they can be passed straight to DbAdapter.bulkInsert().
+ *
+ * CSV: one row per line, with an optional artName,artData,locName,lat,lng header line. An empty
+ * unquoted field is read as null, and a quoted empty ("") field as the empty string.
+ * JSON: either an array of objects or one object per line, using the IMPORT_FIELDS keys
+ */
+public class ArtifactImportReader implements Iterator<String[]>, ApplicationConstants {
+
+	// Logging
+	private static final String PROD_LOG_TAG = "** A.I.R. **";
+
+	private final BufferedReader reader;
+	private final int format;
+
+	private String[] nextRow = null;
+	private boolean isDone = false;
+	private boolean isFirstRow = true;
+	private IOException error = null;
+
+	public ArtifactImportReader(InputStream inputStream, int format) {
+
+		this.reader = new BufferedReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+		this.format = format;
+	}
+
+	public boolean hasNext() {
+
+		if(null == nextRow && !isDone) {
+
+			nextRow = readRow();
+		}
+
+		return null != nextRow;
+	}
+
+	public String[] next() {
+
+		if(!hasNext()) {
+
+			throw new NoSuchElementException();
+		}
+
+		String[] row = nextRow;
+		nextRow = null;
+		return row;
+	}
+
+	public void remove() {
+
+		throw new UnsupportedOperationException();
+	}
+
+	/*
+	 * The IOException that ended the import early, if any
+	 */
+	public IOException getError() {
+
+		return error;
+	}
+
+	/*
+	 * Helper method that reads the next row and marks the end of the stream
+	 */
+	private String[] readRow() {
+
+		String[] row = null;
+
+		try {
+
+			row = (DATA_FORMAT_JSON == format) ? readJsonRow() : readCsvRow();
+		}
+		catch(IOException e) {
+
+			Log.e(PROD_LOG_TAG, "IOException while reading import row", e);
+			error = e;
+		}
+
+		if(null == row) {
+
+			isDone = true;
+		}
+
+		return row;
+	}
+
+	/*
+	 * Helper method that reads one CSV record. Quoted fields may contain commas,
+	 * line breaks and escaped ("") quotes.
+	 */
+	private String[] readCsvRow() throws IOException {
+
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean isQuoted = false;
+		boolean isFieldQuoted = false;
+		boolean hasData = false;
+		int c;
+
+		while((c = reader.read()) != -1) {
+
+			if(isQuoted) {
+
+				if('"' == c) {
+
+					reader.mark(1);
+					int next = reader.read();
+
+					if('"' == next) {
+
+						field.append('"');
+					}
+					else {
+
+						isQuoted = false;
+
+						if(-1 != next) {
+
+							reader.reset();
+						}
+					}
+				}
+				else {
+
+					field.append((char)c);
+				}
+			}
+			else if('"' == c) {
+
+				isQuoted = true;
+				isFieldQuoted = true;
+				hasData = true;
+			}
+			else if(',' == c) {
+
+				fields.add(toField(field, isFieldQuoted));
+				field.setLength(0);
+				isFieldQuoted = false;
+				hasData = true;
+			}
+			else if('\n' == c) {
+
+				// Skip empty lines
+				if(hasData) {
+
+					break;
+				}
+			}
+			else if('\r' != c) {
+
+				field.append((char)c);
+				hasData = true;
+			}
+		}
+
+		if(!hasData) {
+
+			return null;
+		}
+
+		fields.add(toField(field, isFieldQuoted));
+		String[] row = fields.toArray(new String[fields.size()]);
+
+		// Skip the header line
+		if(isFirstRow) {
+
+			isFirstRow = false;
+
+			if(isHeader(row)) {
+
+				return readCsvRow();
+			}
+		}
+
+		return row;
+	}
+
+	/*
+	 * Helper method that returns the value of a CSV field. Only a quoted field can be empty, an
+	 * empty unquoted field is null.
+	 */
+	private static String toField(StringBuilder field, boolean isQuoted) {
+
+		return (0 == field.length() && !isQuoted) ? null : field.toString();
+	}
+
+	/*
+	 * Helper method that checks if a CSV row is the IMPORT_FIELDS header line. The whole line
+	 * has to match, so that an artifact that happens to be named like a field isn't skipped.
+	 */
+	private static boolean isHeader(String[] row) {
+
+		if(row.length != DbAdapter.IMPORT_FIELDS.length) {
+
+			return false;
+		}
+
+		for(int i = 0; i < row.length; i++) {
+
+			if(null == row[i] || !DbAdapter.IMPORT_FIELDS[i].equals(row[i].trim())) {
+
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/*
+	 * Helper method that reads the next top level JSON object. Anything outside of
+	 * an object, such as the enclosing array brackets and commas, is skipped.
+	 */
+	private String[] readJsonRow() throws IOException {
+
+		StringBuilder object = new StringBuilder();
+		int depth = 0;
+		boolean isInString = false;
+		boolean isEscaped = false;
+		int c;
+
+		while((c = reader.read()) != -1) {
+
+			if(0 == depth) {
+
+				if('{' == c) {
+
+					depth = 1;
+					object.append('{');
+				}
+
+				continue;
+			}
+
+			object.append((char)c);
+
+			if(isInString) {
+
+				if(isEscaped) {
+
+					isEscaped = false;
+				}
+				else if('\\' == c) {
+
+					isEscaped = true;
+				}
+				else if('"' == c) {
+
+					isInString = false;
+				}
+			}
+			else if('"' == c) {
+
+				isInString = true;
+			}
+			else if('{' == c || '[' == c) {
+
+				depth++;
+			}
+			else if(('}' == c || ']' == c) && 0 == --depth) {
+
+				return toRow(object.toString());
+			}
+		}
+
+		return null;
+	}
+
+	/*
+	 * Helper method that maps a JSON object to a row. A malformed object results in
+	 * an empty row, which the bulk insert reports as an error.
+	 */
+	private String[] toRow(String json) {
+
+		try {
+
+			JSONObject object = new JSONObject(json);
+			String[] row = new String[DbAdapter.IMPORT_FIELDS.length];
+
+			for(int i = 0; i < row.length; i++) {
+
+				row[i] = object.isNull(DbAdapter.IMPORT_FIELDS[i]) ? null : object.getString(DbAdapter.IMPORT_FIELDS[i]);
+			}
+
+			return row;
+		}
+		catch(JSONException e) {
+
+			Log.e(PROD_LOG_TAG, "Error while parsing import JSONObject", e);
+			return new String[0];
+		}
+	}
+}
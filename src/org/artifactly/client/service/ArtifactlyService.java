@@ -16,10 +16,16 @@
 
 package org.artifactly.client.service;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import org.artifactly.client.ApplicationConstants;
 import org.artifactly.client.Artifactly;
 import org.artifactly.client.R;
 import org.artifactly.client.content.DbAdapter;
+import org.artifactly.client.content.LocationSnapshot;
+import org.artifactly.client.content.ProximityKernel;
 
 import android.app.Notification;
 import android.app.NotificationManager;
@@ -29,7 +35,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.database.Cursor;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
@@ -45,6 +50,8 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 
 	// Preferences
 	private static final String PREFS_NAME = "ArtifactlyPrefsFile";
+	private static final String GEOFENCE_STATE = "geofence-state";
+	private static final String GEOFENCE_NOTIFICATION_PENDING = "geofence-notification-pending";
 	private SharedPreferences settings;
 
 	// Location constants
@@ -62,6 +69,21 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 	// Location radius
 	private int radius = PREFERENCE_RADIUS_DEFAULT;
 	private String radiusUnit = PREFERENCE_RADIUS_UNIT_DEFAULT;
+
+	// Proximity kernel for the current location and radius, and the location it was built for
+	private ProximityKernel proximityKernel;
+	private Location proximityKernelLocation;
+
+	// Locations with artifacts that we are currently inside of
+	private GeofenceTracker geofenceTracker = new GeofenceTracker(new long[0]);
+
+	// Locations whose radius contains recent positions, see getLocationIdsForCurrentLocation()
+	private static final int PROXIMITY_CACHE_SIZE = 64;
+	private final ProximityCache proximityCache = new ProximityCache(PROXIMITY_CACHE_SIZE);
+
+	// Threads that help scanning large location sets, none on single core devices
+	private ExecutorService proximityScanExecutor;
+	private int proximityScanParallelism = 1;
 	
 	// Sound Notification Preference
 	private boolean soundNotificationPreference = PREFERENCE_SOUND_NOTIFICATION_DEFAULT;
@@ -70,13 +92,6 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 	// is current enough. If it's not, we enable the GPS listener if available 
 	private static final long LOCATION_TIME_EXPIRATION_DELTA = 300000; // 5 min
 	
-	// The new location can only be older than the current location plus this delta
-	// in order for it to be considered slightly inaccurate 
-	private static final long LOCATION_TIME_ALLOWED_DELTA = 300000; // 5 min
-
-	// Max allowed location accuracy delta
-	private static final int LOCATION_MAX_ACCURACY_DELTA = 2000; // 2 km
-	
 	// Notification constants
 	private static final int NOTIFICATION_ID = 95691;
 	
@@ -108,13 +123,18 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 	
 	// Last send notification time
 	private long lastSendNotificationTime = 0;
+	
+	// Whether we entered a geofence and haven't sent its notification yet, because notifications were throttled
+	private boolean hasPendingNotification = false;
 	private long lastSendNotificationSoundTime = 0;
-	private static final long LAST_SEND_NOTIFICATION_TIME_DELTA = 60000; // 1 min
 	private static final long LAST_SOUND_NOTIFICATION_TIME_DELTA = 300000; // 5 min
 	
 	// DB adapter
 	private DbAdapter dbAdapter;
 
+	// Write-behind queue for artifact data updates
+	private ArtifactDataWriteQueue artifactDataWriteQueue;
+
 	// Keeping track of current location
 	private Location currentLocation;
 
@@ -215,6 +235,23 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 		super.onDestroy();
 		
 		settings.unregisterOnSharedPreferenceChangeListener(this);
+
+		// Write any pending artifact data updates
+		if(null != artifactDataWriteQueue) {
+
+			artifactDataWriteQueue.close();
+		}
+
+		if(null != proximityScanExecutor) {
+
+			proximityScanExecutor.shutdown();
+		}
+
+		// Stops the schema migration thread and closes the reader connections
+		if(null != dbAdapter) {
+
+			dbAdapter.close();
+		}
 	}
 
 	/*
@@ -270,9 +307,29 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 		radius = settings.getInt(PREFERENCE_RADIUS, PREFERENCE_RADIUS_DEFAULT);
 		radiusUnit = settings.getString(PREFERENCE_RADIUS_UNIT, PREFERENCE_RADIUS_UNIT_DEFAULT);
 		soundNotificationPreference = settings.getBoolean(PREFERENCE_SOUND_NOTIFICATION, PREFERENCE_SOUND_NOTIFICATION_DEFAULT);
+		geofenceTracker = new GeofenceTracker(GeofenceTracker.parse(settings.getString(GEOFENCE_STATE, null)));
+		hasPendingNotification = settings.getBoolean(GEOFENCE_NOTIFICATION_PENDING, false);
 
 		// Setting up the database
 		dbAdapter = new DbAdapter(this);
+		artifactDataWriteQueue = new ArtifactDataWriteQueue(dbAdapter);
+
+		// Setting up the threads that help scanning large location sets. The calling thread scans too.
+		int processors = Runtime.getRuntime().availableProcessors();
+
+		if(1 < processors) {
+
+			proximityScanParallelism = processors;
+			proximityScanExecutor = Executors.newFixedThreadPool(processors - 1, new ThreadFactory() {
+
+				public Thread newThread(Runnable runnable) {
+
+					Thread thread = new Thread(runnable, "ProximityScan");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
 
 		// Setting up the notification manager
 		notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
@@ -293,35 +350,77 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 	}
 	
 	/*
-	 * Helper method
+	 * Returns the IDs of the locations with artifacts whose radius contains the current location.
+	 * The result is cached by position cell and data version. Large location sets are scanned in parallel.
 	 */
-	protected boolean isNearbyCurrentLocation(String lat, String lng) {
-		
-		float[] distanceResult = new float[1];
+	protected long[] getLocationIdsForCurrentLocation() {
 
-		if(null == currentLocation) {
-			
-			return false;
+		ProximityKernel kernel = getProximityKernel();
+
+		if(null == kernel || null == dbAdapter) {
+
+			return new long[0];
 		}
-		
-		try {
-		
-			Location.distanceBetween(currentLocation.getLatitude(),
-					currentLocation.getLongitude(),
-					Double.parseDouble(lat),
-					Double.parseDouble(lng), distanceResult);
+
+		double latitude = Math.toDegrees(kernel.getLatitudeRadians());
+		double longitude = Math.toDegrees(kernel.getLongitudeRadians());
+		long[] locationIds = proximityCache.get(dbAdapter.getDataVersion(), kernel.getRadiusInMeters(), latitude, longitude);
+
+		if(null != locationIds) {
+
+			return locationIds;
 		}
-		catch(NumberFormatException	exception) {
 
-			Log.e(PROD_LOG_TAG, "ERROR: Was not able to parse povided lat/lng to a Double", exception);
+		LocationSnapshot snapshot = dbAdapter.getLocationSnapshot();
+		int[] containing = snapshot.getContaining(kernel, proximityScanExecutor, proximityScanParallelism);
+		locationIds = new long[containing.length];
+
+		for(int i = 0; i < containing.length; i++) {
+
+			locationIds[i] = snapshot.getId(containing[i]);
 		}
 
-		if(((int)distanceResult[0]) <= getRadiusInMeters()) {
-			
-			return true;
+		proximityCache.put(snapshot, kernel, latitude, longitude, locationIds);
+
+		return locationIds;
+	}
+
+	/*
+	 * Proximity cache getter method, e.g. for its hit and miss counters
+	 */
+	protected ProximityCache getProximityCache() {
+
+		return proximityCache;
+	}
+
+	/*
+	 * Artifact data write queue getter method
+	 */
+	protected ArtifactDataWriteQueue getArtifactDataWriteQueue() {
+
+		return artifactDataWriteQueue;
+	}
+
+	/*
+	 * Helper method that returns the proximity kernel for the current location and radius, or
+	 * null if there is no current location. The kernel is only rebuilt when either changes.
+	 */
+	protected synchronized ProximityKernel getProximityKernel() {
+
+		if(null == currentLocation) {
+
+			return null;
 		}
-		
-		return false;
+
+		int radiusInMeters = getRadiusInMeters();
+
+		if(null == proximityKernel || proximityKernelLocation != currentLocation || proximityKernel.getRadiusInMeters() != radiusInMeters) {
+
+			proximityKernel = new ProximityKernel(currentLocation.getLatitude(), currentLocation.getLongitude(), radiusInMeters);
+			proximityKernelLocation = currentLocation;
+		}
+
+		return proximityKernel;
 	}
 
 	/*
@@ -504,117 +603,112 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 	
 		notificationManager.cancel(NOTIFICATION_ID);
 	}
-
+	
 	/*
-	 * Method that checks if there are any artifacts that are close to the current 
-	 * location. It uses the defined radius to determine the closeness
+	 * Method that sends the notification for entered geofences once the notification throttle
+	 * allows it, as long as we are still inside one of them
 	 */
-	protected boolean hasArtifactsForCurrentLocation() {
+	private void sendPendingNotification() {
 		
-		if(null == dbAdapter) {
+		if(!hasPendingNotification || !geofenceTracker.isInside()) {
 			
-			Log.w(PROD_LOG_TAG, "DB Adapter is null");
-			return false;
+			return;
 		}
 		
-		// Getting all the locations
-		Cursor cursor = dbAdapter.select();
-		if(null == cursor) {
+		// Make sure that we don't send too many notifications
+		if(!LocationUpdatePolicy.canSendNotification(lastSendNotificationTime, System.currentTimeMillis(), LocationUpdatePolicy.LAST_SEND_NOTIFICATION_TIME_DELTA)) {
 			
-			Log.w(PROD_LOG_TAG, "Cursor is null");
-			return false;
+			return;
 		}
 		
-		// Checking if the cursor set has any items
-		boolean hasItems = cursor.moveToFirst();
-		
-		if(!hasItems) {
-			
-			cursor.close();
-			return false;
-		}
-
-		// Determine the table column indexes 
-		int longitudeColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LONGITUDE]);
-		int latitudeColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LATITUDE]);
-
-		/*
-		 *  Iterating over all result and calculate the distance between
-		 *  radius, we notify the user that there is an artifact.
-		 */
-		for(;cursor.isAfterLast() == false; cursor.moveToNext()) {
-
-			// Getting latitude and longitude
-			String lat = cursor.getString(latitudeColumnIndex).trim();
-			String lng = cursor.getString(longitudeColumnIndex).trim();
-
-			if(isNearbyCurrentLocation(lat, lng)) {
-
-				cursor.close();
-				return true;
-			}
-		}
-
-		cursor.close();
-
-		return false;
+		setPendingNotification(false);
+		lastSendNotificationTime = System.currentTimeMillis();
+		sendNotification();
+		sendBroadcast(hasArtifactsAtCurrentLocationIntent);
 	}
-		
+	
 	/*
-	 * Method that determines if a new location is more accurate the the currently saved location
+	 * Method that sets and saves the pending notification flag, so that an entry isn't lost
+	 * when the service is restarted
 	 */
-	private boolean isMoreAccurate(Location newLocation) {
-
-		if(null == currentLocation && null != newLocation) {
+	private void setPendingNotification(boolean isPending) {
+		
+		if(hasPendingNotification != isPending) {
 			
-			return true;
+			hasPendingNotification = isPending;
+			settings.edit().putBoolean(GEOFENCE_NOTIFICATION_PENDING, isPending).commit();
 		}
+	}
 
-		if(null != currentLocation && null == newLocation) {
+	/*
+	 * Method that updates the geofence state for the current location and radius, and saves
+	 * it if it changed. Without a current location, we leave all geofences. The update is
+	 * skipped while the current location is closer to the last checked one than the nearest
+	 * geofence boundary is, allowing for the fix accuracy. While the database is still being
+	 * upgraded, the geofences are left as they are.
+	 */
+	private GeofenceTracker.Transition updateGeofences() {
 		
-			return false;
+		if(null != dbAdapter && !dbAdapter.isReady()) {
+			
+			return GeofenceTracker.Transition.NONE;
 		}
 		
-		// Check if the new location's accuracy lies within the defined search radius
-		if(newLocation.hasAccuracy() &&
-		   ((int)newLocation.getAccuracy()) > getRadiusInMeters() &&
-		   ((int)newLocation.getAccuracy()) > LOCATION_MAX_ACCURACY_DELTA) {
+		if(null != dbAdapter && null != currentLocation) {
 			
-			return false;
+			float accuracy = currentLocation.hasAccuracy() ? currentLocation.getAccuracy() : 0.0f;
+			
+			if(geofenceTracker.canSkipUpdate(dbAdapter.getDataVersion(), getRadiusInMeters(), currentLocation.getLatitude(), currentLocation.getLongitude(), accuracy)) {
+				
+				return GeofenceTracker.Transition.NONE;
+			}
 		}
 		
-		boolean isMoreAccurate = false;
+		ProximityKernel kernel = getProximityKernel();
+		GeofenceTracker.Transition transition = null;
 		
-		// Check if the new location is more accurate 
-		if(currentLocation.hasAccuracy() && newLocation.hasAccuracy()) {
-
-			float accuracyDelta = currentLocation.getAccuracy() - newLocation.getAccuracy();
-			isMoreAccurate = accuracyDelta >= 0;
+		if(null == dbAdapter || null == kernel) {
+			
+			transition = geofenceTracker.clear();
+		}
+		else {
+			
+			transition = geofenceTracker.update(dbAdapter.getLocationSnapshot(), kernel, proximityScanExecutor, proximityScanParallelism);
 		}
 		
-		// Check if the new location is more current in terms of location fix time
-		long locationTimeDelta = currentLocation.getTime() - newLocation.getTime();
-		boolean isMoreCurrent = locationTimeDelta <= 0;
-		
-		if(isMoreAccurate && isMoreCurrent) {
+		if(transition.hasEntered() || transition.hasExited()) {
 			
-			return true;
+			settings.edit().putString(GEOFENCE_STATE, geofenceTracker.getState()).commit();
 		}
 		
-		boolean isSlightlyLessCurrent = (locationTimeDelta > 0 && locationTimeDelta < LOCATION_TIME_ALLOWED_DELTA);
+		return transition;
+	}
 		
-		if(isMoreAccurate && isSlightlyLessCurrent) {
-			
-			return true;
+	/*
+	 * Method that determines if a new location is more accurate the the currently saved location,
+	 * see LocationUpdatePolicy
+	 */
+	private boolean isMoreAccurate(Location newLocation) {
+
+		if(null == newLocation) {
+		
+			return false;
 		}
 		
-		boolean isSlightlyLessAccurate = (newLocation.hasAccuracy() && newLocation.getAccuracy() <= LOCATION_MAX_ACCURACY_DELTA);
-		if(isSlightlyLessAccurate && isMoreCurrent) {
+		if(null == currentLocation) {
 			
 			return true;
 		}
 		
-		return false;
+		return LocationUpdatePolicy.isMoreAccurate(getAccuracy(currentLocation), currentLocation.getTime(), getAccuracy(newLocation), newLocation.getTime(), getRadiusInMeters());
+	}
+	
+	/*
+	 * Helper method that returns the accuracy of the provided location, or LocationUpdatePolicy.NO_ACCURACY
+	 */
+	private static float getAccuracy(Location location) {
+		
+		return location.hasAccuracy() ? location.getAccuracy() : LocationUpdatePolicy.NO_ACCURACY;
 	}
 	
 	
@@ -656,6 +750,7 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 		// Don't handle consecutive location changes. e.g. PASSIVE provider
 		if(null != currentLocation && Float.compare(currentLocation.distanceTo(location), 0.0f) == 0) {
 			
+			sendPendingNotification();
 			return;
 		}
 		
@@ -687,23 +782,21 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 				}
 			}
 		
-			// Make sure that we don't send too many notifications
-			boolean canSendNotificaiton = ((lastSendNotificationTime + LAST_SEND_NOTIFICATION_TIME_DELTA) <= System.currentTimeMillis()) ? true : false;
-			
 			/*
-			 * Check if there are any artifacts close to the current location. If there are,
-			 * we send a notification.
-			 * 
+			 * Check if we entered or exited any locations with artifacts. If we entered one,
+			 * a notification is pending until the throttle allows sending it. Once we are
+			 * outside of all of them, we drop it and clear the old one.
 			 */
-			if(canSendNotificaiton && hasArtifactsForCurrentLocation()) {
+			GeofenceTracker.Transition transition = updateGeofences();
 
-				lastSendNotificationTime = System.currentTimeMillis();
-				sendNotification();
-				sendBroadcast(hasArtifactsAtCurrentLocationIntent);
+			if(transition.hasEntered()) {
+
+				setPendingNotification(true);
 			}
-			else {
+			else if(transition.hasExited() && !geofenceTracker.isInside()) {
 				
 				// Clear any old notifications
+				setPendingNotification(false);
 				cancelNotificaiton();
 			}
 		}
@@ -731,7 +824,10 @@ public class ArtifactlyService extends Service implements OnSharedPreferenceChan
 					}
 				}
 			}
-		}	
+		}
+		
+		// Send the notification for an entry that happened while notifications were throttled
+		sendPendingNotification();
 	}
 
 	/*
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.service;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+
+import org.artifactly.client.content.LocationSnapshot;
+import org.artifactly.client.content.ProximityKernel;
+
+/*
+ * Tracks the set of geofences, i.e. locations with artifacts, that the device is inside of,
+ * and reports which ones it entered and exited on each update. An update only evaluates the
+ * locations that LocationSnapshot.getContaining() finds around the new position, plus the ones
+ * it was inside of before. All the other locations were outside before and still are.
+ */
+public class GeofenceTracker {
+
+	/*
+	 * Geofences entered and exited by one update
+	 */
+	public static final class Transition {
+
+		// No geofences entered or exited, e.g. for a skipped update
+		public static final Transition NONE = new Transition(new long[0], new long[0]);
+
+		public final long[] entered;
+		public final long[] exited;
+
+		private Transition(long[] entered, long[] exited) {
+
+			this.entered = entered;
+			this.exited = exited;
+		}
+
+		public boolean hasEntered() {
+
+			return 0 < entered.length;
+		}
+
+		public boolean hasExited() {
+
+			return 0 < exited.length;
+		}
+	}
+
+	// Updates don't look for geofence boundaries farther away than this
+	private static final double MAX_BOUNDARY_DISTANCE = 50000.0d; // 50 km
+
+	// Location IDs of the geofences that the device is inside of
+	private final HashSet<Long> inside = new HashSet<Long>();
+
+	// Kernel and data version of the last update, and the distance from its center to the nearest geofence boundary
+	private ProximityKernel lastKernel;
+	private long lastDataVersion;
+	private double boundaryDistance;
+
+	public GeofenceTracker(long[] insideLocationIds) {
+
+		for(long locationId : insideLocationIds) {
+
+			inside.add(Long.valueOf(locationId));
+		}
+	}
+
+	/*
+	 * Update the state for the kernel's center. Locations without their own radius use the kernel's.
+	 */
+	public Transition update(LocationSnapshot snapshot, ProximityKernel kernel) {
+
+		return update(snapshot, kernel, null, 1);
+	}
+
+	/*
+	 * Same as above, but large location sets are scanned in parallel, see LocationSnapshot.getContaining()
+	 */
+	public synchronized Transition update(LocationSnapshot snapshot, ProximityKernel kernel, ExecutorService executor, int parallelism) {
+
+		HashSet<Long> stillInside = new HashSet<Long>();
+		int[] containing = snapshot.getContaining(kernel, executor, parallelism);
+		long[] entered = new long[containing.length];
+		int enteredCount = 0;
+
+		for(int i : containing) {
+
+			Long locationId = Long.valueOf(snapshot.getId(i));
+			stillInside.add(locationId);
+
+			if(!inside.contains(locationId)) {
+
+				entered[enteredCount++] = locationId.longValue();
+				inside.add(locationId);
+			}
+		}
+
+		// Whatever was inside before and isn't anymore, was exited
+		long[] exited = new long[inside.size() - stillInside.size()];
+		int exitedCount = 0;
+
+		for(Iterator<Long> locationIds = inside.iterator(); locationIds.hasNext();) {
+
+			Long locationId = locationIds.next();
+
+			if(!stillInside.contains(locationId)) {
+
+				exited[exitedCount++] = locationId.longValue();
+				locationIds.remove();
+			}
+		}
+
+		long[] enteredIds = new long[enteredCount];
+		System.arraycopy(entered, 0, enteredIds, 0, enteredCount);
+
+		lastKernel = kernel;
+		lastDataVersion = snapshot.getDataVersion();
+		boundaryDistance = snapshot.getBoundaryDistance(kernel, MAX_BOUNDARY_DISTANCE);
+
+		return new Transition(enteredIds, exited);
+	}
+
+	/*
+	 * Whether an update for the provided position can be skipped, because it can't have crossed a
+	 * geofence boundary since the last update. That is the case while the locations and radius are
+	 * the same, and the distance moved plus the accuracy of the new fix is less than the distance
+	 * to the nearest boundary.
+	 */
+	public synchronized boolean canSkipUpdate(long dataVersion, int radiusInMeters, double latitude, double longitude, float accuracy) {
+
+		if(null == lastKernel || lastDataVersion != dataVersion || lastKernel.getRadiusInMeters() != radiusInMeters) {
+
+			return false;
+		}
+
+		return lastKernel.getDistanceDegrees(latitude, longitude) + accuracy < boundaryDistance;
+	}
+
+	/*
+	 * Distance in meters from the position of the last update to the nearest geofence boundary
+	 */
+	public synchronized double getBoundaryDistance() {
+
+		return (null == lastKernel) ? 0.0d : boundaryDistance;
+	}
+
+	/*
+	 * Leave all the geofences, e.g. when there is no current location anymore
+	 */
+	public synchronized Transition clear() {
+
+		long[] exited = getInside();
+		inside.clear();
+		lastKernel = null;
+
+		return new Transition(new long[0], exited);
+	}
+
+	public synchronized boolean isInside() {
+
+		return !inside.isEmpty();
+	}
+
+	/*
+	 * Location IDs of the geofences that the device is inside of
+	 */
+	public synchronized long[] getInside() {
+
+		long[] locationIds = new long[inside.size()];
+		int i = 0;
+
+		for(Long locationId : inside) {
+
+			locationIds[i++] = locationId.longValue();
+		}
+
+		return locationIds;
+	}
+
+	/*
+	 * Serialized form of the state, see parse()
+	 */
+	public synchronized String getState() {
+
+		StringBuilder state = new StringBuilder();
+
+		for(Long locationId : inside) {
+
+			state.append((0 == state.length()) ? "" : ",").append(locationId);
+		}
+
+		return state.toString();
+	}
+
+	/*
+	 * Parse the location IDs of a serialized state. Invalid IDs are skipped.
+	 */
+	public static long[] parse(String state) {
+
+		if(null == state || 0 == state.length()) {
+
+			return new long[0];
+		}
+
+		String[] values = state.split(",");
+		long[] locationIds = new long[values.length];
+		int count = 0;
+
+		for(String value : values) {
+
+			try {
+
+				locationIds[count] = Long.parseLong(value.trim());
+				count++;
+			}
+			catch(NumberFormatException e) {
+
+				// Skip it
+			}
+		}
+
+		long[] parsedIds = new long[count];
+		System.arraycopy(locationIds, 0, parsedIds, 0, count);
+
+		return parsedIds;
+	}
+}
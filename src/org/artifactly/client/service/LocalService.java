@@ -16,6 +16,11 @@
 
 package org.artifactly.client.service;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.artifactly.client.content.ImportResult;
+
 import android.location.Location;
 
 public interface LocalService {
@@ -32,6 +37,25 @@ public interface LocalService {
 	 */
 	public byte createArtifact(String artifactName, String artifactData, String locationName, String latitude, String longitude);
 	
+	/**
+	 * Imports artifacts from a CSV or JSON stream. The rows are committed in batches.
+	 * 
+	 * @param inputStream CSV or JSON artifact/location rows, see ArtifactImportReader
+	 * @param format DATA_FORMAT_CSV or DATA_FORMAT_JSON
+	 * @param batchSize Number of rows per transaction
+	 * @return import result with the byte mask of every row and the throughput, null on error
+	 */
+	public ImportResult importArtifacts(InputStream inputStream, int format, int batchSize);
+	
+	/**
+	 * Exports all artifacts to a CSV or JSON stream, one row at a time
+	 * 
+	 * @param outputStream Stream to write to. The caller closes it.
+	 * @param format DATA_FORMAT_CSV or DATA_FORMAT_JSON
+	 * @return number of exported rows, -1 on error
+	 */
+	public int exportArtifacts(OutputStream outputStream, int format);
+	
 	/**
 	 * Update an Artifact
 	 * 
@@ -45,6 +69,9 @@ public interface LocalService {
 	public int updateArtifact(String artifactId, String artifactName, String artifactData, String locationId, String locationName);
 	
 	/**
+	 * Update an Artifact's data. The update is queued and written within two seconds, together
+	 * with other queued updates, or when the service is destroyed. Later reads through this
+	 * service always see it. If the process is killed before the write, the update is lost.
 	 * 
 	 * @param artifactId
 	 * @param artifactData
@@ -63,6 +90,18 @@ public interface LocalService {
 	 */
 	public int updateLocation(String locationId, String locationName, String locationLat, String locationLng);
 	
+	/**
+	 * Update a Location's name and radius. Keeping the location's current name is not a collision.
+	 * 
+	 * @param locationId
+	 * @param locationName
+	 * @param locationLat
+	 * @param locationLng
+	 * @param locationRadius radius in meters, or an empty string to use the radius preference
+	 * @return 1 on success, -1 if we have a location name collision, -2 on error
+	 */
+	public int updateLocation(String locationId, String locationName, String locationLat, String locationLng, String locationRadius);
+	
 	/**
 	 * Update a location's coordinates
 	 * 
@@ -88,6 +127,25 @@ public interface LocalService {
 	 */
 	public String getArtifacts();
 	
+	/**
+	 * Get one page of all artifacts, in the same order as getArtifacts(). A location whose
+	 * artifacts span two pages shows up on both pages with the same locId.
+	 * 
+	 * @param continuationKey null for the first page, otherwise the "next" key of the previous page
+	 * @param pageSize Maximum number of artifacts on the page
+	 * @return JSON object with the "locations" of the page and the "next" continuation key, which is null on the last page
+	 */
+	public String getArtifactsPage(String continuationKey, int pageSize);
+	
+	/**
+	 * Full-text search over artifact names and data
+	 * 
+	 * @param query Words to search for. Each word matches whole words or word prefixes.
+	 * @param limit Maximum number of matching artifacts
+	 * @return JSON array of the matching artifacts at each of their locations, best match first
+	 */
+	public String searchArtifacts(String query, int limit);
+	
 	/**
 	 * Get artifacts for current location
 	 * 
@@ -95,6 +153,17 @@ public interface LocalService {
 	 */
 	public String getArtifactsForCurrentLocation();
 	
+	/**
+	 * Get the locations with artifacts that are nearest to the provided point
+	 * 
+	 * @param latitude
+	 * @param longitude
+	 * @param k Maximum number of locations
+	 * @param maxRadius Maximum distance in meters
+	 * @return JSON array of up to k locations with their artifacts and their distance in meters, nearest first
+	 */
+	public String getNearestArtifacts(double latitude, double longitude, int k, int maxRadius);
+	
 	/**
 	 * Delete an artifact
 	 * 
@@ -127,6 +196,16 @@ public interface LocalService {
 	 */
 	public String getLocations();
 	
+	/**
+	 * Get the locations within a radius of the provided point
+	 * 
+	 * @param latitude
+	 * @param longitude
+	 * @param radius Radius in meters
+	 * @return JSON array of the locations within the radius, with their distance in meters, in no particular order
+	 */
+	public String getLocationsNear(double latitude, double longitude, int radius);
+	
 	/**
 	 * Has location any associated artifacts
 	 * 
@@ -135,5 +214,14 @@ public interface LocalService {
 	 * @return true if location has associated artifacts, false otherwise 
 	 */
 	public boolean hasArtifactsAtLocation(String locId);
+	
+	/**
+	 * Get the data version. It increases with every change of the artifacts and locations,
+	 * and is kept across restarts. Queued artifact data updates are written first, so the
+	 * version covers them.
+	 * 
+	 * @return data version, -1 on error
+	 */
+	public long getDataVersion();
 
 }
@@ -16,17 +16,32 @@
 
 package org.artifactly.client.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.artifactly.client.ApplicationConstants;
+import org.artifactly.client.content.ArtifactStore;
 import org.artifactly.client.content.DbAdapter;
+import org.artifactly.client.content.ImportResult;
+import org.artifactly.client.content.LocationSnapshot;
+import org.artifactly.client.content.ProximityKernel;
+import org.artifactly.client.content.StoreCursor;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.database.Cursor;
 import android.location.Location;
 import android.os.Binder;
+import android.util.Base64;
 import android.util.Log;
 
-public class LocalServiceImpl extends Binder implements LocalService {
+public class LocalServiceImpl extends Binder implements LocalService, ApplicationConstants {
 
 	// Logging
 	private static final String PROD_LOG_TAG = "** A.L.S. **";
@@ -37,7 +52,9 @@ public class LocalServiceImpl extends Binder implements LocalService {
 	
 	private ArtifactlyService artifactlyService;
 	
-	private DbAdapter dbAdapter;
+	private ArtifactStore dbAdapter;
+
+	private ArtifactDataWriteQueue artifactDataWriteQueue;
 	
 	// Constructor
 	public LocalServiceImpl(ArtifactlyService artifactlyService) { 
@@ -47,6 +64,7 @@ public class LocalServiceImpl extends Binder implements LocalService {
 		if(null != artifactlyService) {
 		
 			this.dbAdapter = artifactlyService.getDbAdapter();
+			this.artifactDataWriteQueue = artifactlyService.getArtifactDataWriteQueue();
 		}
 	}
 	
@@ -61,6 +79,77 @@ public class LocalServiceImpl extends Binder implements LocalService {
 		return dbAdapter.insert(locationName, latitude, longitude, artifactName, artifactData);
 	}
 
+	// API method
+	public ImportResult importArtifacts(InputStream inputStream, int format, int batchSize) {
+		
+		if(null == dbAdapter || null == inputStream) {
+			
+			return null;
+		}
+		
+		ArtifactImportReader reader = new ArtifactImportReader(inputStream, format);
+		ImportResult result = dbAdapter.bulkInsert(reader, batchSize);
+		
+		if(null != reader.getError()) {
+			
+			Log.w(PROD_LOG_TAG, "Import stopped after " + result.getRowCount() + " rows");
+		}
+		
+		Log.i(PROD_LOG_TAG, "Imported " + result.getRowCount() + " rows in " + result.getElapsedTime() + " ms (" + (int)result.getRowsPerSecond() + " rows/s)");
+		
+		return result;
+	}
+
+	// API method
+	public int exportArtifacts(OutputStream outputStream, int format) {
+		
+		if(null == dbAdapter || null == outputStream) {
+			
+			return -1;
+		}
+		
+		flushArtifactDataUpdates();
+		StoreCursor cursor = dbAdapter.select();
+		if(null == cursor) {
+			
+			return -1;
+		}
+		
+		try {
+			
+			ArtifactExportWriter writer = new ArtifactExportWriter(outputStream, format);
+			
+			// Determine the table column indexes 
+			int artNameColumnIndex = cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_NAME]);
+			int artDataColumnIndex = cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_DATA]);
+			int locNameColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_NAME]);
+			int longitudeColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LONGITUDE]);
+			int latitudeColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LATITUDE]);
+			
+			for(cursor.moveToFirst(); cursor.isAfterLast() == false; cursor.moveToNext()) {
+				
+				writer.writeRow(cursor.getString(artNameColumnIndex),
+						cursor.getString(artDataColumnIndex),
+						cursor.getString(locNameColumnIndex),
+						cursor.getDouble(latitudeColumnIndex),
+						cursor.getDouble(longitudeColumnIndex));
+			}
+			
+			writer.finish();
+			
+			return writer.getRowCount();
+		}
+		catch(IOException e) {
+			
+			Log.e(PROD_LOG_TAG, "Error while exporting artifacts", e);
+			return -1;
+		}
+		finally {
+			
+			cursor.close();
+		}
+	}
+
 	// API method
 	public boolean startLocationTracking() {
 		
@@ -103,12 +192,272 @@ public class LocalServiceImpl extends Binder implements LocalService {
 		return getFilteredArtifacts(ALL_ARTIFACTS_FILTER);
 	}
 
+	// API method
+	public String getArtifactsPage(String continuationKey, int pageSize) {
+		
+		JSONArray locations = new JSONArray();
+		String nextContinuationKey = null;
+		
+		if(null == dbAdapter) {
+			
+			return getPage(locations, nextContinuationKey);
+		}
+		
+		if(pageSize < 1) {
+			
+			pageSize = ARTIFACTS_PAGE_SIZE_DEFAULT;
+		}
+		
+		String afterLocationName = null;
+		String afterArtifactName = null;
+		long afterArtifactId = -1;
+		
+		// The continuation key is the (locName, artName, artId) of the previous page's last row
+		if(null != continuationKey && 0 < continuationKey.length()) {
+			
+			try {
+				
+				JSONArray key = new JSONArray(new String(Base64.decode(continuationKey, Base64.URL_SAFE | Base64.NO_WRAP), "UTF-8"));
+				afterLocationName = key.getString(0);
+				afterArtifactName = key.getString(1);
+				afterArtifactId = key.getLong(2);
+			}
+			catch(Exception e) {
+				
+				Log.e(PROD_LOG_TAG, "Invalid continuation key", e);
+				return getPage(locations, nextContinuationKey);
+			}
+		}
+		
+		flushArtifactDataUpdates();
+		StoreCursor cursor = dbAdapter.selectPage(afterLocationName, afterArtifactName, afterArtifactId, pageSize);
+		if(null == cursor) {
+			
+			return getPage(locations, nextContinuationKey);
+		}
+		
+		if(cursor.moveToFirst()) {
+			
+			putArtifacts(cursor, locations);
+			
+			// A full page means that there might be more rows
+			if(cursor.getCount() == pageSize && cursor.moveToLast()) {
+				
+				JSONArray key = new JSONArray();
+				key.put(cursor.getString(cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_NAME])));
+				key.put(cursor.getString(cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_NAME])));
+				key.put(cursor.getLong(cursor.getColumnIndex(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_ART_ID])));
+				
+				try {
+					
+					nextContinuationKey = Base64.encodeToString(key.toString().getBytes("UTF-8"), Base64.URL_SAFE | Base64.NO_WRAP);
+				}
+				catch(UnsupportedEncodingException e) {
+					
+					Log.e(PROD_LOG_TAG, "Error while encoding continuation key", e);
+				}
+			}
+		}
+		
+		cursor.close();
+		
+		return getPage(locations, nextContinuationKey);
+	}
+
+	// API method
+	public String searchArtifacts(String query, int limit) {
+		
+		// JSON array that holds the result
+		JSONArray artifacts = new JSONArray();
+		
+		if(null == dbAdapter) {
+			
+			return artifacts.toString();
+		}
+		
+		flushArtifactDataUpdates();
+		long[] artifactIds = dbAdapter.searchArtifacts(query, limit);
+		if(0 == artifactIds.length) {
+			
+			return artifacts.toString();
+		}
+		
+		StoreCursor cursor = dbAdapter.select(artifactIds);
+		if(null == cursor) {
+			
+			return artifacts.toString();
+		}
+		
+		// Determine the table column indexes 
+		int artIdColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_ART_ID]);
+		int artNameColumnIndex = cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_NAME]);
+		int artDataColumnIndex = cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_DATA]);
+		int locIdColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_LOC_ID]);
+		int locNameColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_NAME]);
+		int longitudeColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LONGITUDE]);
+		int latitudeColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LATITUDE]);
+		
+		// The cursor isn't in rank order, so we collect the rows per artifact first
+		Map<Long, List<JSONObject>> rows = new HashMap<Long, List<JSONObject>>();
+		
+		for(cursor.moveToFirst(); cursor.isAfterLast() == false; cursor.moveToNext()) {
+			
+			JSONObject artifact = new JSONObject();
+			
+			try {
+				
+				artifact.put(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_ART_ID], cursor.getInt(artIdColumnIndex));
+				artifact.put(DbAdapter.ART_FIELDS[DbAdapter.ART_NAME], cursor.getString(artNameColumnIndex));
+				artifact.put(DbAdapter.ART_FIELDS[DbAdapter.ART_DATA], cursor.getString(artDataColumnIndex));
+				artifact.put(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_LOC_ID], cursor.getInt(locIdColumnIndex));
+				artifact.put(DbAdapter.LOC_FIELDS[DbAdapter.LOC_NAME], cursor.getString(locNameColumnIndex));
+				artifact.put(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LATITUDE], cursor.getDouble(latitudeColumnIndex));
+				artifact.put(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LONGITUDE], cursor.getDouble(longitudeColumnIndex));
+			}
+			catch (JSONException e) {
+				
+				Log.e(PROD_LOG_TAG, "Error while populating JSONObject", e);
+			}
+			
+			Long artifactId = Long.valueOf(cursor.getLong(artIdColumnIndex));
+			List<JSONObject> artifactRows = rows.get(artifactId);
+			
+			if(null == artifactRows) {
+				
+				artifactRows = new ArrayList<JSONObject>(1);
+				rows.put(artifactId, artifactRows);
+			}
+			
+			artifactRows.add(artifact);
+		}
+		
+		cursor.close();
+		
+		for(long artifactId : artifactIds) {
+			
+			List<JSONObject> artifactRows = rows.get(Long.valueOf(artifactId));
+			
+			if(null != artifactRows) {
+				
+				for(JSONObject artifact : artifactRows) {
+					
+					artifacts.put(artifact);
+				}
+			}
+		}
+		
+		return artifacts.toString();
+	}
+
 	// API method
 	public String getArtifactsForCurrentLocation() {
 		
 		return getFilteredArtifacts(CURRENT_LOCATION_ARTIFACTS_FILTER);
 	}
 
+	// API method
+	public String getNearestArtifacts(double latitude, double longitude, int k, int maxRadius) {
+		
+		// JSON array that holds the result
+		JSONArray locations = new JSONArray();
+		
+		if(null == dbAdapter || k < 1) {
+			
+			return locations.toString();
+		}
+		
+		flushArtifactDataUpdates();
+		
+		// The k nearest locations come from the in-memory snapshot, nearest first
+		LocationSnapshot snapshot = dbAdapter.getLocationSnapshot();
+		ProximityKernel kernel = new ProximityKernel(latitude, longitude, maxRadius);
+		int[] nearest = snapshot.getNearest(kernel, k);
+		
+		if(0 == nearest.length) {
+			
+			return locations.toString();
+		}
+		
+		long[] locationIds = new long[nearest.length];
+		
+		for(int i = 0; i < nearest.length; i++) {
+			
+			locationIds[i] = snapshot.getId(nearest[i]);
+		}
+		
+		StoreCursor cursor = dbAdapter.selectAtLocations(locationIds);
+		if(null == cursor) {
+			
+			return locations.toString();
+		}
+		
+		// Determine the table column indexes 
+		int artIdColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_ART_ID]);
+		int artNameColumnIndex = cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_NAME]);
+		int artDataColumnIndex = cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_DATA]);
+		int locIdColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_LOC_ID]);
+		int locNameColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_NAME]);
+		
+		// The cursor isn't in distance order, so we collect the locations first
+		Map<Long, JSONObject> locationsById = new HashMap<Long, JSONObject>();
+		
+		for(cursor.moveToFirst(); cursor.isAfterLast() == false; cursor.moveToNext()) {
+			
+			Long locationId = Long.valueOf(cursor.getLong(locIdColumnIndex));
+			
+			try {
+				
+				JSONObject location = locationsById.get(locationId);
+				
+				if(null == location) {
+					
+					location = new JSONObject();
+					location.put(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_LOC_ID], cursor.getInt(locIdColumnIndex));
+					location.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_NAME], cursor.getString(locNameColumnIndex));
+					location.put("artifacts", new JSONArray());
+					locationsById.put(locationId, location);
+				}
+				
+				JSONObject artifact = new JSONObject();
+				artifact.put(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_ART_ID], cursor.getInt(artIdColumnIndex));
+				artifact.put(DbAdapter.ART_FIELDS[DbAdapter.ART_NAME], cursor.getString(artNameColumnIndex));
+				artifact.put(DbAdapter.ART_FIELDS[DbAdapter.ART_DATA], cursor.getString(artDataColumnIndex));
+				location.getJSONArray("artifacts").put(artifact);
+			}
+			catch (JSONException e) {
+				
+				Log.e(PROD_LOG_TAG, "Error while populating JSONObject", e);
+			}
+		}
+		
+		cursor.close();
+		
+		for(int i = 0; i < nearest.length; i++) {
+			
+			JSONObject location = locationsById.get(Long.valueOf(locationIds[i]));
+			
+			if(null == location) {
+				
+				continue;
+			}
+			
+			try {
+				
+				location.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LATITUDE], snapshot.getLatitude(nearest[i]));
+				location.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LONGITUDE], snapshot.getLongitude(nearest[i]));
+				location.put(ArtifactlyService.DISTANCE, Math.round(snapshot.getDistance(nearest[i], kernel)));
+			}
+			catch (JSONException e) {
+				
+				Log.e(PROD_LOG_TAG, "Error while populating JSONObject", e);
+			}
+			
+			locations.put(location);
+		}
+		
+		return locations.toString();
+	}
+
 	// API method
 	public int deleteArtifact(String artifactId, String locationId) {
 		
@@ -117,6 +466,7 @@ public class LocalServiceImpl extends Binder implements LocalService {
 			return -1;
 		}
 		
+		flushArtifactDataUpdates();
 		return dbAdapter.deleteArtifact(artifactId, locationId);
 	}
 	
@@ -141,8 +491,10 @@ public class LocalServiceImpl extends Binder implements LocalService {
 			return artifact.toString();
 		}
 		
+		flushArtifactDataUpdates();
+
 		// Getting all the locations
-		Cursor cursor = dbAdapter.select(artId, locId);
+		StoreCursor cursor = dbAdapter.select(artId, locId);
 		if(null == cursor) {
 			
 			return artifact.toString();
@@ -178,8 +530,8 @@ public class LocalServiceImpl extends Binder implements LocalService {
 			artifact.put(DbAdapter.ART_FIELDS[DbAdapter.ART_DATA], cursor.getString(artDataColumnIndex));
 			artifact.put(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_LOC_ID], cursor.getInt(locIdColumnIndex));
 			artifact.put(DbAdapter.LOC_FIELDS[DbAdapter.LOC_NAME], cursor.getString(locNameColumnIndex));
-			artifact.put(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LATITUDE], cursor.getString(latitudeColumnIndex));
-			artifact.put(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LONGITUDE], cursor.getString(longitudeColumnIndex));
+			artifact.put(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LATITUDE], cursor.getDouble(latitudeColumnIndex));
+			artifact.put(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LONGITUDE], cursor.getDouble(longitudeColumnIndex));
 		}
 		catch (JSONException e) {
 			
@@ -203,7 +555,7 @@ public class LocalServiceImpl extends Binder implements LocalService {
 		}
 		
 		// Getting all the locations
-		Cursor cursor = dbAdapter.getLocations();
+		StoreCursor cursor = dbAdapter.getLocations();
 		if(null == cursor) {
 			
 			return items.toString();
@@ -218,26 +570,83 @@ public class LocalServiceImpl extends Binder implements LocalService {
 			return items.toString();
 		}
 
+		putLocations(items, cursor, null);
+		cursor.close();
+
+		if(items.length() == 0) {
+
+			return null;
+		}
+		else {
+	
+			return items.toString();
+		}
+	}
+	
+	// API method
+	public String getLocationsNear(double latitude, double longitude, int radius) {
+		
+		// JSON array that holds the result
+		JSONArray items = new JSONArray();
+		
+		if(null == dbAdapter || radius < 1) {
+			
+			return items.toString();
+		}
+		
+		// The bounding box query returns a superset of the locations within the radius
+		StoreCursor cursor = dbAdapter.getLocationsNear(latitude, longitude, radius);
+		if(null == cursor) {
+			
+			return items.toString();
+		}
+		
+		if(cursor.moveToFirst()) {
+			
+			putLocations(items, cursor, new ProximityKernel(latitude, longitude, radius));
+		}
+		
+		cursor.close();
+		
+		return items.toString();
+	}
+	
+	// Helper method that adds the cursor's locations, or only the ones within the kernel's radius and their distance
+	private void putLocations(JSONArray items, StoreCursor cursor, ProximityKernel kernel) {
+		
 		// Determine the table column indexes
 		int locIdColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_ID]);
 		int locNameColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_NAME]);
 		int locLatColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LATITUDE]);
 		int locLngColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_LONGITUDE]);
+		int locRadiusColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_FIELDS[DbAdapter.LOC_RADIUS]);
 		
-		/*
-		 *  Iterating over all result and calculate the distance between
-		 *  radius, we notify the user that there is an artifact.
-		 */
 		for(;cursor.isAfterLast() == false; cursor.moveToNext()) {
 
+			double latitude = cursor.getDouble(locLatColumnIndex);
+			double longitude = cursor.getDouble(locLngColumnIndex);
+			
+			if(null != kernel && !kernel.isWithinRadiusDegrees(latitude, longitude)) {
+				
+				continue;
+			}
+			
 			JSONObject item = new JSONObject();
 
 			try {
 				
 				item.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_ID], cursor.getInt(locIdColumnIndex));
 				item.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_NAME], cursor.getString(locNameColumnIndex));
-				item.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LATITUDE], cursor.getString(locLatColumnIndex));
-				item.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LONGITUDE], cursor.getString(locLngColumnIndex));
+				item.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LATITUDE], latitude);
+				item.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LONGITUDE], longitude);
+				
+				// 0 means that the location uses the radius preference
+				item.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_RADIUS], cursor.getInt(locRadiusColumnIndex));
+				
+				if(null != kernel) {
+					
+					item.put(ArtifactlyService.DISTANCE, Math.round(kernel.getDistanceDegrees(latitude, longitude)));
+				}
 			}
 			catch (JSONException e) {
 				
@@ -246,17 +655,6 @@ public class LocalServiceImpl extends Binder implements LocalService {
 
 			items.put(item);
 		}
-
-		cursor.close();
-
-		if(items.length() == 0) {
-
-			return null;
-		}
-		else {
-	
-			return items.toString();
-		}
 	}
 	
 	// Helper method
@@ -270,8 +668,21 @@ public class LocalServiceImpl extends Binder implements LocalService {
 			return locations.toString();
 		}
 		
-		// Getting all the locations
-		Cursor cursor = dbAdapter.select();
+		flushArtifactDataUpdates();
+
+		StoreCursor cursor = null;
+		
+		if(CURRENT_LOCATION_ARTIFACTS_FILTER == filter) {
+			
+			// Getting the locations whose radius contains the current location
+			cursor = dbAdapter.selectAtLocations(artifactlyService.getLocationIdsForCurrentLocation());
+		}
+		else {
+			
+			// Getting all the locations
+			cursor = dbAdapter.select();
+		}
+		
 		if(null == cursor) {
 			
 			return locations.toString();
@@ -286,6 +697,40 @@ public class LocalServiceImpl extends Binder implements LocalService {
 			return locations.toString();
 		}
 
+		putArtifacts(cursor, locations);
+		cursor.close();
+
+		if(locations.length() == 0) {
+
+			return null;
+		}
+		else {
+	
+			return locations.toString();
+		}
+	}
+
+	// Helper method that builds the JSON page
+	private String getPage(JSONArray locations, String nextContinuationKey) {
+		
+		JSONObject page = new JSONObject();
+		
+		try {
+			
+			page.put("locations", locations);
+			page.put("next", (null == nextContinuationKey) ? JSONObject.NULL : nextContinuationKey);
+		}
+		catch (JSONException e) {
+			
+			Log.e(PROD_LOG_TAG, "Error while populating JSONObject", e);
+		}
+		
+		return page.toString();
+	}
+
+	// Helper method that adds the cursor rows, grouped by location, to the provided JSON array
+	private void putArtifacts(StoreCursor cursor, JSONArray locations) {
+		
 		// Determine the table column indexes 
 		int artIdColumnIndex = cursor.getColumnIndex(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_ART_ID]);
 		int artNameColumnIndex = cursor.getColumnIndex(DbAdapter.ART_FIELDS[DbAdapter.ART_NAME]);
@@ -300,22 +745,6 @@ public class LocalServiceImpl extends Binder implements LocalService {
 		
 		for(;cursor.isAfterLast() == false; cursor.moveToNext()) {
 			
-			switch(filter) {
-				case CURRENT_LOCATION_ARTIFACTS_FILTER:
-					// If the current location is not nearby, we don't add it
-					String lat = cursor.getString(latitudeColumnIndex).trim();
-					String lng = cursor.getString(longitudeColumnIndex).trim();
-					if(!artifactlyService.isNearbyCurrentLocation(lat, lng)) {
-						continue;
-					}
-					break;
-				case ALL_ARTIFACTS_FILTER:
-					// Don't do anything
-					break;
-				default:
-					// Don't do anything
-			}
-			
 			// Get the location
 			String locationName = cursor.getString(locNameColumnIndex);
 			
@@ -328,8 +757,8 @@ public class LocalServiceImpl extends Binder implements LocalService {
 					location = new JSONObject();
 					location.put(DbAdapter.LOC_ART_FIELDS[DbAdapter.FK_LOC_ID], cursor.getInt(locIdColumnIndex));
 					location.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_NAME], cursor.getString(locNameColumnIndex));
-					location.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LATITUDE], cursor.getString(latitudeColumnIndex));
-					location.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LONGITUDE], cursor.getString(longitudeColumnIndex));
+					location.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LATITUDE], cursor.getDouble(latitudeColumnIndex));
+					location.put(DbAdapter.LOC_FIELDS_AS[DbAdapter.LOC_LONGITUDE], cursor.getDouble(longitudeColumnIndex));
 					location.put("artifacts", new JSONArray());
 					locations.put(location);
 				}
@@ -347,17 +776,6 @@ public class LocalServiceImpl extends Binder implements LocalService {
 				Log.e(PROD_LOG_TAG, "Error while populating JSONObject", e);
 			}
 		}
-
-		cursor.close();
-
-		if(locations.length() == 0) {
-
-			return null;
-		}
-		else {
-	
-			return locations.toString();
-		}
 	}
 
 	public int updateArtifact(String artifactId, String artifactName, String artifactData, String locationId, String locationName) {
@@ -367,6 +785,7 @@ public class LocalServiceImpl extends Binder implements LocalService {
 			return -2;
 		}
 		
+		flushArtifactDataUpdates();
 		return dbAdapter.updateArtifact(artifactId, artifactName, artifactData, locationId, locationName);
 	}
 
@@ -378,7 +797,12 @@ public class LocalServiceImpl extends Binder implements LocalService {
 			return -1;
 		}
 		
-		return dbAdapter.updateArtifactData(artifactId, artifactData);
+		if(null == artifactDataWriteQueue) {
+
+			return dbAdapter.updateArtifactData(artifactId, artifactData);
+		}
+
+		return artifactDataWriteQueue.enqueue(artifactId, artifactData);
 	}
 	
 	public int updateLocation(String locationId, String locationName, String locationLat, String locationLng) {
@@ -391,6 +815,16 @@ public class LocalServiceImpl extends Binder implements LocalService {
 		return dbAdapter.updateLocation(locationId, locationName, locationLat, locationLng);
 	}
 	
+	public int updateLocation(String locationId, String locationName, String locationLat, String locationLng, String locationRadius) {
+		
+		if(null == dbAdapter) {
+			
+			return -2;
+		}
+		
+		return dbAdapter.updateLocation(locationId, locationName, locationLat, locationLng, locationRadius);
+	}
+	
 	public int updateLocationCoodinates(String locationId, String locationName, String locationLat, String locationLng) {
 		
 		if(null == dbAdapter) {
@@ -410,4 +844,28 @@ public class LocalServiceImpl extends Binder implements LocalService {
 		
 		return dbAdapter.hasArtifactsAtLocation(locId);
 	}
+
+	public long getDataVersion() {
+
+		if(null == dbAdapter) {
+
+			return -1;
+		}
+
+		flushArtifactDataUpdates();
+
+		return dbAdapter.getDataVersion();
+	}
+
+	/*
+	 * Helper method that writes the queued artifact data updates, so that reads see them and
+	 * they don't overwrite later changes
+	 */
+	private void flushArtifactDataUpdates() {
+
+		if(null != artifactDataWriteQueue) {
+
+			artifactDataWriteQueue.flush();
+		}
+	}
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.service;
+
+/*
+ * The rules that decide which location fixes replace the current location, and when a
+ * notification may be sent. They only use primitives, so that ArtifactlyService and the
+ * offline TrajectoryReplay apply exactly the same rules.
+ */
+public class LocationUpdatePolicy {
+
+	// Accuracy of a fix that doesn't have one
+	public static final float NO_ACCURACY = -1.0f;
+
+	// The new location can only be older than the current location plus this delta
+	// in order for it to be considered slightly inaccurate 
+	public static final long LOCATION_TIME_ALLOWED_DELTA = 300000; // 5 min
+
+	// Max allowed location accuracy delta
+	public static final int LOCATION_MAX_ACCURACY_DELTA = 2000; // 2 km
+
+	// Minimum time between two notifications
+	public static final long LAST_SEND_NOTIFICATION_TIME_DELTA = 60000; // 1 min
+
+	/*
+	 * Whether a new fix is more accurate than the current one, and should replace it. The accuracies
+	 * are in meters, or NO_ACCURACY, and the times are the fix times in milliseconds.
+	 */
+	public static boolean isMoreAccurate(float currentAccuracy, long currentTime, float newAccuracy, long newTime, int radiusInMeters) {
+
+		boolean currentHasAccuracy = currentAccuracy >= 0.0f;
+		boolean newHasAccuracy = newAccuracy >= 0.0f;
+
+		// Check if the new location's accuracy lies within the defined search radius
+		if(newHasAccuracy &&
+		   ((int)newAccuracy) > radiusInMeters &&
+		   ((int)newAccuracy) > LOCATION_MAX_ACCURACY_DELTA) {
+
+			return false;
+		}
+
+		boolean isMoreAccurate = false;
+
+		// Check if the new location is more accurate 
+		if(currentHasAccuracy && newHasAccuracy) {
+
+			float accuracyDelta = currentAccuracy - newAccuracy;
+			isMoreAccurate = accuracyDelta >= 0;
+		}
+
+		// Check if the new location is more current in terms of location fix time
+		long locationTimeDelta = currentTime - newTime;
+		boolean isMoreCurrent = locationTimeDelta <= 0;
+
+		if(isMoreAccurate && isMoreCurrent) {
+
+			return true;
+		}
+
+		boolean isSlightlyLessCurrent = (locationTimeDelta > 0 && locationTimeDelta < LOCATION_TIME_ALLOWED_DELTA);
+
+		if(isMoreAccurate && isSlightlyLessCurrent) {
+
+			return true;
+		}
+
+		boolean isSlightlyLessAccurate = (newHasAccuracy && newAccuracy <= LOCATION_MAX_ACCURACY_DELTA);
+
+		if(isSlightlyLessAccurate && isMoreCurrent) {
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/*
+	 * Whether a notification may be sent at the provided time, given the time of the last one
+	 */
+	public static boolean canSendNotification(long lastSendNotificationTime, long time, long notificationTimeDelta) {
+
+		return (lastSendNotificationTime + notificationTimeDelta) <= time;
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.artifactly.client.content.LocationSnapshot;
+import org.artifactly.client.content.ProximityKernel;
+
+/*
+ * Small LRU cache of the IDs of the locations whose radius contains a position, keyed by the
+ * position's grid cell, the radius, and the data version. The cells are a quarter of the radius
+ * wide. A result is only cached if it holds for the whole cell, i.e. if the nearest geofence
+ * boundary is farther away from the computed position than any point of its cell. Otherwise the
+ * cell stays uncached, so a hit is always the exact result. Entries of older data versions are
+ * dropped as soon as a newer version is seen.
+ */
+public class ProximityCache {
+
+	private static final double METERS_PER_DEGREE_LATITUDE = 111320.0d;
+	private static final double MIN_CELL_SIZE = 10.0d; // 10 m
+	private static final int RADIUS_CELLS = 4;
+
+	// Covers the approximation of the farthest point of a cell by its farthest corner
+	private static final double CELL_MARGIN = 1.01d;
+
+	/*
+	 * Grid cell of a position, for one radius
+	 */
+	private static final class Cell {
+
+		final long row;
+		final long column;
+		final int radiusInMeters;
+
+		Cell(long row, long column, int radiusInMeters) {
+
+			this.row = row;
+			this.column = column;
+			this.radiusInMeters = radiusInMeters;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+
+			if(!(object instanceof Cell)) {
+
+				return false;
+			}
+
+			Cell cell = (Cell)object;
+			return row == cell.row && column == cell.column && radiusInMeters == cell.radiusInMeters;
+		}
+
+		@Override
+		public int hashCode() {
+
+			return (int)(row * 31 + column) * 31 + radiusInMeters;
+		}
+	}
+
+	private final LinkedHashMap<Cell, long[]> entries;
+	private long dataVersion = -1;
+	private long hitCount = 0;
+	private long missCount = 0;
+
+	public ProximityCache(final int capacity) {
+
+		entries = new LinkedHashMap<Cell, long[]>(capacity, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Cell, long[]> eldest) {
+
+				return size() > capacity;
+			}
+		};
+	}
+
+	/*
+	 * Returns the cached location IDs for the provided position, or null on a miss
+	 */
+	public synchronized long[] get(long dataVersion, int radiusInMeters, double latitude, double longitude) {
+
+		invalidate(dataVersion);
+
+		long[] locationIds = entries.get(getCell(radiusInMeters, latitude, longitude, null));
+
+		if(null == locationIds) {
+
+			missCount++;
+		}
+		else {
+
+			hitCount++;
+		}
+
+		return locationIds;
+	}
+
+	/*
+	 * Cache the location IDs that were computed for the kernel's center and radius, if they hold
+	 * for the whole cell of the provided position, which must be the kernel's center
+	 */
+	public synchronized void put(LocationSnapshot snapshot, ProximityKernel kernel, double latitude, double longitude, long[] locationIds) {
+
+		invalidate(snapshot.getDataVersion());
+
+		if(snapshot.getDataVersion() != dataVersion) {
+
+			return;
+		}
+
+		double[] bounds = new double[4];
+		Cell cell = getCell(kernel.getRadiusInMeters(), latitude, longitude, bounds);
+
+		// Distance to the farthest corner of the cell
+		double reach = 0.0d;
+
+		for(int latitudeBound = 0; latitudeBound < 2; latitudeBound++) {
+
+			for(int longitudeBound = 2; longitudeBound < 4; longitudeBound++) {
+
+				reach = Math.max(reach, kernel.getDistanceDegrees(bounds[latitudeBound], bounds[longitudeBound]));
+			}
+		}
+
+		reach = reach * CELL_MARGIN + 1.0d;
+
+		if(snapshot.getBoundaryDistance(kernel, 2.0d * reach) > reach) {
+
+			entries.put(cell, locationIds);
+		}
+	}
+
+	public synchronized void clear() {
+
+		entries.clear();
+	}
+
+	public synchronized long getHitCount() {
+
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+
+		return missCount;
+	}
+
+	/*
+	 * Helper method that drops all the entries when the data version changes. Older versions are ignored.
+	 */
+	private void invalidate(long newDataVersion) {
+
+		if(newDataVersion > dataVersion) {
+
+			entries.clear();
+			dataVersion = newDataVersion;
+		}
+	}
+
+	/*
+	 * Helper method that returns the cell of the provided position. If bounds isn't null, it's set to the
+	 * {minLatitude, maxLatitude, minLongitude, maxLongitude} of the cell. The cells are never narrower than
+	 * their height, so the longitude step grows with the latitude of the row.
+	 */
+	private static Cell getCell(int radiusInMeters, double latitude, double longitude, double[] bounds) {
+
+		double latitudeStep = Math.max(MIN_CELL_SIZE, (double)radiusInMeters / RADIUS_CELLS) / METERS_PER_DEGREE_LATITUDE;
+		long row = (long)Math.floor(latitude / latitudeStep);
+		double minLatitude = row * latitudeStep;
+		double maxLatitude = minLatitude + latitudeStep;
+
+		double maxAbsLatitude = Math.min(90.0d, Math.max(Math.abs(minLatitude), Math.abs(maxLatitude)));
+		double cosLatitude = Math.cos(Math.toRadians(maxAbsLatitude));
+		double longitudeStep = (cosLatitude > latitudeStep / 360.0d) ? Math.min(360.0d, latitudeStep / cosLatitude) : 360.0d;
+		long column = (long)Math.floor((longitude + 180.0d) / longitudeStep);
+
+		if(null != bounds) {
+
+			bounds[0] = Math.max(-90.0d, minLatitude);
+			bounds[1] = Math.min(90.0d, maxLatitude);
+			bounds[2] = column * longitudeStep - 180.0d;
+			bounds[3] = Math.min(180.0d, bounds[2] + longitudeStep);
+		}
+
+		return new Cell(row, column, radiusInMeters);
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.artifactly.client.content.LocationSnapshot;
+import org.artifactly.client.content.ProximityKernel;
+
+/*
+ * Offline replay of a trajectory through the proximity logic of ArtifactlyService. The fixes
+ * go through the same LocationUpdatePolicy rules and GeofenceTracker as in the service, and the
+ * replay returns the events that the service would have produced, so that the constants can be
+ * tuned against recorded traces. The notification throttling uses the fix times instead of the
+ * time the service receives them, and an entry during the throttle is notified at the first
+ * later fix that the throttle allows. The GPS fallback for stale fixes isn't replayed.
+ */
+public class TrajectoryReplay {
+
+	/*
+	 * One timestamped location fix
+	 */
+	public static final class Fix {
+
+		public final long time;
+		public final double latitude;
+		public final double longitude;
+
+		// In meters, or LocationUpdatePolicy.NO_ACCURACY
+		public final float accuracy;
+
+		public Fix(long time, double latitude, double longitude, float accuracy) {
+
+			this.time = time;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.accuracy = accuracy;
+		}
+	}
+
+	/*
+	 * One event, at the time of the fix that caused it
+	 */
+	public static final class Event {
+
+		public static final int ENTER = 0;
+		public static final int EXIT = 1;
+		public static final int NOTIFY = 2;
+		public static final int CANCEL = 3;
+
+		public final int type;
+		public final long time;
+
+		// Location ID for ENTER and EXIT events, -1 otherwise
+		public final long locationId;
+
+		private Event(int type, long time, long locationId) {
+
+			this.type = type;
+			this.time = time;
+			this.locationId = locationId;
+		}
+
+		@Override
+		public String toString() {
+
+			return time + " " + ((ENTER == type) ? "ENTER " + locationId : (EXIT == type) ? "EXIT " + locationId : (NOTIFY == type) ? "NOTIFY" : "CANCEL");
+		}
+	}
+
+	private final LocationSnapshot snapshot;
+	private final int radiusInMeters;
+	private final long notificationTimeDelta;
+
+	// Counters of the last replay
+	private int acceptedFixCount = 0;
+	private int evaluatedFixCount = 0;
+
+	/*
+	 * The radius in meters applies to the locations without their own radius
+	 */
+	public TrajectoryReplay(LocationSnapshot snapshot, int radiusInMeters, long notificationTimeDelta) {
+
+		this.snapshot = snapshot;
+		this.radiusInMeters = radiusInMeters;
+		this.notificationTimeDelta = notificationTimeDelta;
+	}
+
+	public TrajectoryReplay(LocationSnapshot snapshot, int radiusInMeters) {
+
+		this(snapshot, radiusInMeters, LocationUpdatePolicy.LAST_SEND_NOTIFICATION_TIME_DELTA);
+	}
+
+	/*
+	 * Replay the fixes, in order, starting outside of all the locations. Returns the events in order.
+	 */
+	public List<Event> replay(List<Fix> fixes) {
+
+		List<Event> events = new ArrayList<Event>();
+		GeofenceTracker geofenceTracker = new GeofenceTracker(new long[0]);
+		Fix currentFix = null;
+		long lastSendNotificationTime = 0;
+		boolean hasPendingNotification = false;
+
+		acceptedFixCount = 0;
+		evaluatedFixCount = 0;
+
+		for(Fix fix : fixes) {
+
+			// Don't handle consecutive location changes, and only take more accurate fixes
+			boolean isSameLocation = null != currentFix && currentFix.latitude == fix.latitude && currentFix.longitude == fix.longitude;
+
+			if(!isSameLocation && (null == currentFix || LocationUpdatePolicy.isMoreAccurate(currentFix.accuracy, currentFix.time, fix.accuracy, fix.time, radiusInMeters))) {
+
+				currentFix = fix;
+				acceptedFixCount++;
+
+				if(!geofenceTracker.canSkipUpdate(snapshot.getDataVersion(), radiusInMeters, fix.latitude, fix.longitude, Math.max(0.0f, fix.accuracy))) {
+
+					evaluatedFixCount++;
+					GeofenceTracker.Transition transition = geofenceTracker.update(snapshot, new ProximityKernel(fix.latitude, fix.longitude, radiusInMeters));
+
+					for(long locationId : transition.entered) {
+
+						events.add(new Event(Event.ENTER, fix.time, locationId));
+					}
+
+					for(long locationId : transition.exited) {
+
+						events.add(new Event(Event.EXIT, fix.time, locationId));
+					}
+
+					if(transition.hasEntered()) {
+
+						hasPendingNotification = true;
+					}
+					else if(transition.hasExited() && !geofenceTracker.isInside()) {
+
+						hasPendingNotification = false;
+						events.add(new Event(Event.CANCEL, fix.time, -1));
+					}
+				}
+			}
+
+			// Send the notification for an entry once the throttle allows it, as long as we are still inside
+			if(hasPendingNotification && geofenceTracker.isInside() && LocationUpdatePolicy.canSendNotification(lastSendNotificationTime, fix.time, notificationTimeDelta)) {
+
+				hasPendingNotification = false;
+				lastSendNotificationTime = fix.time;
+				events.add(new Event(Event.NOTIFY, fix.time, -1));
+			}
+		}
+
+		return events;
+	}
+
+	/*
+	 * Number of fixes that replaced the current location in the last replay
+	 */
+	public int getAcceptedFixCount() {
+
+		return acceptedFixCount;
+	}
+
+	/*
+	 * Number of fixes that the geofences were evaluated for in the last replay, the others were
+	 * too close to the previous evaluation to cross a geofence boundary
+	 */
+	public int getEvaluatedFixCount() {
+
+		return evaluatedFixCount;
+	}
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.test.InstrumentationTestRunner;
+
+/*
+ * Test runner that makes the context of the application under test available to tests that
+ * don't extend AndroidTestCase, e.g. the ArtifactStore conformance tests, which also run on
+ * a plain JVM.
+ */
+public class ArtifactlyTestRunner extends InstrumentationTestRunner {
+
+	private static volatile Context testTargetContext = null;
+
+	@Override
+	public void onCreate(Bundle arguments) {
+
+		testTargetContext = getTargetContext();
+		super.onCreate(arguments);
+	}
+
+	public static Context getTestTargetContext() {
+
+		return testTargetContext;
+	}
+}
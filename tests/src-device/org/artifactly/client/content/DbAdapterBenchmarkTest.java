@@ -0,0 +1,62 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import android.util.Log;
+
+/*
+ * Runs ArtifactStoreBenchmark against the SQLite and the in-memory engine on the device, and
+ * logs both reports for comparison
+ */
+public class DbAdapterBenchmarkTest extends TestCase {
+
+	private static final String PROD_LOG_TAG = "** A.S.B. **";
+
+	private static final int LOCATION_COUNT = 2000;
+	private static final int ARTIFACTS_PER_LOCATION = 3;
+
+	public void testCompareEngines() {
+
+		ArtifactStoreBenchmark benchmark = new ArtifactStoreBenchmark(LOCATION_COUNT, ARTIFACTS_PER_LOCATION, 42);
+		DbAdapter dbAdapter = DbAdapterConformanceTest.createDbAdapter();
+
+		try {
+
+			log("DbAdapter", benchmark.run(dbAdapter));
+		}
+		finally {
+
+			DbAdapterConformanceTest.closeDbAdapter(dbAdapter);
+		}
+
+		log("MemoryArtifactStore", benchmark.run(new MemoryArtifactStore()));
+	}
+
+	private static void log(String engine, List<String> report) {
+
+		Log.i(PROD_LOG_TAG, engine + ", " + LOCATION_COUNT + " locations, " + ARTIFACTS_PER_LOCATION + " artifacts each");
+
+		for(String line : report) {
+
+			Log.i(PROD_LOG_TAG, line);
+		}
+	}
+}
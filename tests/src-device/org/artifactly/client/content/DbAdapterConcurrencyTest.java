@@ -0,0 +1,348 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package org.artifactly.client.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import junit.framework.TestCase;
+
+import android.util.Log;
+
+/*
+ * Stress test of DbAdapter with reader threads running alongside a writer, as the UI lists and
+ * the proximity scans do alongside the write-behind queue and imports. Readers must never fail,
+ * and must never see fewer rows than before, since the writer only adds rows. The read latencies
+ * are logged, without and with the writer, because what is acceptable depends on the device.
+ */
+public class DbAdapterConcurrencyTest extends TestCase {
+
+	private static final String PROD_LOG_TAG = "** A.S.C. **";
+
+	private static final int LOCATION_COUNT = 500;
+	private static final int ARTIFACTS_PER_LOCATION = 2;
+	private static final int READER_THREAD_COUNT = 3;
+
+	private static final long IDLE_DURATION = 3000; // 3 sec
+	private static final long LOAD_DURATION = 10000; // 10 sec
+
+	private static final String[] OPERATIONS = {"select", "getLocationsNear", "searchArtifacts", "getLocationSnapshot"};
+
+	private static final String[] WORDS = {"milk", "eggs", "bread", "coffee", "tea", "apples", "keys", "parcel"};
+
+	private DbAdapter dbAdapter;
+
+	// Coordinates of the locations, by location number
+	private final String[][] coordinates = new String[LOCATION_COUNT][];
+
+	// Failures in any of the threads
+	private final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+
+	private volatile boolean isStopped = false;
+
+	/*
+	 * Runs the read mix in a loop until stopped, and records the latency of every read
+	 */
+	private class Reader implements Runnable {
+
+		private final Random random;
+
+		// Read latencies in nanoseconds, by operation
+		private final long[][] latencies = new long[OPERATIONS.length][1024];
+		private final int[] counts = new int[OPERATIONS.length];
+
+		private int lastRowCount = 0;
+
+		Reader(long seed) {
+
+			random = new Random(seed);
+		}
+
+		public void run() {
+
+			try {
+
+				while(!isStopped) {
+
+					int operation = random.nextInt(OPERATIONS.length);
+					long startTime = System.nanoTime();
+					read(operation);
+					record(operation, System.nanoTime() - startTime);
+				}
+			}
+			catch(Throwable t) {
+
+				errors.add(t);
+			}
+		}
+
+		private void read(int operation) {
+
+			switch(operation) {
+
+				case 0:
+					int rowCount = count(dbAdapter.select());
+
+					if(rowCount < lastRowCount) {
+
+						throw new IllegalStateException("Read " + rowCount + " rows after " + lastRowCount);
+					}
+
+					lastRowCount = rowCount;
+					break;
+				case 1:
+					count(dbAdapter.getLocationsNear(37.0d + random.nextDouble(), -122.5d + random.nextDouble(), 2000));
+					break;
+				case 2:
+					dbAdapter.searchArtifacts(WORDS[random.nextInt(WORDS.length)], 20);
+					break;
+				default:
+					dbAdapter.getLocationSnapshot();
+					break;
+			}
+		}
+
+		private void record(int operation, long latency) {
+
+			if(counts[operation] == latencies[operation].length) {
+
+				long[] grownLatencies = new long[2 * counts[operation]];
+				System.arraycopy(latencies[operation], 0, grownLatencies, 0, counts[operation]);
+				latencies[operation] = grownLatencies;
+			}
+
+			latencies[operation][counts[operation]++] = latency;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+
+		super.setUp();
+		dbAdapter = DbAdapterConformanceTest.createDbAdapter();
+
+		Random random = new Random(42);
+		List<String[]> rows = new ArrayList<String[]>();
+
+		for(int i = 0; i < LOCATION_COUNT; i++) {
+
+			coordinates[i] = new String[] {String.valueOf(37.0d + random.nextDouble()), String.valueOf(-122.5d + random.nextDouble())};
+
+			for(int j = 0; j < ARTIFACTS_PER_LOCATION; j++) {
+
+				rows.add(new String[] {"Artifact " + i + "." + j, getText(random), "Location " + i, coordinates[i][0], coordinates[i][1]});
+			}
+		}
+
+		dbAdapter.bulkInsert(rows.iterator(), 500);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		DbAdapterConformanceTest.closeDbAdapter(dbAdapter);
+		dbAdapter = null;
+		super.tearDown();
+	}
+
+	public void testReadLatencyUnderWriteLoad() throws Exception {
+
+		// Without the writer, for comparison
+		Reader[] idleReaders = runReaders(IDLE_DURATION, null);
+		log("Idle", idleReaders);
+
+		// With the writer
+		final int[] writeCount = new int[1];
+		Runnable writer = new Runnable() {
+
+			public void run() {
+
+				Random random = new Random(7);
+				int artifactCount = LOCATION_COUNT * ARTIFACTS_PER_LOCATION;
+
+				try {
+
+					while(!isStopped) {
+
+						if(0 == random.nextInt(4)) {
+
+							// A new artifact at an existing location
+							int location = random.nextInt(LOCATION_COUNT);
+							dbAdapter.insert("Location " + location, coordinates[location][0], coordinates[location][1], "New artifact " + writeCount[0], getText(random));
+						}
+						else {
+
+							// A batch of data updates, like the write-behind queue
+							Map<String, String> artifactData = new HashMap<String, String>();
+
+							for(int i = 0; i < 32; i++) {
+
+								artifactData.put(String.valueOf(1 + random.nextInt(artifactCount)), getText(random));
+							}
+
+							dbAdapter.updateArtifactData(artifactData);
+						}
+
+						writeCount[0]++;
+					}
+				}
+				catch(Throwable t) {
+
+					errors.add(t);
+				}
+			}
+		};
+
+		Reader[] loadedReaders = runReaders(LOAD_DURATION, writer);
+		log("Writing (" + writeCount[0] + " writes)", loadedReaders);
+
+		for(Throwable error : errors) {
+
+			Log.e(PROD_LOG_TAG, "Concurrent access failed", error);
+		}
+
+		if(!errors.isEmpty()) {
+
+			fail(errors.size() + " errors, the first: " + Log.getStackTraceString(errors.peek()));
+		}
+
+		assertTrue(0 < writeCount[0]);
+
+		// The readers must not be starved by the writer
+		for(Reader reader : loadedReaders) {
+
+			for(int operation = 0; operation < OPERATIONS.length; operation++) {
+
+				assertTrue(OPERATIONS[operation], 0 < reader.counts[operation]);
+			}
+		}
+	}
+
+	/*
+	 * Helper method that runs the readers, and the writer if there is one, for the provided
+	 * duration in milliseconds
+	 */
+	private Reader[] runReaders(long duration, Runnable writer) throws InterruptedException {
+
+		isStopped = false;
+		Reader[] readers = new Reader[READER_THREAD_COUNT];
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for(int i = 0; i < READER_THREAD_COUNT; i++) {
+
+			readers[i] = new Reader(i);
+			threads.add(new Thread(readers[i], "Reader " + i));
+		}
+
+		if(null != writer) {
+
+			threads.add(new Thread(writer, "Writer"));
+		}
+
+		for(Thread thread : threads) {
+
+			thread.start();
+		}
+
+		Thread.sleep(duration);
+		isStopped = true;
+
+		for(Thread thread : threads) {
+
+			thread.join();
+		}
+
+		return readers;
+	}
+
+	/*
+	 * Helper method that logs the read count, median, 99th percentile, and maximum latency of
+	 * each operation over all the readers
+	 */
+	private static void log(String phase, Reader[] readers) {
+
+		Log.i(PROD_LOG_TAG, phase + ", " + READER_THREAD_COUNT + " readers, " + LOCATION_COUNT + " locations");
+
+		for(int operation = 0; operation < OPERATIONS.length; operation++) {
+
+			int count = 0;
+
+			for(Reader reader : readers) {
+
+				count += reader.counts[operation];
+			}
+
+			long[] latencies = new long[count];
+			count = 0;
+
+			for(Reader reader : readers) {
+
+				System.arraycopy(reader.latencies[operation], 0, latencies, count, reader.counts[operation]);
+				count += reader.counts[operation];
+			}
+
+			if(0 == count) {
+
+				continue;
+			}
+
+			Arrays.sort(latencies);
+			Log.i(PROD_LOG_TAG, String.format(Locale.US, "%-20s %6d reads, p50 %8.2f ms, p99 %8.2f ms, max %8.2f ms", OPERATIONS[operation], count,
+					latencies[count / 2] / 1.0e6d, latencies[(int)(count * 0.99d)] / 1.0e6d, latencies[count - 1] / 1.0e6d));
+		}
+	}
+
+	/*
+	 * Helper method that builds random text from the word list
+	 */
+	private static String getText(Random random) {
+
+		StringBuilder text = new StringBuilder();
+
+		for(int i = 0; i < 4; i++) {
+
+			text.append((0 == i) ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+		}
+
+		return text.toString();
+	}
+
+	/*
+	 * Helper method that reads all the rows of a cursor, and closes it
+	 */
+	private static int count(StoreCursor cursor) {
+
+		int rowCount = 0;
+
+		for(boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+
+			cursor.getString(0);
+			rowCount++;
+		}
+
+		cursor.close();
+
+		return rowCount;
+	}
+}
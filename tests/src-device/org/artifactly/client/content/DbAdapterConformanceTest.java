@@ -0,0 +1,73 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import org.artifactly.client.ArtifactlyTestRunner;
+
+import android.content.Context;
+import android.test.RenamingDelegatingContext;
+
+/*
+ * Runs the ArtifactStore conformance tests against the SQLite engine. Each test gets a new
+ * database, next to the application's one, which is deleted afterwards.
+ */
+public class DbAdapterConformanceTest extends ArtifactStoreConformanceTest {
+
+	// DbAdapter's database name, with the prefix of the test databases
+	private static final String DATABASE_NAME = "ArtifactlyData";
+	private static final String TEST_DATABASE_PREFIX = "test.";
+
+	@Override
+	protected ArtifactStore createStore() {
+
+		return createDbAdapter();
+	}
+
+	@Override
+	protected void closeStore(ArtifactStore store) {
+
+		closeDbAdapter((DbAdapter)store);
+	}
+
+	/*
+	 * Create a DbAdapter over a new, empty test database
+	 */
+	static DbAdapter createDbAdapter() {
+
+		Context context = getTestContext();
+		context.deleteDatabase(DATABASE_NAME);
+		return new DbAdapter(context);
+	}
+
+	/*
+	 * Close the provided DbAdapter and delete its test database
+	 */
+	static void closeDbAdapter(DbAdapter dbAdapter) {
+
+		if(null != dbAdapter) {
+
+			dbAdapter.close();
+		}
+
+		getTestContext().deleteDatabase(DATABASE_NAME);
+	}
+
+	private static Context getTestContext() {
+
+		return new RenamingDelegatingContext(ArtifactlyTestRunner.getTestTargetContext(), TEST_DATABASE_PREFIX);
+	}
+}
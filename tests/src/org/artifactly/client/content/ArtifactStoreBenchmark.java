@@ -0,0 +1,212 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * Times the data paths of an ArtifactStore engine over the same generated data set: import,
+ * listing, paging, search, bounding box queries, data updates, and the location snapshot.
+ * main() runs it against MemoryArtifactStore on a plain JVM. DbAdapterBenchmarkTest runs it
+ * against both engines on a device, where SQLite is available, for the side by side numbers.
+ */
+public class ArtifactStoreBenchmark {
+
+	private static final String[] WORDS = {"milk", "eggs", "bread", "coffee", "tea", "apples", "keys", "parcel", "tickets", "receipt", "charger", "umbrella"};
+
+	private final int locationCount;
+	private final int artifactsPerLocation;
+	private final long seed;
+
+	public ArtifactStoreBenchmark(int locationCount, int artifactsPerLocation, long seed) {
+
+		this.locationCount = locationCount;
+		this.artifactsPerLocation = artifactsPerLocation;
+		this.seed = seed;
+	}
+
+	/*
+	 * Run all the measurements against the provided empty store. Returns one line per
+	 * measurement with the operation count, elapsed time, and throughput.
+	 */
+	public List<String> run(ArtifactStore store) {
+
+		List<String> report = new ArrayList<String>();
+		Random random = new Random(seed);
+
+		// Import
+		List<String[]> rows = new ArrayList<String[]>(locationCount * artifactsPerLocation);
+
+		for(int i = 0; i < locationCount; i++) {
+
+			String latitude = String.valueOf(37.0d + random.nextDouble());
+			String longitude = String.valueOf(-122.5d + random.nextDouble());
+
+			for(int j = 0; j < artifactsPerLocation; j++) {
+
+				rows.add(new String[] {"Artifact " + i + "." + j, getText(random, 8), "Location " + i, latitude, longitude});
+			}
+		}
+
+		long startTime = System.nanoTime();
+		ImportResult result = store.bulkInsert(rows.iterator(), 500);
+		report.add(getLine("bulkInsert", rows.size(), startTime));
+
+		if(result.getCreatedCount() != rows.size()) {
+
+			throw new IllegalStateException("Imported " + result.getCreatedCount() + " of " + rows.size() + " rows");
+		}
+
+		// Full listing
+		startTime = System.nanoTime();
+		int rowCount = count(store.select());
+		report.add(getLine("select", rowCount, startTime));
+
+		// Keyset pages of 50
+		startTime = System.nanoTime();
+		rowCount = 0;
+		String afterLocationName = null;
+		String afterArtifactName = null;
+		long afterArtifactId = -1;
+
+		while(true) {
+
+			StoreCursor cursor = store.selectPage(afterLocationName, afterArtifactName, afterArtifactId, 50);
+
+			if(!cursor.moveToLast()) {
+
+				cursor.close();
+				break;
+			}
+
+			rowCount += cursor.getCount();
+			afterLocationName = cursor.getString(cursor.getColumnIndex(StoreSchema.LOC_FIELDS[StoreSchema.LOC_NAME]));
+			afterArtifactName = cursor.getString(cursor.getColumnIndex(StoreSchema.ART_FIELDS[StoreSchema.ART_NAME]));
+			afterArtifactId = cursor.getLong(cursor.getColumnIndex(StoreSchema.LOC_ART_FIELDS[StoreSchema.FK_ART_ID]));
+			cursor.close();
+		}
+
+		report.add(getLine("selectPage", rowCount, startTime));
+
+		// Search
+		int queryCount = 100;
+		startTime = System.nanoTime();
+
+		for(int i = 0; i < queryCount; i++) {
+
+			store.searchArtifacts(WORDS[random.nextInt(WORDS.length)].substring(0, 3) + " " + WORDS[random.nextInt(WORDS.length)], 20);
+		}
+
+		report.add(getLine("searchArtifacts", queryCount, startTime));
+
+		// Locations within 2 km
+		queryCount = 2000;
+		startTime = System.nanoTime();
+
+		for(int i = 0; i < queryCount; i++) {
+
+			count(store.getLocationsNear(37.0d + random.nextDouble(), -122.5d + random.nextDouble(), 2000));
+		}
+
+		report.add(getLine("getLocationsNear", queryCount, startTime));
+
+		// Data updates in batches of 32, like the write-behind queue
+		int updateCount = 0;
+		startTime = System.nanoTime();
+
+		for(int i = 0; i < 20; i++) {
+
+			Map<String, String> artifactData = new HashMap<String, String>();
+
+			for(int j = 0; j < 32; j++) {
+
+				artifactData.put(String.valueOf(1 + random.nextInt(rows.size())), getText(random, 8));
+			}
+
+			updateCount += store.updateArtifactData(artifactData);
+		}
+
+		report.add(getLine("updateArtifactData", updateCount, startTime));
+
+		// Snapshot rebuild after the changes
+		startTime = System.nanoTime();
+		LocationSnapshot snapshot = store.getLocationSnapshot();
+		report.add(getLine("getLocationSnapshot", snapshot.size(), startTime));
+
+		return report;
+	}
+
+	public static void main(String[] args) {
+
+		int locationCount = (0 < args.length) ? Integer.parseInt(args[0]) : 10000;
+		int artifactsPerLocation = (1 < args.length) ? Integer.parseInt(args[1]) : 3;
+		ArtifactStoreBenchmark benchmark = new ArtifactStoreBenchmark(locationCount, artifactsPerLocation, 42);
+
+		// The first run warms up the JIT
+		benchmark.run(new MemoryArtifactStore());
+
+		System.out.println("MemoryArtifactStore, " + locationCount + " locations, " + artifactsPerLocation + " artifacts each");
+
+		for(String line : benchmark.run(new MemoryArtifactStore())) {
+
+			System.out.println(line);
+		}
+	}
+
+	/*
+	 * Helper method that builds random text from the word list
+	 */
+	private static String getText(Random random, int wordCount) {
+
+		StringBuilder text = new StringBuilder();
+
+		for(int i = 0; i < wordCount; i++) {
+
+			text.append((0 == i) ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+		}
+
+		return text.toString();
+	}
+
+	/*
+	 * Helper method that reads all the rows of a cursor, and closes it
+	 */
+	private static int count(StoreCursor cursor) {
+
+		int rowCount = 0;
+
+		for(boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+
+			cursor.getString(0);
+			rowCount++;
+		}
+
+		cursor.close();
+		return rowCount;
+	}
+
+	private static String getLine(String operation, int count, long startTime) {
+
+		double elapsedMillis = (System.nanoTime() - startTime) / 1000000.0d;
+		return String.format(Locale.US, "%-20s %8d ops %10.1f ms %12.0f ops/s", operation, count, elapsedMillis, (count * 1000.0d) / Math.max(elapsedMillis, 0.001d));
+	}
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.artifactly.client.ApplicationConstants;
+
+/*
+ * Behavior that every ArtifactStore engine has to have: the return codes, the row order,
+ * the search ranking, and the data version. MemoryArtifactStoreTest runs it on a plain JVM
+ * and DbAdapterConformanceTest runs it against SQLite on a device, so that the two engines
+ * can't drift apart.
+ */
+public abstract class ArtifactStoreConformanceTest extends TestCase implements ApplicationConstants, StoreSchema {
+
+	protected ArtifactStore store;
+
+	/*
+	 * Creates an empty store
+	 */
+	protected abstract ArtifactStore createStore() throws Exception;
+
+	/*
+	 * Releases the store and its data
+	 */
+	protected abstract void closeStore(ArtifactStore store) throws Exception;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		super.setUp();
+		store = createStore();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		closeStore(store);
+		store = null;
+		super.tearDown();
+	}
+
+	public void testInsertCreatesArtifactAndLocation() {
+
+		long dataVersion = store.getDataVersion();
+
+		assertEquals(DEFAULT_MASK, store.insert("Home", "37.5", "-122.25", "Milk", "2 liters"));
+		assertTrue(store.getDataVersion() > dataVersion);
+
+		List<String[]> rows = getListing(store.select());
+		assertEquals(1, rows.size());
+		assertEquals(Arrays.asList("Home", "Milk", "2 liters"), Arrays.asList(rows.get(0)[2], rows.get(0)[0], rows.get(0)[1]));
+		assertTrue(store.hasArtifact(getArtifactId("Milk")));
+		assertTrue(store.hasArtifactsAtLocation(getLocationId("Home")));
+	}
+
+	public void testInsertExistingAssociation() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", "2 liters");
+		long dataVersion = store.getDataVersion();
+
+		assertEquals(ARTIFACT_AND_LOCATION_EXIST, store.insert("Home", "37.5", "-122.25", "Milk", "2 liters"));
+		assertEquals(dataVersion, store.getDataVersion());
+		assertEquals(1, getListing(store.select()).size());
+	}
+
+	public void testInsertReusesLocationAndArtifact() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", "2 liters");
+
+		// Same coordinates with another name reuse the location, same name reuses the artifact
+		assertEquals(DEFAULT_MASK, store.insert("Other", "37.5", "-122.25", "Eggs", null));
+		assertEquals(DEFAULT_MASK, store.insert("Shop", "37.6", "-122.25", "Milk", "ignored"));
+
+		assertEquals(2, getLocationNames(store.getLocations()).size());
+		List<String[]> rows = getListing(store.select());
+		assertEquals(3, rows.size());
+		assertEquals("2 liters", rows.get(2)[1]);
+	}
+
+	public void testInsertLocationNameWithOtherCoordinates() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+
+		assertEquals(CHOOSE_DIFFERENT_LOC_NAME, store.insert("Home", "38.5", "-122.25", "Eggs", null));
+		assertEquals(1, getListing(store.select()).size());
+	}
+
+	public void testInsertInvalidCoordinates() {
+
+		assertEquals(CREATE_ARTIFACT_LOCATION_ERROR, store.insert("Home", "north", "-122.25", "Milk", null));
+		assertEquals(0, getListing(store.select()).size());
+	}
+
+	public void testBulkInsert() {
+
+		List<String[]> rows = new ArrayList<String[]>();
+		rows.add(new String[] {"Milk", "2 liters", "Home", "37.5", "-122.25"});
+		rows.add(new String[] {"Milk", "2 liters", "Home", "37.5", "-122.25"});
+		rows.add(new String[] {" ", null, "Home", "37.5", "-122.25"});
+		rows.add(new String[] {"Eggs", null, "", "37.5", "-122.25"});
+		rows.add(new String[] {"Eggs", null, "Shop", null, "-122.25"});
+		rows.add(new String[] {"Eggs", null, "Shop", "north", "-122.25"});
+		rows.add(new String[] {"Eggs", null, "Home", "38.5", "-122.25"});
+		rows.add(new String[] {"Eggs", null, "Shop", "37.6", "-122.25"});
+
+		ImportResult result = store.bulkInsert(rows.iterator(), 3);
+
+		assertEquals(8, result.getRowCount());
+		assertEquals(DEFAULT_MASK, result.getRowStatus(0));
+		assertEquals(ARTIFACT_AND_LOCATION_EXIST, result.getRowStatus(1));
+		assertEquals(ARTIFACT_NAME_ERROR, result.getRowStatus(2));
+		assertEquals(LOCATION_NAME_ERROR, result.getRowStatus(3));
+		assertEquals(CREATE_ARTIFACT_LOCATION_ERROR, result.getRowStatus(4));
+		assertEquals(CREATE_ARTIFACT_LOCATION_ERROR, result.getRowStatus(5));
+		assertEquals(CHOOSE_DIFFERENT_LOC_NAME, result.getRowStatus(6));
+		assertEquals(DEFAULT_MASK, result.getRowStatus(7));
+		assertEquals(2, result.getCreatedCount());
+		assertEquals(1, result.getExistingCount());
+		assertEquals(5, result.getErrorCount());
+
+		// A failed row leaves nothing behind
+		assertEquals(Arrays.asList("Home", "Shop"), getLocationNames(store.getLocations()));
+		assertEquals(2, getListing(store.select()).size());
+	}
+
+	public void testDeleteArtifact() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Shop", "37.6", "-122.25", "Milk", null);
+		String artifactId = getArtifactId("Milk");
+		String homeId = getLocationId("Home");
+		String shopId = getLocationId("Shop");
+
+		// The artifact stays while another location still has it
+		assertEquals(1, store.deleteArtifact(artifactId, homeId));
+		assertTrue(store.hasArtifact(artifactId));
+		assertEquals(-1, store.deleteArtifact(artifactId, homeId));
+
+		long dataVersion = store.getDataVersion();
+		assertEquals(1, store.deleteArtifact(artifactId, shopId));
+		assertFalse(store.hasArtifact(artifactId));
+		assertTrue(store.getDataVersion() > dataVersion);
+		assertEquals(0, getListing(store.select()).size());
+	}
+
+	public void testDeleteLocation() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		String locationId = getLocationId("Home");
+
+		assertEquals(0, store.deleteLocation(locationId));
+		store.deleteArtifact(getArtifactId("Milk"), locationId);
+		assertFalse(store.hasArtifactsAtLocation(locationId));
+		assertEquals(1, store.deleteLocation(locationId));
+		assertEquals(-1, store.deleteLocation(locationId));
+		assertEquals(0, getLocationNames(store.getLocations()).size());
+	}
+
+	public void testUpdateArtifact() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Home", "37.5", "-122.25", "Eggs", null);
+		store.insert("Shop", "37.6", "-122.25", "Bread", null);
+		String artifactId = getArtifactId("Milk");
+		String locationId = getLocationId("Home");
+
+		assertEquals(-1, store.updateArtifact(artifactId, "Eggs", null, locationId, "Home"));
+		assertEquals(-4, store.updateArtifact(artifactId, "Milk", null, locationId, "Shop"));
+		assertEquals(1, store.updateArtifact(artifactId, "Oat milk", "1 liter", locationId, "House"));
+
+		StoreCursor cursor = store.select(artifactId, locationId);
+		assertTrue(cursor.moveToFirst());
+		assertEquals("Oat milk", cursor.getString(cursor.getColumnIndex(ART_FIELDS[ART_NAME])));
+		assertEquals("1 liter", cursor.getString(cursor.getColumnIndex(ART_FIELDS[ART_DATA])));
+		assertEquals("House", cursor.getString(cursor.getColumnIndex(LOC_FIELDS[LOC_NAME])));
+		cursor.close();
+	}
+
+	public void testUpdateArtifactData() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Home", "37.5", "-122.25", "Eggs", null);
+		String artifactId = getArtifactId("Milk");
+		long dataVersion = store.getDataVersion();
+
+		assertEquals(1, store.updateArtifactData(artifactId, "2 liters"));
+		assertEquals(-1, store.updateArtifactData("999", "2 liters"));
+		assertFalse(store.hasArtifact("999"));
+		assertTrue(store.getDataVersion() > dataVersion);
+
+		Map<String, String> artifactData = new HashMap<String, String>();
+		artifactData.put(artifactId, "3 liters");
+		artifactData.put(getArtifactId("Eggs"), "a dozen");
+		artifactData.put("999", "nothing");
+		assertEquals(2, store.updateArtifactData(artifactData));
+
+		List<String[]> rows = getListing(store.select());
+		assertEquals("a dozen", rows.get(0)[1]);
+		assertEquals("3 liters", rows.get(1)[1]);
+	}
+
+	public void testLargeAndNullArtifactData() {
+
+		StringBuilder data = new StringBuilder();
+
+		for(int i = 0; data.length() < 64 * 1024; i++) {
+
+			data.append("line ").append(i).append(" of a long note\n");
+		}
+
+		store.insert("Home", "37.5", "-122.25", "Notes", data.toString());
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+
+		List<String[]> rows = getListing(store.select());
+		assertNull(rows.get(0)[1]);
+		assertEquals(data.toString(), rows.get(1)[1]);
+
+		store.updateArtifactData(getArtifactId("Milk"), data.toString());
+		store.updateArtifactData(getArtifactId("Notes"), "short");
+		rows = getListing(store.select());
+		assertEquals(data.toString(), rows.get(0)[1]);
+		assertEquals("short", rows.get(1)[1]);
+	}
+
+	public void testUpdateLocation() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Shop", "37.6", "-122.25", "Eggs", null);
+		String locationId = getLocationId("Home");
+
+		assertEquals(-1, store.updateLocation(locationId, "Shop", null, null));
+		assertEquals(-2, store.updateLocation("999", "Office", null, null));
+		assertEquals(1, store.updateLocation(locationId, "House", null, null));
+		assertEquals(Arrays.asList("House", "Shop"), getLocationNames(store.getLocations()));
+	}
+
+	public void testUpdateLocationRadius() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		String locationId = getLocationId("Home");
+
+		assertEquals(-2, store.updateLocation(locationId, "Home", null, null, "wide"));
+		assertEquals(-2, store.updateLocation(locationId, "Home", null, null, "0"));
+		assertEquals(1, store.updateLocation(locationId, "Home", null, null, "150"));
+		assertEquals(150, getRadius(locationId));
+
+		LocationSnapshot snapshot = store.getLocationSnapshot();
+		assertEquals(1, snapshot.size());
+		assertEquals(150, snapshot.getRadius(0));
+
+		assertEquals(1, store.updateLocation(locationId, "Home", null, null, ""));
+		assertEquals(0, getRadius(locationId));
+	}
+
+	public void testUpdateLocationCoordinates() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Shop", "37.6", "-122.25", "Eggs", null);
+		String locationId = getLocationId("Home");
+
+		assertEquals(-2, store.updateLocationCoodinates(locationId, "Home", "north", "-122.25"));
+		assertEquals(-1, store.updateLocationCoodinates(locationId, "Home", "37.6", "-122.25"));
+		assertEquals(1, store.updateLocationCoodinates(locationId, "Home", "37.7", "-122.35"));
+
+		String[] row = getListing(store.select(getArtifactId("Milk"), locationId)).get(0);
+		assertEquals(37.7d, Double.parseDouble(row[3]), 0.0d);
+		assertEquals(-122.35d, Double.parseDouble(row[4]), 0.0d);
+	}
+
+	public void testSelectOrderAndPages() {
+
+		store.insert("Shop", "37.6", "-122.25", "Bread", null);
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Home", "37.5", "-122.25", "Eggs", null);
+		store.insert("Shop", "37.6", "-122.25", "Milk", null);
+		store.insert("Office", "37.7", "-122.25", "Coffee", null);
+		store.insert("Home", "37.5", "-122.25", "Apples", null);
+		store.insert("Office", "37.7", "-122.25", "Tea", null);
+
+		List<String[]> rows = getListing(store.select());
+		List<String> keys = new ArrayList<String>();
+
+		for(String[] row : rows) {
+
+			keys.add(row[2] + "/" + row[0]);
+		}
+
+		assertEquals(Arrays.asList("Home/Apples", "Home/Eggs", "Home/Milk", "Office/Coffee", "Office/Tea", "Shop/Bread", "Shop/Milk"), keys);
+
+		// The pages are the select() rows, in order, without gaps or repeats
+		List<String> pagedKeys = new ArrayList<String>();
+		List<String[]> page = getListing(store.selectPage(null, null, -1, 3));
+
+		while(!page.isEmpty()) {
+
+			for(String[] row : page) {
+
+				pagedKeys.add(row[2] + "/" + row[0]);
+			}
+
+			String[] last = page.get(page.size() - 1);
+			page = getListing(store.selectPage(last[2], last[0], Long.parseLong(last[5]), 3));
+		}
+
+		assertEquals(keys, pagedKeys);
+	}
+
+	public void testSelectByArtifactsAndLocations() {
+
+		store.insert("Shop", "37.6", "-122.25", "Milk", null);
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Home", "37.5", "-122.25", "Eggs", null);
+		store.insert("Office", "37.7", "-122.25", "Coffee", null);
+
+		List<String[]> rows = getListing(store.select(new long[] {Long.parseLong(getArtifactId("Milk")), Long.parseLong(getArtifactId("Coffee")), 999}));
+		assertEquals(3, rows.size());
+		assertEquals("Home", rows.get(0)[2]);
+		assertEquals("Office", rows.get(1)[2]);
+		assertEquals("Shop", rows.get(2)[2]);
+
+		rows = getListing(store.selectAtLocations(new long[] {Long.parseLong(getLocationId("Home")), 999}));
+		assertEquals(2, rows.size());
+		assertEquals("Eggs", rows.get(0)[0]);
+		assertEquals("Milk", rows.get(1)[0]);
+
+		assertEquals(0, getListing(store.select(getArtifactId("Coffee"), getLocationId("Home"))).size());
+	}
+
+	public void testBoundingBox() {
+
+		store.insert("Zero", "10.0", "0.0", "A", null);
+		store.insert("East", "10.0", "179.99", "B", null);
+		store.insert("West", "10.0", "-179.99", "C", null);
+		store.insert("North", "10.5", "179.99", "D", null);
+
+		assertEquals(Arrays.asList("East", "West"), getLocationNames(store.getLocations(9.9d, 179.9d, 10.1d, -179.9d)));
+		assertEquals(Arrays.asList("Zero"), getLocationNames(store.getLocations(9.9d, -0.1d, 10.1d, 0.1d)));
+		assertEquals(0, getLocationNames(store.getLocations(20.0d, -180.0d, 30.0d, 180.0d)).size());
+
+		// Within 3 km of the anti-meridian at 10N
+		assertEquals(Arrays.asList("East", "West"), getLocationNames(store.getLocationsNear(10.0d, 180.0d, 3000)));
+		assertEquals(Arrays.asList("Zero"), getLocationNames(store.getLocationsNear(10.0d, 0.0d, 1000)));
+	}
+
+	public void testSearchRanking() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", "buy eggs");
+		store.insert("Home", "37.5", "-122.25", "Eggs", "milk, milk");
+		store.insert("Home", "37.5", "-122.25", "Bread", "whole grain");
+		String milkId = getArtifactId("Milk");
+		String eggsId = getArtifactId("Eggs");
+
+		// Name matches count more than data matches
+		assertEquals(Arrays.asList(milkId, eggsId), toStrings(store.searchArtifacts("milk", 10)));
+		assertEquals(Arrays.asList(eggsId, milkId), toStrings(store.searchArtifacts("EGG", 10)));
+		assertEquals(Arrays.asList(milkId), toStrings(store.searchArtifacts("milk", 1)));
+
+		// All the terms have to match, and FTS operators and quotes are ignored
+		assertEquals(Arrays.asList(milkId), toStrings(store.searchArtifacts("\"mil\" OR buy", 10)));
+		assertEquals(0, store.searchArtifacts("OR AND", 10).length);
+		assertEquals(0, store.searchArtifacts("rye", 10).length);
+
+		store.updateArtifactData(getArtifactId("Bread"), "rye");
+		assertEquals(Arrays.asList(getArtifactId("Bread")), toStrings(store.searchArtifacts("rye", 10)));
+	}
+
+	public void testLocationSnapshot() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Shop", "37.6", "-122.25", "Eggs", null);
+		store.deleteArtifact(getArtifactId("Eggs"), getLocationId("Shop"));
+
+		LocationSnapshot snapshot = store.getLocationSnapshot();
+		assertEquals(store.getDataVersion(), snapshot.getDataVersion());
+		assertEquals(2, snapshot.size());
+		assertSame(snapshot, store.getLocationSnapshot());
+
+		for(int i = 0; i < snapshot.size(); i++) {
+
+			assertEquals(String.valueOf(snapshot.getId(i)).equals(getLocationId("Home")), snapshot.hasArtifacts(i));
+		}
+
+		store.insert("Office", "37.7", "-122.25", "Coffee", null);
+		assertEquals(3, store.getLocationSnapshot().size());
+	}
+
+	/*
+	 * Helper method that reads and closes a listing cursor. The row fields are artName,
+	 * artData, locName, lat, lng, and artId.
+	 */
+	private static List<String[]> getListing(StoreCursor cursor) {
+
+		List<String[]> rows = new ArrayList<String[]>();
+		int[] columns = {
+			cursor.getColumnIndex(ART_FIELDS[ART_NAME]), cursor.getColumnIndex(ART_FIELDS[ART_DATA]), cursor.getColumnIndex(LOC_FIELDS[LOC_NAME]),
+			cursor.getColumnIndex(LOC_FIELDS[LOC_LATITUDE]), cursor.getColumnIndex(LOC_FIELDS[LOC_LONGITUDE]), cursor.getColumnIndex(LOC_ART_FIELDS[FK_ART_ID])
+		};
+
+		for(boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+
+			String[] row = new String[columns.length];
+
+			for(int i = 0; i < columns.length; i++) {
+
+				row[i] = cursor.getString(columns[i]);
+			}
+
+			rows.add(row);
+		}
+
+		cursor.close();
+		return rows;
+	}
+
+	/*
+	 * Helper method that reads and closes a location cursor, sorted by name
+	 */
+	private static List<String> getLocationNames(StoreCursor cursor) {
+
+		List<String> names = new ArrayList<String>();
+		int nameColumn = cursor.getColumnIndex(LOC_FIELDS[LOC_NAME]);
+
+		for(boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+
+			names.add(cursor.getString(nameColumn));
+		}
+
+		cursor.close();
+		Collections.sort(names);
+		return names;
+	}
+
+	private String getArtifactId(String artifactName) {
+
+		return getId(artifactName, ART_FIELDS[ART_NAME], LOC_ART_FIELDS[FK_ART_ID]);
+	}
+
+	private String getLocationId(String locationName) {
+
+		return getId(locationName, LOC_FIELDS[LOC_NAME], LOC_ART_FIELDS[FK_LOC_ID]);
+	}
+
+	/*
+	 * Helper method that finds an ID in the select() rows
+	 */
+	private String getId(String name, String nameColumnName, String idColumnName) {
+
+		StoreCursor cursor = store.select();
+
+		try {
+
+			for(boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+
+				if(name.equals(cursor.getString(cursor.getColumnIndex(nameColumnName)))) {
+
+					return String.valueOf(cursor.getLong(cursor.getColumnIndex(idColumnName)));
+				}
+			}
+		}
+		finally {
+
+			cursor.close();
+		}
+
+		fail("No row with " + nameColumnName + " " + name);
+		return null;
+	}
+
+	/*
+	 * Helper method that returns a location's radius, or 0 if it uses the radius preference
+	 */
+	private int getRadius(String locationId) {
+
+		StoreCursor cursor = store.getLocations();
+
+		try {
+
+			for(boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+
+				if(locationId.equals(String.valueOf(cursor.getLong(cursor.getColumnIndex(LOC_FIELDS[LOC_ID]))))) {
+
+					String radius = cursor.getString(cursor.getColumnIndex(LOC_FIELDS[LOC_RADIUS]));
+					return (null == radius) ? 0 : Integer.parseInt(radius);
+				}
+			}
+		}
+		finally {
+
+			cursor.close();
+		}
+
+		fail("No location " + locationId);
+		return -1;
+	}
+
+	private static List<String> toStrings(long[] ids) {
+
+		List<String> strings = new ArrayList<String>(ids.length);
+
+		for(long id : ids) {
+
+			strings.add(String.valueOf(id));
+		}
+
+		return strings;
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+package org.artifactly.client.content;
+
+/*
+ * Runs the ArtifactStore conformance tests against the in-memory engine, on a plain JVM
+ */
+public class MemoryArtifactStoreTest extends ArtifactStoreConformanceTest {
+
+	@Override
+	protected ArtifactStore createStore() {
+
+		return new MemoryArtifactStore();
+	}
+
+	@Override
+	protected void closeStore(ArtifactStore store) {
+
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package org.artifactly.client.content;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+ * Times ProximityKernel's radius check against the exact distance in meters, which needs
+ * asin and sqrt for every location, and the LocationSnapshot scan that uses the check.
+ * The locations are spread over one degree of latitude and longitude, as in ArtifactStoreBenchmark.
+ * Each measurement runs once to warm up the JIT, and once timed.
+ */
+public class ProximityKernelBenchmark {
+
+	private final double[] latitudes;
+	private final double[] latitudeRadians;
+	private final double[] longitudeRadians;
+	private final double[] cosLatitudes;
+	private final double[][] centers;
+	private final int radiusInMeters;
+	private final LocationSnapshot snapshot;
+
+	public ProximityKernelBenchmark(int locationCount, int centerCount, int radiusInMeters, long seed) {
+
+		Random random = new Random(seed);
+
+		latitudes = new double[locationCount];
+		double[] longitudes = new double[locationCount];
+
+		for(int i = 0; i < locationCount; i++) {
+
+			latitudes[i] = 37.0d + random.nextDouble();
+		}
+
+		// The snapshot needs the locations sorted by latitude
+		Arrays.sort(latitudes);
+
+		latitudeRadians = new double[locationCount];
+		longitudeRadians = new double[locationCount];
+		cosLatitudes = new double[locationCount];
+		long[] ids = new long[locationCount];
+		boolean[] hasArtifacts = new boolean[locationCount];
+
+		for(int i = 0; i < locationCount; i++) {
+
+			longitudes[i] = -122.5d + random.nextDouble();
+			latitudeRadians[i] = Math.toRadians(latitudes[i]);
+			longitudeRadians[i] = Math.toRadians(longitudes[i]);
+			cosLatitudes[i] = Math.cos(latitudeRadians[i]);
+			ids[i] = i + 1;
+			hasArtifacts[i] = true;
+		}
+
+		centers = new double[centerCount][];
+
+		for(int i = 0; i < centerCount; i++) {
+
+			centers[i] = new double[] {37.0d + random.nextDouble(), -122.5d + random.nextDouble()};
+		}
+
+		this.radiusInMeters = radiusInMeters;
+		this.snapshot = new LocationSnapshot(1, ids, latitudes, longitudes, hasArtifacts, new int[locationCount]);
+	}
+
+	/*
+	 * Number of locations within the radius of all centers, with the bounds of the kernel
+	 */
+	public long runKernel() {
+
+		long matchCount = 0;
+
+		for(double[] center : centers) {
+
+			ProximityKernel kernel = new ProximityKernel(center[0], center[1], radiusInMeters);
+
+			for(int i = 0; i < latitudeRadians.length; i++) {
+
+				if(kernel.isWithinRadius(latitudeRadians[i], longitudeRadians[i], cosLatitudes[i])) {
+
+					matchCount++;
+				}
+			}
+		}
+
+		return matchCount;
+	}
+
+	/*
+	 * Same as above, but comparing the distance in meters
+	 */
+	public long runDistance() {
+
+		long matchCount = 0;
+
+		for(double[] center : centers) {
+
+			ProximityKernel kernel = new ProximityKernel(center[0], center[1], radiusInMeters);
+
+			for(int i = 0; i < latitudeRadians.length; i++) {
+
+				if(ProximityKernel.toMeters(kernel.getHaversine(latitudeRadians[i], longitudeRadians[i], cosLatitudes[i])) <= radiusInMeters) {
+
+					matchCount++;
+				}
+			}
+		}
+
+		return matchCount;
+	}
+
+	/*
+	 * Same as above, with the latitude band scan of the snapshot
+	 */
+	public long runSnapshot() {
+
+		long matchCount = 0;
+
+		for(double[] center : centers) {
+
+			matchCount += snapshot.getContaining(new ProximityKernel(center[0], center[1], radiusInMeters)).length;
+		}
+
+		return matchCount;
+	}
+
+	public static void main(String[] args) {
+
+		int locationCount = (0 < args.length) ? Integer.parseInt(args[0]) : 100000;
+		int centerCount = (1 < args.length) ? Integer.parseInt(args[1]) : 200;
+		int radiusInMeters = (2 < args.length) ? Integer.parseInt(args[2]) : 2000;
+		ProximityKernelBenchmark benchmark = new ProximityKernelBenchmark(locationCount, centerCount, radiusInMeters, 42);
+		long checkCount = (long)locationCount * centerCount;
+
+		System.out.println("ProximityKernel, " + locationCount + " locations, " + centerCount + " centers, radius " + radiusInMeters + " m");
+
+		for(int run = 0; run < 2; run++) {
+
+			long startTime = System.nanoTime();
+			long kernelMatches = benchmark.runKernel();
+			long kernelTime = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			long distanceMatches = benchmark.runDistance();
+			long distanceTime = System.nanoTime() - startTime;
+
+			startTime = System.nanoTime();
+			long snapshotMatches = benchmark.runSnapshot();
+			long snapshotTime = System.nanoTime() - startTime;
+
+			if(kernelMatches != distanceMatches || kernelMatches != snapshotMatches) {
+
+				throw new IllegalStateException("Matches differ: " + kernelMatches + ", " + distanceMatches + ", " + snapshotMatches);
+			}
+
+			// The first run warms up the JIT
+			if(0 < run) {
+
+				System.out.println(getLine("isWithinRadius", checkCount, kernelTime));
+				System.out.println(getLine("toMeters", checkCount, distanceTime));
+				System.out.println(getLine("getContaining", checkCount, snapshotTime));
+			}
+		}
+	}
+
+	/*
+	 * Helper method that formats a measurement as checks per second
+	 */
+	private static String getLine(String name, long checkCount, long elapsedNanos) {
+
+		return String.format(Locale.US, "%-16s %12d checks %10.1f ms %14.0f checks/s", name, checkCount, elapsedNanos / 1.0e6d, checkCount * 1.0e9d / Math.max(1, elapsedNanos));
+	}
+}
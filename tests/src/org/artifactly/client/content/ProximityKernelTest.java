@@ -0,0 +1,255 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package org.artifactly.client.content;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/*
+ * Accuracy of ProximityKernel against the WGS84 distances of Location.distanceBetween(), whose
+ * Vincenty iteration is ported below so that it runs on a plain JVM. The point pairs lie near
+ * the radius boundary, where a wrong decision shows, including at the poles and across the
+ * anti-meridian.
+ */
+public class ProximityKernelTest extends TestCase {
+
+	/*
+	 * Documented difference between the sphere and the WGS84 ellipsoid. The meridian's radius
+	 * of curvature at the equator is about 0.56% below the mean Earth radius.
+	 */
+	private static final double MAX_RELATIVE_ERROR = 0.006d;
+
+	private static final int[] RADII = {10, 100, 1000, 10000, 100000};
+
+	private static final int PAIR_COUNT = 20000;
+
+	private static final double WGS84_MAJOR_AXIS = 6378137.0d;
+	private static final double WGS84_MINOR_AXIS = 6356752.3142d;
+
+	private final Random random = new Random(42L);
+
+	/*
+	 * Random centers anywhere on Earth
+	 */
+	public void testRandomPairsNearBoundary() {
+
+		for(int i = 0; i < PAIR_COUNT; i++) {
+
+			double latitude = Math.toDegrees(Math.asin(2.0d * random.nextDouble() - 1.0d));
+			double longitude = 360.0d * random.nextDouble() - 180.0d;
+			checkPairNearBoundary(latitude, longitude);
+		}
+	}
+
+	/*
+	 * Centers on and next to both poles, where the longitude difference degenerates
+	 */
+	public void testPoles() {
+
+		double[] latitudes = {90.0d, 89.9999d, 89.99d, 89.5d, -90.0d, -89.9999d, -89.99d, -89.5d};
+
+		for(int i = 0; i < PAIR_COUNT; i++) {
+
+			checkPairNearBoundary(latitudes[i % latitudes.length], 360.0d * random.nextDouble() - 180.0d);
+		}
+	}
+
+	/*
+	 * Centers next to the anti-meridian, so that the radius crosses from +180 to -180 degrees
+	 */
+	public void testAntiMeridian() {
+
+		double[] longitudes = {180.0d, 179.9999d, 179.99d, -180.0d, -179.9999d, -179.99d};
+
+		for(int i = 0; i < PAIR_COUNT; i++) {
+
+			double latitude = 160.0d * random.nextDouble() - 80.0d;
+			checkPairNearBoundary(latitude, longitudes[i % longitudes.length]);
+		}
+	}
+
+	/*
+	 * The two sides of the anti-meridian are close, not half the Earth apart
+	 */
+	public void testAntiMeridianNeighbors() {
+
+		ProximityKernel kernel = new ProximityKernel(10.0d, 179.9995d, 200);
+
+		assertTrue(kernel.isWithinRadiusDegrees(10.0d, -179.9995d));
+		assertEquals(getReferenceDistance(10.0d, 179.9995d, 10.0d, -179.9995d), kernel.getDistanceDegrees(10.0d, -179.9995d), 1.0d);
+		assertFalse(kernel.isWithinRadiusDegrees(10.0d, -179.99d));
+	}
+
+	/*
+	 * All locations on a pole are the same point, whatever their longitude
+	 */
+	public void testPoleLongitudes() {
+
+		ProximityKernel kernel = new ProximityKernel(90.0d, 0.0d, 10);
+
+		for(int longitude = -180; longitude <= 180; longitude += 15) {
+
+			assertTrue(kernel.isWithinRadiusDegrees(90.0d, longitude));
+			assertEquals(0.0d, kernel.getDistanceDegrees(90.0d, longitude), 1.0e-6d);
+		}
+	}
+
+	/*
+	 * The bounds that skip the exact check must never change its outcome
+	 */
+	public void testBoundsAgreeWithExactCheck() {
+
+		for(int i = 0; i < PAIR_COUNT; i++) {
+
+			double latitude = Math.toDegrees(Math.asin(2.0d * random.nextDouble() - 1.0d));
+			double longitude = 360.0d * random.nextDouble() - 180.0d;
+			int radius = RADII[random.nextInt(RADII.length)];
+			ProximityKernel kernel = new ProximityKernel(latitude, longitude, radius);
+
+			double[] point = getDestination(latitude, longitude, 360.0d * random.nextDouble(), radius * (0.5d + random.nextDouble()));
+			double latitudeRadians = Math.toRadians(point[0]);
+			double longitudeRadians = Math.toRadians(point[1]);
+			double cosLatitude = Math.cos(latitudeRadians);
+			double haversine = kernel.getHaversine(latitudeRadians, longitudeRadians, cosLatitude);
+
+			// Ties are left to rounding
+			if(Math.abs(haversine - kernel.getHaversineRadius()) <= 1.0e-9d * kernel.getHaversineRadius()) {
+
+				continue;
+			}
+
+			assertEquals(point[0] + ", " + point[1] + " from " + latitude + ", " + longitude,
+					haversine <= kernel.getHaversineRadius(), kernel.isWithinRadius(latitudeRadians, longitudeRadians, cosLatitude));
+		}
+	}
+
+	/*
+	 * Helper method that checks a random point near the radius boundary of a kernel at the
+	 * provided center. Points clearly inside or outside the WGS84 radius must be decided the
+	 * same way, and the distance must be within MAX_RELATIVE_ERROR of the WGS84 distance.
+	 */
+	private void checkPairNearBoundary(double latitude, double longitude) {
+
+		int radius = RADII[random.nextInt(RADII.length)];
+		ProximityKernel kernel = new ProximityKernel(latitude, longitude, radius);
+
+		// Within 2% of the radius, on either side
+		double[] point = getDestination(latitude, longitude, 360.0d * random.nextDouble(), radius * (0.98d + 0.04d * random.nextDouble()));
+		double reference = getReferenceDistance(latitude, longitude, point[0], point[1]);
+		String pair = point[0] + ", " + point[1] + " from " + latitude + ", " + longitude + " with radius " + radius;
+
+		assertEquals(pair, reference, kernel.getDistanceDegrees(point[0], point[1]), reference * MAX_RELATIVE_ERROR + 1.0e-3d);
+
+		if(reference <= radius * (1.0d - MAX_RELATIVE_ERROR)) {
+
+			assertTrue(pair, kernel.isWithinRadiusDegrees(point[0], point[1]));
+		}
+		else if(reference >= radius * (1.0d + MAX_RELATIVE_ERROR)) {
+
+			assertFalse(pair, kernel.isWithinRadiusDegrees(point[0], point[1]));
+		}
+	}
+
+	/*
+	 * Helper method that returns the point {latitude, longitude} in degrees at the provided
+	 * bearing and distance on a sphere, with the longitude in [-180, 180]
+	 */
+	private static double[] getDestination(double latitude, double longitude, double bearing, double meters) {
+
+		double angle = meters / 6371008.8d;
+		double latitudeRadians = Math.toRadians(latitude);
+		double bearingRadians = Math.toRadians(bearing);
+
+		double sinLatitude = Math.sin(latitudeRadians) * Math.cos(angle) + Math.cos(latitudeRadians) * Math.sin(angle) * Math.cos(bearingRadians);
+		double destinationLatitude = Math.asin(Math.max(-1.0d, Math.min(1.0d, sinLatitude)));
+		double longitudeDelta = Math.atan2(Math.sin(bearingRadians) * Math.sin(angle) * Math.cos(latitudeRadians), Math.cos(angle) - Math.sin(latitudeRadians) * sinLatitude);
+		double destinationLongitude = longitude + Math.toDegrees(longitudeDelta);
+
+		if(destinationLongitude > 180.0d) {
+
+			destinationLongitude -= 360.0d;
+		}
+		else if(destinationLongitude < -180.0d) {
+
+			destinationLongitude += 360.0d;
+		}
+
+		return new double[] {Math.toDegrees(destinationLatitude), destinationLongitude};
+	}
+
+	/*
+	 * Helper method that returns the WGS84 distance in meters as Location.distanceBetween() does,
+	 * with Vincenty's inverse formula
+	 */
+	private static double getReferenceDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
+
+		double a = WGS84_MAJOR_AXIS;
+		double b = WGS84_MINOR_AXIS;
+		double f = (a - b) / a;
+		double aSqMinusBSqOverBSq = (a * a - b * b) / (b * b);
+
+		double L = Math.toRadians(longitude2) - Math.toRadians(longitude1);
+		double U1 = Math.atan((1.0d - f) * Math.tan(Math.toRadians(latitude1)));
+		double U2 = Math.atan((1.0d - f) * Math.tan(Math.toRadians(latitude2)));
+
+		double cosU1 = Math.cos(U1);
+		double cosU2 = Math.cos(U2);
+		double sinU1 = Math.sin(U1);
+		double sinU2 = Math.sin(U2);
+		double cosU1cosU2 = cosU1 * cosU2;
+		double sinU1sinU2 = sinU1 * sinU2;
+
+		double A = 0.0d;
+		double sigma = 0.0d;
+		double deltaSigma = 0.0d;
+		double lambda = L;
+
+		for(int iteration = 0; iteration < 20; iteration++) {
+
+			double lambdaOrig = lambda;
+			double cosLambda = Math.cos(lambda);
+			double sinLambda = Math.sin(lambda);
+			double t1 = cosU2 * sinLambda;
+			double t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+			double sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+			double cosSigma = sinU1sinU2 + cosU1cosU2 * cosLambda;
+			sigma = Math.atan2(sinSigma, cosSigma);
+
+			double sinAlpha = (sinSigma == 0.0d) ? 0.0d : cosU1cosU2 * sinLambda / sinSigma;
+			double cosSqAlpha = 1.0d - sinAlpha * sinAlpha;
+			double cos2SM = (cosSqAlpha == 0.0d) ? 0.0d : cosSigma - 2.0d * sinU1sinU2 / cosSqAlpha;
+
+			double uSquared = cosSqAlpha * aSqMinusBSqOverBSq;
+			A = 1.0d + (uSquared / 16384.0d) * (4096.0d + uSquared * (-768.0d + uSquared * (320.0d - 175.0d * uSquared)));
+			double B = (uSquared / 1024.0d) * (256.0d + uSquared * (-128.0d + uSquared * (74.0d - 47.0d * uSquared)));
+			double C = (f / 16.0d) * cosSqAlpha * (4.0d + f * (4.0d - 3.0d * cosSqAlpha));
+			double cos2SMSq = cos2SM * cos2SM;
+			deltaSigma = B * sinSigma * (cos2SM + (B / 4.0d) * (cosSigma * (-1.0d + 2.0d * cos2SMSq) - (B / 6.0d) * cos2SM * (-3.0d + 4.0d * sinSigma * sinSigma) * (-3.0d + 4.0d * cos2SMSq)));
+
+			lambda = L + (1.0d - C) * f * sinAlpha * (sigma + C * sinSigma * (cos2SM + C * cosSigma * (-1.0d + 2.0d * cos2SMSq)));
+
+			if(Math.abs((lambda - lambdaOrig) / lambda) < 1.0e-12d) {
+
+				break;
+			}
+		}
+
+		return b * A * (sigma - deltaSigma);
+	}
+}
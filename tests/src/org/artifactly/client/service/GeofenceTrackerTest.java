@@ -0,0 +1,354 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package org.artifactly.client.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.artifactly.client.content.LocationSnapshot;
+import org.artifactly.client.content.MemoryArtifactStore;
+import org.artifactly.client.content.ProximityKernel;
+import org.artifactly.client.content.StoreCursor;
+import org.artifactly.client.content.StoreSchema;
+
+/*
+ * Transitions of GeofenceTracker, compared against a brute force check of every location,
+ * and the soundness of skipping updates with canSkipUpdate()
+ */
+public class GeofenceTrackerTest extends TestCase implements StoreSchema {
+
+	private static final double METERS_PER_DEGREE = 111195.0d;
+
+	private static final int RADIUS = 150;
+
+	private static final double CENTER_LATITUDE = 37.5d;
+	private static final double CENTER_LONGITUDE = -122.25d;
+
+	private final Random random = new Random(42L);
+
+	private MemoryArtifactStore store;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		super.setUp();
+		store = new MemoryArtifactStore();
+	}
+
+	public void testEnterAndExit() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		long homeId = getLocationId("Home");
+		LocationSnapshot snapshot = store.getLocationSnapshot();
+		GeofenceTracker tracker = new GeofenceTracker(new long[0]);
+
+		GeofenceTracker.Transition transition = tracker.update(snapshot, new ProximityKernel(37.5d, -122.25d, RADIUS));
+		assertTrue(Arrays.equals(new long[] {homeId}, transition.entered));
+		assertFalse(transition.hasExited());
+		assertTrue(tracker.isInside());
+
+		// Staying inside is no transition
+		transition = tracker.update(snapshot, new ProximityKernel(37.5005d, -122.25d, RADIUS));
+		assertFalse(transition.hasEntered());
+		assertFalse(transition.hasExited());
+
+		transition = tracker.update(snapshot, new ProximityKernel(37.51d, -122.25d, RADIUS));
+		assertFalse(transition.hasEntered());
+		assertTrue(Arrays.equals(new long[] {homeId}, transition.exited));
+		assertFalse(tracker.isInside());
+	}
+
+	public void testOwnRadius() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Park", "37.52", "-122.25", "Ball", null);
+		long parkId = getLocationId("Park");
+		store.updateLocation(String.valueOf(parkId), "Park", null, null, "1000");
+		LocationSnapshot snapshot = store.getLocationSnapshot();
+		GeofenceTracker tracker = new GeofenceTracker(new long[0]);
+
+		// About 550 m from the park, outside the kernel's radius but inside the park's
+		GeofenceTracker.Transition transition = tracker.update(snapshot, new ProximityKernel(37.515d, -122.25d, RADIUS));
+		assertTrue(Arrays.equals(new long[] {parkId}, transition.entered));
+	}
+
+	public void testClear() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		LocationSnapshot snapshot = store.getLocationSnapshot();
+		GeofenceTracker tracker = new GeofenceTracker(new long[0]);
+		tracker.update(snapshot, new ProximityKernel(37.5d, -122.25d, RADIUS));
+
+		GeofenceTracker.Transition transition = tracker.clear();
+		assertTrue(Arrays.equals(new long[] {getLocationId("Home")}, transition.exited));
+		assertFalse(tracker.isInside());
+		assertFalse(tracker.canSkipUpdate(snapshot.getDataVersion(), RADIUS, 37.5d, -122.25d, 0.0f));
+		assertEquals(0.0d, tracker.getBoundaryDistance(), 0.0d);
+	}
+
+	public void testStateRoundTrip() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Shop", "37.5001", "-122.25", "Eggs", null);
+		LocationSnapshot snapshot = store.getLocationSnapshot();
+		GeofenceTracker tracker = new GeofenceTracker(new long[0]);
+		tracker.update(snapshot, new ProximityKernel(37.5d, -122.25d, RADIUS));
+
+		// A tracker restored from the state has nothing to enter at the same position
+		GeofenceTracker restoredTracker = new GeofenceTracker(GeofenceTracker.parse(tracker.getState()));
+		assertEquals(2, restoredTracker.getInside().length);
+		GeofenceTracker.Transition transition = restoredTracker.update(snapshot, new ProximityKernel(37.5d, -122.25d, RADIUS));
+		assertFalse(transition.hasEntered());
+		assertFalse(transition.hasExited());
+
+		assertTrue(Arrays.equals(new long[] {3, 5}, GeofenceTracker.parse("3, x,5,")));
+		assertEquals(0, GeofenceTracker.parse(null).length);
+		assertEquals(0, GeofenceTracker.parse("").length);
+	}
+
+	/*
+	 * Random walk through 10k locations with radii from 5 m to 20 km, with steps from 1 m to 5 km.
+	 * Every transition must be the difference between the brute force sets before and after it.
+	 */
+	public void testRandomWalkMatchesBruteForce() {
+
+		LocationSnapshot snapshot = createLocations(10000);
+		GeofenceTracker tracker = new GeofenceTracker(new long[0]);
+		long[] previousInside = new long[0];
+		double[] position = {CENTER_LATITUDE, CENTER_LONGITUDE};
+		int transitionCount = 0;
+
+		for(int step = 0; step < 2000; step++) {
+
+			move(position, Math.pow(10.0d, 3.7d * random.nextDouble()));
+			ProximityKernel kernel = new ProximityKernel(position[0], position[1], RADIUS);
+			GeofenceTracker.Transition transition = tracker.update(snapshot, kernel);
+			long[] expectedInside = getContaining(snapshot, kernel);
+
+			assertTrue(Arrays.equals(expectedInside, sorted(tracker.getInside())));
+			assertTrue(Arrays.equals(getDifference(expectedInside, previousInside), sorted(transition.entered)));
+			assertTrue(Arrays.equals(getDifference(previousInside, expectedInside), sorted(transition.exited)));
+
+			transitionCount += transition.entered.length + transition.exited.length;
+			previousInside = expectedInside;
+		}
+
+		// The walk must actually cross boundaries
+		assertTrue(transitionCount > 1000);
+	}
+
+	/*
+	 * Random walk with fixes of varying accuracy. A tracker that skips the updates that
+	 * canSkipUpdate() allows must be inside the same geofences as the brute force check, at the
+	 * fix and anywhere within its accuracy, and the same as a tracker that never skips. There
+	 * are fewer locations than above, so that their boundaries leave room to skip.
+	 */
+	public void testCanSkipUpdateIsSound() {
+
+		LocationSnapshot snapshot = createLocations(2000);
+		GeofenceTracker skippingTracker = new GeofenceTracker(new long[0]);
+		GeofenceTracker tracker = new GeofenceTracker(new long[0]);
+		double[] position = {CENTER_LATITUDE, CENTER_LONGITUDE};
+		int skipCount = 0;
+
+		for(int step = 0; step < 5000; step++) {
+
+			move(position, 5.0d * random.nextDouble());
+			float accuracy = 20.0f * random.nextFloat();
+			ProximityKernel kernel = new ProximityKernel(position[0], position[1], RADIUS);
+
+			tracker.update(snapshot, kernel);
+
+			if(skippingTracker.canSkipUpdate(snapshot.getDataVersion(), RADIUS, position[0], position[1], accuracy)) {
+
+				skipCount++;
+				long[] inside = sorted(skippingTracker.getInside());
+				assertTrue(Arrays.equals(sorted(tracker.getInside()), inside));
+
+				// The true position may be anywhere within the accuracy
+				for(int i = 0; i < 2; i++) {
+
+					double[] truePosition = {position[0], position[1]};
+					move(truePosition, accuracy * random.nextDouble());
+					assertTrue(Arrays.equals(getContaining(snapshot, new ProximityKernel(truePosition[0], truePosition[1], RADIUS)), inside));
+				}
+			}
+			else {
+
+				skippingTracker.update(snapshot, kernel);
+				assertTrue(Arrays.equals(sorted(tracker.getInside()), sorted(skippingTracker.getInside())));
+			}
+		}
+
+		// Skipping must actually happen, or there is nothing to test
+		assertTrue(String.valueOf(skipCount), skipCount > 1000);
+	}
+
+	public void testCanSkipUpdateNeedsSameDataAndRadius() {
+
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		LocationSnapshot snapshot = store.getLocationSnapshot();
+		GeofenceTracker tracker = new GeofenceTracker(new long[0]);
+
+		assertFalse(tracker.canSkipUpdate(snapshot.getDataVersion(), RADIUS, 37.51d, -122.25d, 0.0f));
+		tracker.update(snapshot, new ProximityKernel(37.51d, -122.25d, RADIUS));
+
+		assertTrue(tracker.getBoundaryDistance() > 900.0d);
+		assertTrue(tracker.canSkipUpdate(snapshot.getDataVersion(), RADIUS, 37.51d, -122.25d, 10.0f));
+		assertFalse(tracker.canSkipUpdate(snapshot.getDataVersion() + 1, RADIUS, 37.51d, -122.25d, 10.0f));
+		assertFalse(tracker.canSkipUpdate(snapshot.getDataVersion(), RADIUS + 1, 37.51d, -122.25d, 10.0f));
+
+		// Not with an accuracy that reaches the boundary
+		assertFalse(tracker.canSkipUpdate(snapshot.getDataVersion(), RADIUS, 37.51d, -122.25d, 1000.0f));
+	}
+
+	/*
+	 * Helper method that creates the provided number of locations with artifacts within about 10 km
+	 * of the center. A third use the kernel's radius, the others have their own, from 5 m to 20 km.
+	 */
+	private LocationSnapshot createLocations(int locationCount) {
+
+		List<String[]> rows = new ArrayList<String[]>(locationCount);
+
+		for(int i = 0; i < locationCount; i++) {
+
+			String latitude = String.valueOf(CENTER_LATITUDE - 0.1d + 0.2d * random.nextDouble());
+			String longitude = String.valueOf(CENTER_LONGITUDE - 0.1d + 0.2d * random.nextDouble());
+			rows.add(new String[] {"Artifact " + i, null, "Location " + i, latitude, longitude});
+		}
+
+		assertEquals(locationCount, store.bulkInsert(rows.iterator(), 500).getCreatedCount());
+
+		StoreCursor cursor = store.getLocations();
+
+		for(boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+
+			if(0 != random.nextInt(3)) {
+
+				String radius = String.valueOf((int)(5.0d * Math.pow(2.0d, 12.0d * random.nextDouble())));
+				store.updateLocation(cursor.getString(cursor.getColumnIndex(LOC_FIELDS[LOC_ID])), cursor.getString(cursor.getColumnIndex(LOC_FIELDS[LOC_NAME])), null, null, radius);
+			}
+		}
+
+		cursor.close();
+
+		return store.getLocationSnapshot();
+	}
+
+	/*
+	 * Helper method that returns the sorted IDs of the locations with artifacts whose radius
+	 * contains the kernel's center, by checking every location
+	 */
+	private static long[] getContaining(LocationSnapshot snapshot, ProximityKernel kernel) {
+
+		long[] locationIds = new long[snapshot.size()];
+		int count = 0;
+
+		for(int i = 0; i < snapshot.size(); i++) {
+
+			if(snapshot.hasArtifacts(i) && snapshot.isWithinRadius(i, kernel)) {
+
+				locationIds[count++] = snapshot.getId(i);
+			}
+		}
+
+		long[] containingIds = new long[count];
+		System.arraycopy(locationIds, 0, containingIds, 0, count);
+
+		return sorted(containingIds);
+	}
+
+	/*
+	 * Helper method that moves the position {latitude, longitude} by the provided distance in a
+	 * random direction, and back towards the center if it leaves the area of the locations
+	 */
+	private void move(double[] position, double meters) {
+
+		double bearing = 2.0d * Math.PI * random.nextDouble();
+		position[0] += Math.cos(bearing) * meters / METERS_PER_DEGREE;
+		position[1] += Math.sin(bearing) * meters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(position[0])));
+
+		if(Math.abs(position[0] - CENTER_LATITUDE) > 0.12d || Math.abs(position[1] - CENTER_LONGITUDE) > 0.12d) {
+
+			position[0] = CENTER_LATITUDE + (position[0] - CENTER_LATITUDE) / 2.0d;
+			position[1] = CENTER_LONGITUDE + (position[1] - CENTER_LONGITUDE) / 2.0d;
+		}
+	}
+
+	/*
+	 * Helper method that returns the sorted values of the first array that aren't in the second
+	 */
+	private static long[] getDifference(long[] values, long[] otherValues) {
+
+		long[] difference = new long[values.length];
+		int count = 0;
+
+		for(long value : values) {
+
+			if(Arrays.binarySearch(otherValues, value) < 0) {
+
+				difference[count++] = value;
+			}
+		}
+
+		long[] differenceValues = new long[count];
+		System.arraycopy(difference, 0, differenceValues, 0, count);
+
+		return differenceValues;
+	}
+
+	/*
+	 * Helper method that sorts a copy of the provided array
+	 */
+	private static long[] sorted(long[] values) {
+
+		long[] sortedValues = values.clone();
+		Arrays.sort(sortedValues);
+
+		return sortedValues;
+	}
+
+	/*
+	 * Helper method that returns the ID of the location with the provided name
+	 */
+	private long getLocationId(String locationName) {
+
+		StoreCursor cursor = store.getLocations();
+
+		try {
+
+			for(boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+
+				if(locationName.equals(cursor.getString(cursor.getColumnIndex(LOC_FIELDS[LOC_NAME])))) {
+
+					return cursor.getLong(cursor.getColumnIndex(LOC_FIELDS[LOC_ID]));
+				}
+			}
+		}
+		finally {
+
+			cursor.close();
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package org.artifactly.client.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.artifactly.client.content.LocationSnapshot;
+import org.artifactly.client.content.MemoryArtifactStore;
+
+/*
+ * Times TrajectoryReplay over a generated trace, reported as fixes per second. The trace
+ * stands in for a recorded one: a device that walks, stops, and drives, with one fix per
+ * second, varying accuracy, some fixes far too inaccurate to use, and repeats of the same
+ * fix while it stands still. TrajectoryReplayTest replays the same kind of trace.
+ */
+public class TrajectoryReplayBenchmark {
+
+	private static final double METERS_PER_DEGREE = 111195.0d;
+
+	/*
+	 * Creates the provided number of locations with artifacts within about 10 km of the provided
+	 * center, and returns their snapshot
+	 */
+	public static LocationSnapshot createLocations(Random random, int locationCount, double latitude, double longitude) {
+
+		MemoryArtifactStore store = new MemoryArtifactStore();
+		List<String[]> rows = new ArrayList<String[]>(locationCount);
+
+		for(int i = 0; i < locationCount; i++) {
+
+			String locationLatitude = String.valueOf(latitude - 0.1d + 0.2d * random.nextDouble());
+			String locationLongitude = String.valueOf(longitude - 0.1d + 0.2d * random.nextDouble());
+			rows.add(new String[] {"Artifact " + i, null, "Location " + i, locationLatitude, locationLongitude});
+		}
+
+		store.bulkInsert(rows.iterator(), 500);
+
+		return store.getLocationSnapshot();
+	}
+
+	/*
+	 * Creates a trace of the provided number of fixes, one per second, starting at the provided
+	 * time and position. The device alternates between standing, walking, and driving, and stays
+	 * within about 10 km of the start.
+	 */
+	public static List<TrajectoryReplay.Fix> createTrace(Random random, int fixCount, long time, double latitude, double longitude) {
+
+		List<TrajectoryReplay.Fix> fixes = new ArrayList<TrajectoryReplay.Fix>(fixCount);
+		double currentLatitude = latitude;
+		double currentLongitude = longitude;
+		double speed = 0.0d;
+		double bearing = 0.0d;
+		TrajectoryReplay.Fix fix = null;
+
+		for(int i = 0; i < fixCount; i++) {
+
+			// Every 2 minutes or so, stand, walk, or drive in a new direction
+			if(0 == random.nextInt(120)) {
+
+				double[] speeds = {0.0d, 1.4d, 12.0d};
+				speed = speeds[random.nextInt(speeds.length)];
+				bearing = 2.0d * Math.PI * random.nextDouble();
+			}
+
+			// Turn back towards the start when too far away
+			if(Math.abs(currentLatitude - latitude) > 0.09d || Math.abs(currentLongitude - longitude) > 0.09d) {
+
+				bearing = Math.atan2(longitude - currentLongitude, latitude - currentLatitude);
+			}
+
+			currentLatitude += Math.cos(bearing) * speed / METERS_PER_DEGREE;
+			currentLongitude += Math.sin(bearing) * speed / (METERS_PER_DEGREE * Math.cos(Math.toRadians(currentLatitude)));
+
+			if(null != fix && 0.0d == speed && 0 != random.nextInt(4)) {
+
+				// A standing device mostly reports the same fix again
+				fix = new TrajectoryReplay.Fix(time + i * 1000L, fix.latitude, fix.longitude, fix.accuracy);
+			}
+			else if(0 == random.nextInt(50)) {
+
+				// Cell tower fix, too inaccurate to use
+				fix = new TrajectoryReplay.Fix(time + i * 1000L, currentLatitude + 0.02d * random.nextGaussian(), currentLongitude + 0.02d * random.nextGaussian(), 3000.0f);
+			}
+			else {
+
+				float accuracy = 5.0f + 55.0f * random.nextFloat();
+				double error = accuracy * random.nextGaussian() / 2.0d / METERS_PER_DEGREE;
+				fix = new TrajectoryReplay.Fix(time + i * 1000L, currentLatitude + error, currentLongitude + error, accuracy);
+			}
+
+			fixes.add(fix);
+		}
+
+		return fixes;
+	}
+
+	public static void main(String[] args) {
+
+		int locationCount = (0 < args.length) ? Integer.parseInt(args[0]) : 1000;
+		int fixCount = (1 < args.length) ? Integer.parseInt(args[1]) : 1000000;
+		Random random = new Random(42);
+		LocationSnapshot snapshot = createLocations(random, locationCount, 37.5d, -122.25d);
+		List<TrajectoryReplay.Fix> fixes = createTrace(random, fixCount, 1000000L, 37.5d, -122.25d);
+		TrajectoryReplay replay = new TrajectoryReplay(snapshot, 150);
+
+		System.out.println("TrajectoryReplay, " + locationCount + " locations, " + fixCount + " fixes");
+
+		// The first run warms up the JIT
+		for(int run = 0; run < 2; run++) {
+
+			long startTime = System.nanoTime();
+			int eventCount = replay.replay(fixes).size();
+			long elapsedNanos = System.nanoTime() - startTime;
+
+			if(0 < run) {
+
+				System.out.println(String.format(Locale.US, "%d events, %d accepted fixes, %d evaluated fixes", eventCount, replay.getAcceptedFixCount(), replay.getEvaluatedFixCount()));
+				System.out.println(String.format(Locale.US, "%.1f ms, %.0f fixes/s", elapsedNanos / 1.0e6d, fixCount * 1.0e9d / Math.max(1, elapsedNanos)));
+			}
+		}
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2011 Thomas Amsler
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ */
+
+
+package org.artifactly.client.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.artifactly.client.content.LocationSnapshot;
+import org.artifactly.client.content.MemoryArtifactStore;
+import org.artifactly.client.content.StoreCursor;
+import org.artifactly.client.content.StoreSchema;
+
+/*
+ * Events of TrajectoryReplay for hand made trajectories, in particular the notification for an
+ * entry during the throttle, and the invariants of the events over a generated trace
+ */
+public class TrajectoryReplayTest extends TestCase implements StoreSchema {
+
+	private static final int RADIUS = 150;
+
+	private static final long DELTA = LocationUpdatePolicy.LAST_SEND_NOTIFICATION_TIME_DELTA;
+
+	// Fix times start here, so that the first notification isn't throttled
+	private static final long START_TIME = 1000000L;
+
+	private MemoryArtifactStore store;
+	private LocationSnapshot snapshot;
+	private long homeId;
+	private long shopId;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		super.setUp();
+		store = new MemoryArtifactStore();
+		store.insert("Home", "37.5", "-122.25", "Milk", null);
+		store.insert("Shop", "37.52", "-122.25", "Eggs", null);
+		snapshot = store.getLocationSnapshot();
+		homeId = getLocationId("Home");
+		shopId = getLocationId("Shop");
+	}
+
+	public void testEnterNotifyExitCancel() {
+
+		List<TrajectoryReplay.Event> events = replay(
+				fix(0, 37.51d, 10.0f),
+				fix(10000, 37.5d, 10.0f),
+				fix(20000, 37.51d, 10.0f));
+
+		assertEquals("[1010000 ENTER " + homeId + ", 1010000 NOTIFY, 1020000 EXIT " + homeId + ", 1020000 CANCEL]", events.toString());
+	}
+
+	/*
+	 * An entry during the throttle is notified at the first fix after it, even if that fix is
+	 * the same as the one before, or too close to it to be evaluated
+	 */
+	public void testDelayedNotifyAfterThrottle() {
+
+		List<TrajectoryReplay.Event> events = replay(
+				fix(0, 37.5d, 10.0f),
+				fix(10000, 37.51d, 10.0f),
+				fix(20000, 37.52d, 10.0f),
+				fix(30000, 37.52d, 10.0f),
+				fix(40000, 37.52001d, 10.0f),
+				fix(DELTA - 1, 37.52001d, 10.0f),
+				fix(DELTA, 37.52001d, 10.0f),
+				fix(DELTA + 10000, 37.52002d, 10.0f));
+
+		assertEquals("[1000000 ENTER " + homeId + ", 1000000 NOTIFY, 1010000 EXIT " + homeId + ", 1010000 CANCEL, 1020000 ENTER " + shopId + ", " + (START_TIME + DELTA) + " NOTIFY]", events.toString());
+	}
+
+	/*
+	 * An entry that is still inside one geofence when it enters another is notified after the throttle
+	 */
+	public void testDelayedNotifyForSecondGeofence() {
+
+		store.insert("Garden", "37.502", "-122.25", "Hose", null);
+		snapshot = store.getLocationSnapshot();
+		long gardenId = getLocationId("Garden");
+
+		List<TrajectoryReplay.Event> events = replay(
+				fix(0, 37.4995d, 10.0f),
+				fix(10000, 37.501d, 10.0f),
+				fix(DELTA + 10000, 37.501d, 10.0f));
+
+		assertEquals("[1000000 ENTER " + homeId + ", 1000000 NOTIFY, 1010000 ENTER " + gardenId + ", " + (START_TIME + DELTA + 10000) + " NOTIFY]", events.toString());
+	}
+
+	/*
+	 * Leaving before the throttle ends drops the pending notification
+	 */
+	public void testNoNotifyAfterLeavingDuringThrottle() {
+
+		List<TrajectoryReplay.Event> events = replay(
+				fix(0, 37.5d, 10.0f),
+				fix(10000, 37.51d, 10.0f),
+				fix(20000, 37.52d, 10.0f),
+				fix(30000, 37.51d, 10.0f),
+				fix(DELTA + 10000, 37.51d, 10.0f),
+				fix(DELTA + 20000, 37.51001d, 10.0f));
+
+		assertEquals("[1000000 ENTER " + homeId + ", 1000000 NOTIFY, 1010000 EXIT " + homeId + ", 1010000 CANCEL, 1020000 ENTER " + shopId + ", 1030000 EXIT " + shopId + ", 1030000 CANCEL]", events.toString());
+	}
+
+	/*
+	 * Fixes that are too inaccurate, or older and less accurate, don't move the device
+	 */
+	public void testRejectedFixes() {
+
+		List<TrajectoryReplay.Event> events = replay(
+				fix(0, 37.5d, 10.0f),
+				fix(10000, 37.52d, 3000.0f),
+				fix(-5000, 37.52d, 50.0f));
+
+		assertEquals("[1000000 ENTER " + homeId + ", 1000000 NOTIFY]", events.toString());
+	}
+
+	/*
+	 * Replays a generated trace through 1000 locations, and checks that every location is
+	 * entered and exited in turn, that CANCEL follows the last exit, and that notifications are
+	 * throttled, only sent while inside, and not lost for any entry
+	 */
+	public void testGeneratedTrace() {
+
+		Random random = new Random(42L);
+		LocationSnapshot locations = TrajectoryReplayBenchmark.createLocations(random, 1000, 37.5d, -122.25d);
+		List<TrajectoryReplay.Fix> fixes = TrajectoryReplayBenchmark.createTrace(random, 100000, START_TIME, 37.5d, -122.25d);
+		TrajectoryReplay replay = new TrajectoryReplay(locations, RADIUS);
+		List<TrajectoryReplay.Event> events = replay.replay(fixes);
+
+		Set<Long> inside = new HashSet<Long>();
+		long lastNotificationTime = -DELTA;
+		long pendingEntryTime = -1;
+		int notificationCount = 0;
+
+		for(int i = 0; i < events.size(); i++) {
+
+			TrajectoryReplay.Event event = events.get(i);
+
+			if(TrajectoryReplay.Event.ENTER == event.type) {
+
+				assertTrue(inside.add(Long.valueOf(event.locationId)));
+				pendingEntryTime = (-1 == pendingEntryTime) ? event.time : pendingEntryTime;
+			}
+			else if(TrajectoryReplay.Event.EXIT == event.type) {
+
+				assertTrue(inside.remove(Long.valueOf(event.locationId)));
+			}
+			else if(TrajectoryReplay.Event.CANCEL == event.type) {
+
+				assertTrue(inside.isEmpty());
+				assertEquals(TrajectoryReplay.Event.EXIT, events.get(i - 1).type);
+				pendingEntryTime = -1;
+			}
+			else {
+
+				assertFalse(inside.isEmpty());
+				assertTrue(-1 != pendingEntryTime);
+				assertTrue(event.time >= lastNotificationTime + DELTA);
+
+				// Sent at the entry, or at the first fix that the throttle allows
+				assertTrue(event.time == pendingEntryTime || event.time < lastNotificationTime + DELTA + 1000);
+
+				lastNotificationTime = event.time;
+				pendingEntryTime = -1;
+				notificationCount++;
+			}
+		}
+
+		assertTrue(notificationCount > 10);
+
+		// The geofences are only evaluated for some of the fixes
+		assertTrue(replay.getEvaluatedFixCount() < replay.getAcceptedFixCount());
+		assertTrue(replay.getAcceptedFixCount() < fixes.size());
+	}
+
+	/*
+	 * Helper method that replays the provided fixes through the home and shop locations
+	 */
+	private List<TrajectoryReplay.Event> replay(TrajectoryReplay.Fix... fixes) {
+
+		List<TrajectoryReplay.Fix> fixList = new ArrayList<TrajectoryReplay.Fix>();
+
+		for(TrajectoryReplay.Fix fix : fixes) {
+
+			fixList.add(fix);
+		}
+
+		return new TrajectoryReplay(snapshot, RADIUS).replay(fixList);
+	}
+
+	/*
+	 * Helper method that creates a fix on the home and shop meridian, at a time after START_TIME
+	 */
+	private static TrajectoryReplay.Fix fix(long time, double latitude, float accuracy) {
+
+		return new TrajectoryReplay.Fix(START_TIME + time, latitude, -122.25d, accuracy);
+	}
+
+	/*
+	 * Helper method that returns the ID of the location with the provided name
+	 */
+	private long getLocationId(String locationName) {
+
+		StoreCursor cursor = store.getLocations();
+
+		try {
+
+			for(boolean hasRow = cursor.moveToFirst(); hasRow; hasRow = cursor.moveToNext()) {
+
+				if(locationName.equals(cursor.getString(cursor.getColumnIndex(LOC_FIELDS[LOC_NAME])))) {
+
+					return cursor.getLong(cursor.getColumnIndex(LOC_FIELDS[LOC_ID]));
+				}
+			}
+		}
+		finally {
+
+			cursor.close();
+		}
+
+		return -1;
+	}
+}